@@ -0,0 +1,55 @@
+package inc.vareli.crusman.databases;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Adds up the revenue report of a large fleet's history on pools of
+ * different sizes, to show how the aggregation scales with cores. Compare
+ * the threads=1 score with the others on a machine with that many cores.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AnalyticsBenchmark {
+	@Param({"100000"})
+	public int trips;
+
+	@Param({"1", "2", "4"})
+	public int threads;
+
+	private List<TripFigures> figures;
+	private ForkJoinPool workers;
+
+	@Setup
+	public void createFigures() {
+		Fleet fleet = new Fleet();
+		figures = new ArrayList<TripFigures>(trips);
+		for(int i = 0; i < trips; i++) {
+			figures.add(fleet.figures(i, 40));
+		}
+		workers = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	@Benchmark
+	public RevenueReport aggregate() {
+		return RevenueReport.aggregate(figures, workers);
+	}
+}
@@ -0,0 +1,98 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * "Which trips leaving in this month still have some free balcony cabins",
+ * answered three ways: scanning every trip of the (cached) catalog, asking
+ * the database with searchTrips, and the in-memory AvailabilityIndex.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AvailabilityBenchmark {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	@Param({"20"})
+	public int ships;
+
+	@Param({"25"})
+	public int tripsPerShip;
+
+	@Param({"4"})
+	public int cabins;
+
+	private CMConnection connection;
+	private Date earliest;
+	private Date latest;
+
+	@Setup
+	public void seed() {
+		connection = new CMConnection(Fleet.url("availability" + System.nanoTime()),
+										"sa", "");
+		List<Trip> trips = new Fleet().seed(connection, ships, tripsPerShip);
+		//fill some of the balconies, so the threshold filters something
+		Random random = new Random(2043);
+		for(Trip trip : trips) {
+			int people = random.nextInt(40);
+			for(int i = 0; i < people; i++) {
+				connection.bookTrip(trip, "Jane Doe", false, false,
+									RoomType.BALCONY);
+			}
+		}
+		earliest = new Date(60 * DAY);
+		latest = new Date(90 * DAY);
+	}
+
+	@TearDown
+	public void close() {
+		connection.close();
+	}
+
+	/**
+	 * What a caller has to do today: load every trip and look at each one.
+	 */
+	@Benchmark
+	public List<Long> scanCatalog() {
+		List<Long> tripIDs = new ArrayList<Long>();
+		for(Trip trip : connection.queryTrip()) {
+			long departure = trip.PORTS.getFirstDeparture();
+			if (departure >= earliest.getTime() && departure < latest.getTime()
+					+ DAY && trip.SHIP.getEmptyRoomCount(RoomType.BALCONY)
+								>= cabins) {
+				tripIDs.add(trip.ID);
+			}
+		}
+		return tripIDs;
+	}
+
+	@Benchmark
+	public List<Trip> searchDatabase() {
+		connection.invalidateCaches();
+		return connection.searchTrips(new TripQuery()
+				.departingBetween(earliest, latest)
+				.minFreeCabins(RoomType.BALCONY, cabins), 0, 1000);
+	}
+
+	@Benchmark
+	public List<Long> availabilityIndex() {
+		return connection.findAvailableTrips(RoomType.BALCONY, cabins,
+												earliest, latest);
+	}
+}
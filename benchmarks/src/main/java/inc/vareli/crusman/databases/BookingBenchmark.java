@@ -0,0 +1,99 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Booking from several terminals at once. Run it with -t 1 and then with -t
+ * as many threads as the machine has cores and compare the throughput: as
+ * bookTrip only locks the trip it books, bookDistinctTrips should scale
+ * about linearly with the threads, while bookSharedTrips, where every
+ * thread books the same trip at the same time, shows the cost of
+ * contention.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookingBenchmark {
+	private static final RoomType[] TYPES = RoomType.values();
+
+	@Param({"8"})
+	public int ships;
+
+	@Param({"25"})
+	public int tripsPerShip;
+
+	private CMConnection connection;
+	private List<Trip> trips;
+	private int threads;
+	private final AtomicInteger nextAgent = new AtomicInteger();
+	private final AtomicInteger nextBooking = new AtomicInteger();
+
+	@Setup
+	public void seed(BenchmarkParams params) {
+		threads = params.getThreads();
+		String url = Fleet.url("booking" + System.nanoTime()) + 
+						";LOCK_TIMEOUT=10000";
+		connection = new CMConnection(url, "sa", "", 
+						Math.max(threads, CMConnection.DEFAULT_POOL_SIZE));
+		trips = new Fleet().seed(connection, ships, tripsPerShip);
+	}
+
+	@TearDown
+	public void close() {
+		connection.close();
+	}
+
+	/**
+	 * One terminal, with the trips it books to itself.
+	 */
+	@State(Scope.Thread)
+	public static class Agent {
+		private int slot;
+		private int booking;
+
+		@Setup
+		public void join(BookingBenchmark benchmark) {
+			slot = benchmark.nextAgent.getAndIncrement();
+		}
+	}
+
+	/**
+	 * Each thread books its own share of the trips, every room type in turn.
+	 */
+	@Benchmark
+	public String bookDistinctTrips(Agent agent) {
+		int booking = agent.booking++;
+		int owned = trips.size() / threads;
+		Trip trip = trips.get(agent.slot + 
+							threads * ((booking / TYPES.length) % owned));
+		return connection.bookTrip(trip, "Jane Doe", true, false, 
+									TYPES[booking % TYPES.length]);
+	}
+
+	/**
+	 * Every thread walks the trips together, so they book the same trip at
+	 * the same time.
+	 */
+	@Benchmark
+	public String bookSharedTrips() {
+		int booking = nextBooking.getAndIncrement();
+		Trip trip = trips.get((booking / (TYPES.length * 64)) % trips.size());
+		return connection.bookTrip(trip, "Jane Doe", true, false, 
+									TYPES[booking % TYPES.length]);
+	}
+}
@@ -0,0 +1,80 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+/**
+ * Reading the catalog and booking tickets against an embedded H2 database
+ * seeded with a fleet. The absolute numbers are not what MySQL over the
+ * network would give, but the differences between versions are.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CMConnectionBenchmark {
+	private static final RoomType[] TYPES = RoomType.values();
+
+	@Param({"20"})
+	public int ships;
+
+	@Param({"25"})
+	public int tripsPerShip;
+
+	private CMConnection connection;
+	private List<Trip> trips;
+	private int nextBooking;
+
+	@Setup
+	public void seed() {
+		connection = new CMConnection(Fleet.url("benchmark" + System.nanoTime()),
+										"sa", "");
+		trips = new Fleet().seed(connection, ships, tripsPerShip);
+	}
+
+	@TearDown
+	public void close() {
+		connection.close();
+	}
+
+	/**
+	 * Reads every trip from the database, the way the catalog cache does
+	 * when it has nothing cached.
+	 */
+	@Benchmark
+	public List<Trip> queryTrip() {
+		connection.invalidateCaches();
+		return connection.queryTrip();
+	}
+
+	@Benchmark
+	public List<Trip> queryTripCached() {
+		return connection.queryTrip();
+	}
+
+	/**
+	 * Spreads the bookings over every trip and room type, so the trips do not
+	 * fill up during the run.
+	 */
+	@Benchmark
+	public String bookTrip() {
+		int booking;
+		synchronized (this) {
+			booking = nextBooking++;
+		}
+		Trip trip = trips.get(booking % trips.size());
+		RoomType type = TYPES[(booking / trips.size()) % TYPES.length];
+		return connection.bookTrip(trip, "Jane Doe", true, false, type);
+	}
+}
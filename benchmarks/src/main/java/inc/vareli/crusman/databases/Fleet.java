@@ -0,0 +1,123 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Made up but realistic data for the benchmarks: ships the size of real
+ * cruise ships, and trips of a few days to two weeks calling at a handful of
+ * Mediterranean ports. Always seeded the same way, so runs can be compared.
+ */
+class Fleet {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	private static final String[] PORTS = {"Barcelona", "Marseille", "Genoa",
+				"Rome", "Naples", "Palermo", "Valletta", "Athens", "Mykonos",
+				"Dubrovnik", "Venice", "Split"};
+
+	private final Random random = new Random(2043);
+
+	/**
+	 * @return how many of each room a ship has, between 1000 and 2400 rooms
+	 */
+	Map<RoomType,Integer> roomCounts() {
+		Map<RoomType,Integer> roomCounts = 
+							new EnumMap<RoomType,Integer>(RoomType.class);
+		roomCounts.put(RoomType.INTERIOR, 400 + random.nextInt(400));
+		roomCounts.put(RoomType.OUTSIDE, 200 + random.nextInt(300));
+		roomCounts.put(RoomType.BALCONY, 350 + random.nextInt(500));
+		roomCounts.put(RoomType.SUITE, 50 + random.nextInt(200));
+		return roomCounts;
+	}
+
+	/**
+	 * @param ship - the ship the trip sails on
+	 * @param firstDay - days after the epoch that the trip leaves on
+	 * @return a builder for a 3 to 14 day trip with 2 to 8 ports
+	 */
+	TripBuilder trip(Ship ship, int firstDay) {
+		TripBuilder builder = new TripBuilder(ship);
+		builder.addCost(Service.MEALS, 150 + random.nextInt(150));
+		builder.addCost(Service.DRINKS, 100 + random.nextInt(200));
+		builder.addCost(RoomType.INTERIOR, 500 + random.nextInt(500));
+		builder.addCost(RoomType.OUTSIDE, 800 + random.nextInt(600));
+		builder.addCost(RoomType.BALCONY, 1200 + random.nextInt(800));
+		builder.addCost(RoomType.SUITE, 3000 + random.nextInt(3000));
+		int days = 3 + random.nextInt(12);
+		int ports = 2 + random.nextInt(Math.min(days, 7));
+		//a trip only calls at each port once
+		List<String> route = new ArrayList<String>(Arrays.asList(PORTS));
+		Collections.shuffle(route, random);
+		for(int i = 0; i < ports; i++) {
+			long day = firstDay + (long) days * i / (ports - 1);
+			builder.addPort(new Date(day * DAY + 8 * 60 * 60 * 1000),
+							new Date(day * DAY + 18 * 60 * 60 * 1000),
+							route.get(i), "Europe/Rome");
+		}
+		return builder;
+	}
+
+	/**
+	 * @param tripID - the ID of the trip
+	 * @param ships - how many ships the line has
+	 * @return the figures of a week long trip on one of the ships, leaving in
+	 * some month of ten years, with 30 to 100% of each type of room booked
+	 */
+	TripFigures figures(long tripID, int ships) {
+		Map<RoomType,Integer> roomCounts = roomCounts();
+		RoomType[] types = RoomType.values();
+		int[] capacity = new int[types.length];
+		int[] passengers = new int[types.length];
+		double[] roomRevenue = new double[types.length];
+		int fees = 500;
+		for(int i = 0; i < types.length; i++) {
+			capacity[i] = roomCounts.get(types[i]) * Trip.maxOccupancyFor(7);
+			passengers[i] = capacity[i] * (30 + random.nextInt(71)) / 100;
+			roomRevenue[i] = passengers[i] * (fees + random.nextInt(fees));
+			fees *= 2;
+		}
+		int people = passengers[0] + passengers[1] + passengers[2] + 
+						passengers[3];
+		double packageRevenue = random.nextInt(people + 1) * 200 + 
+						random.nextInt(people + 1) * 150;
+		return new TripFigures(tripID, random.nextInt(ships), 
+						YearMonth.of(2015 + random.nextInt(10), 
+										1 + random.nextInt(12)),
+						capacity, passengers, roomRevenue, packageRevenue);
+	}
+
+	/**
+	 * Writes ships and trips to the database, as a cruise line would have a
+	 * few years in.
+	 * @return every trip that was created
+	 */
+	List<Trip> seed(CMConnection connection, int ships, int tripsPerShip) {
+		List<Trip> trips = new ArrayList<Trip>();
+		for(int i = 0; i < ships; i++) {
+			Ship ship = connection.createShip(roomCounts());
+			for(int j = 0; j < tripsPerShip; j++) {
+				trips.add(connection.createTrip(trip(ship.emptyCopy(), j * 15)));
+			}
+		}
+		return trips;
+	}
+
+	/**
+	 * @param name - a name for the database, unique within the benchmark run
+	 * @return a url for an in-memory database that behaves like MySQL
+	 */
+	static String url(String name) {
+		return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;" + 
+				"CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+	}
+}
@@ -0,0 +1,102 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Exports the manifest of one fully booked trip, as a port authority would
+ * ask for it, to a channel that throws the bytes away.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ManifestBenchmark {
+	@Param({"5000"})
+	public int passengers;
+
+	private CMConnection connection;
+	private Trip trip;
+	private WritableByteChannel discard;
+
+	@Setup
+	public void seed() throws SQLException {
+		String url = Fleet.url("manifest" + System.nanoTime());
+		connection = new CMConnection(url, "sa", "");
+		trip = new Fleet().seed(connection, 1, 1).get(0);
+		//booking one at a time would take most of the run, so the tickets
+		//are written straight to the table
+		RoomType[] types = RoomType.values();
+		int type = 0;
+		int place = 0;
+		try(Connection direct = DriverManager.getConnection(url, "sa", "");
+			PreparedStatement insert = direct.prepareStatement(
+							"insert into Ticket values(?, ?, ?, ?, ?, ?)")) {
+			for(int i = 0; i < passengers; i++) {
+				if (place == trip.getCapacity(types[type])) {
+					type++;
+					place = 0;
+				}
+				insert.setLong(1, 1000000 + i);
+				insert.setLong(2, trip.ID);
+				insert.setString(3, "Passenger " + i);
+				insert.setInt(4, i % 2);
+				insert.setInt(5, i % 3 == 0 ? 1 : 0);
+				insert.setInt(6, trip.SHIP.roomNumberFor(types[type], place++,
+												trip.getMaxOccupancy()));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+		discard = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int bytes = src.remaining();
+				src.position(src.limit());
+				return bytes;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@TearDown
+	public void close() {
+		connection.close();
+	}
+
+	@Benchmark
+	public long csv() throws IOException {
+		return connection.exportManifest(trip.ID, ManifestFormat.CSV, discard);
+	}
+
+	@Benchmark
+	public long jsonLines() throws IOException {
+		return connection.exportManifest(trip.ID, ManifestFormat.JSON_LINES,
+											discard);
+	}
+}
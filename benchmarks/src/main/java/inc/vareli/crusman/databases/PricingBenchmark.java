@@ -0,0 +1,70 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pricing a whole catalog, as the browse screen and the reports do: the total
+ * fees of every trip, and a quote for every room type with both packages.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PricingBenchmark {
+	private static final RoomType[] ROOM_TYPES = RoomType.values();
+
+	@Param({"1000"})
+	public int trips;
+
+	private List<Trip> catalog;
+
+	@Setup
+	public void createTrips() {
+		Fleet fleet = new Fleet();
+		catalog = new ArrayList<Trip>(trips);
+		Ship ship = new Ship(1, fleet.roomCounts());
+		for(int i = 0; i < trips; i++) {
+			catalog.add(fleet.trip(ship, i).build(i));
+		}
+	}
+
+	@Benchmark
+	public double totalFees() {
+		double sum = 0;
+		for(Trip trip : catalog) {
+			sum += trip.getTotalFees();
+		}
+		return sum;
+	}
+
+	/**
+	 * The cheapest full package, room plus meals plus drinks, on each trip
+	 */
+	@Benchmark
+	public double cheapestQuotes() {
+		double sum = 0;
+		for(Trip trip : catalog) {
+			double packages = trip.COSTS.get(Service.MEALS) +
+								trip.COSTS.get(Service.DRINKS);
+			double cheapest = Double.MAX_VALUE;
+			for(RoomType type : ROOM_TYPES) {
+				cheapest = Math.min(cheapest, trip.COSTS.get(type) + packages);
+			}
+			sum += cheapest;
+		}
+		return sum;
+	}
+}
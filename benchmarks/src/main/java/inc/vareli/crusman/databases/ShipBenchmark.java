@@ -0,0 +1,92 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+/**
+ * Booking people into a ship that is already partly full, and reading its
+ * occupancy back.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ShipBenchmark {
+	private static final int BOOKINGS = 1000;
+	private static final int MAX_OCCUPANCY = 4;
+
+	/**
+	 * A ship filled to fillPercent of its capacity.
+	 */
+	@State(Scope.Thread)
+	public static class FilledShip {
+		@Param({"0", "50", "95"})
+		public int fillPercent;
+
+		Map<RoomType,Integer> roomCounts;
+		Ship ship;
+
+		@Setup(Level.Trial)
+		public void createFleet() {
+			roomCounts = new Fleet().roomCounts();
+			//big enough that the bookings never fill it up
+			for(RoomType type : RoomType.values()) {
+				roomCounts.put(type, roomCounts.get(type) + BOOKINGS);
+			}
+			fill();
+		}
+
+		void fill() {
+			ship = new Ship(1, roomCounts);
+			for(RoomType type : RoomType.values()) {
+				int people = ship.getRoomCount(type) * MAX_OCCUPANCY * 
+													fillPercent / 100;
+				for(int i = 0; i < people; i++) {
+					ship.addPerson(type, MAX_OCCUPANCY);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A freshly filled ship every invocation, so every batch of bookings
+	 * starts at the same fill level.
+	 */
+	@State(Scope.Thread)
+	public static class RefilledShip extends FilledShip {
+		@Setup(Level.Invocation)
+		public void refill() {
+			fill();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BOOKINGS)
+	public void addPerson(RefilledShip state, Blackhole blackhole) {
+		for(int i = 0; i < BOOKINGS; i++) {
+			blackhole.consume(state.ship.addPerson(RoomType.BALCONY, 
+													MAX_OCCUPANCY));
+		}
+	}
+
+	@Benchmark
+	public int getTotalOccupancy(FilledShip state) {
+		int total = 0;
+		for(RoomType type : RoomType.values()) {
+			total += state.ship.getTotalOccupancy(type);
+		}
+		return total;
+	}
+}
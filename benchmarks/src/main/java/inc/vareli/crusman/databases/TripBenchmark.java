@@ -0,0 +1,41 @@
+package inc.vareli.crusman.databases;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Trip methods the browse screen calls for every trip it shows.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TripBenchmark {
+	private Trip trip;
+
+	@Setup
+	public void createTrip() {
+		Fleet fleet = new Fleet();
+		trip = fleet.trip(new Ship(1, fleet.roomCounts()), 100).build(1);
+	}
+
+	@Benchmark
+	public long getDuration() {
+		return trip.getDuration();
+	}
+
+	@Benchmark
+	public double getTotalFees() {
+		return trip.getTotalFees();
+	}
+
+	@Benchmark
+	public String tripToString() {
+		return trip.toString();
+	}
+}
@@ -7,6 +7,7 @@ import inc.vareli.crusman.databases.Trip.TripBuilder;
 
 import javafx.collections.ObservableList;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
@@ -20,6 +21,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ProgressIndicator;
 
 import java.util.List;
 import java.util.Date;
@@ -27,12 +29,15 @@ import java.util.Map;
 import java.util.EnumMap;
 import java.util.TimeZone;
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 /**
  * The main entry point to CrusMan, where users will interact with the data and buy tickets etc
@@ -42,9 +47,31 @@ import java.nio.file.StandardOpenOption;
  * Email: MartC.Palamine@unb.ca
  */
 public class CruiseShipGUI extends Application {
+	private static final Logger LOG =
+					Logger.getLogger(CruiseShipGUI.class.getName());
+	/**
+	 * How many trips the browse screen loads from the database at a time
+	 */
+	private static final int BROWSE_PAGE_SIZE = 20;
+	/**
+	 * Set this system property to a number of seconds to have the database
+	 * metrics written to the log that often
+	 */
+	private static final String METRICS_LOG_PROPERTY = "crusman.metricsLogSeconds";
+	/**
+	 * Where the journal of printed tickets is kept
+	 */
+	private static final Path JOURNAL_DIRECTORY = Path.of("tickets");
+	private static final String MISSING_ROOM_COUNT = "Invalid, please fill " + 
+			"both room type  and count\n or add at least one room count" + 
+			" before finalizing ship";
+
 	//global
 	private Stage stage;
-	private CMConnection conn;
+	private AsyncCMConnection conn;
+	private ProgressIndicator busy;
+	private CompletableFuture<?> loading;
+	private TicketJournal journal;
 
 	//loggin in
 	private TextField loginURLField;
@@ -59,7 +86,21 @@ public class CruiseShipGUI extends Application {
 	private Button prevButton;
 	private Button bookButton;
 	private Trip booked;
-	private List<Trip> trips;
+	private Trip shownTrip;
+	private TripPager trips;
+
+	//searching
+	private TextField searchPortField;
+	private TextField departFromField;
+	private TextField departToField;
+	private TextField arriveFromField;
+	private TextField arriveToField;
+	private ComboBox<RoomType> searchRoomSelection;
+	private TextField maxRoomFeeField;
+	private TextField minFreeCabinsField;
+	private TextField maxMealFeeField;
+	private TextField maxDrinkFeeField;
+	private Label searchError;
 
 	//booking
 	private Button confirmBookingButton;
@@ -117,9 +158,10 @@ public class CruiseShipGUI extends Application {
 		loginURLField.setOnMouseClicked(e -> loginURLField.clear());
 		loginIDField.setOnMouseClicked(e -> loginIDField.clear());
 		loginPassField.setOnMouseClicked(e -> loginPassField.clear());
+		busy = newBusy();
 
 		loginFieldsArrangement.getChildren().addAll(loginURLField, loginIDField,
-			       			loginPassField, submit, loginError);
+			       			loginPassField, submit, busy, loginError);
 
 		FlowPane pane = new FlowPane(loginFieldsArrangement);
 		pane.setAlignment(Pos.CENTER);
@@ -133,19 +175,113 @@ public class CruiseShipGUI extends Application {
 		stage.show();
 	}
 
+	@Override
+	public void stop() {
+		if (conn != null) {
+			conn.close();
+		}
+		synchronized (this) {
+			if (journal != null) {
+				journal.close();
+			}
+		}
+	}
+
 	public void submitLogin(ActionEvent event) {
 		String url = loginURLField.getText();
 		String ID = loginIDField.getText();
 		String pass = loginPassField.getText();
-		try {
-			conn = new CMConnection(url, ID, pass);
-			switchToMainMenuScene(event);
-		} catch (IllegalArgumentException iae) {
-			loginError.setText(iae.getMessage());
+		Button submit = (Button) event.getSource();
+		long started = System.nanoTime();
+		submit.setDisable(true);
+		loginError.setText("Connecting...");
+		CompletableFuture<AsyncCMConnection> connecting = 
+				track(AsyncCMConnection.connect(url, ID, pass, Platform::runLater));
+		//the menu is put together while the database is still connecting
+		Scene mainMenuScene = buildMainMenuScene();
+		connecting.whenComplete((opened, error) -> {
+			submit.setDisable(false);
+			if (error != null) {
+				loginError.setText(causeOf(error).getMessage());
+			} else {
+				conn = opened;
+				Long metricsPeriod = Long.getLong(METRICS_LOG_PROPERTY);
+				if (metricsPeriod != null && metricsPeriod > 0) {
+					conn.getConnection().getMetrics().logEvery(metricsPeriod);
+				}
+				showMainMenuScene(mainMenuScene);
+				double startupMillis = conn.getConnection().getStartupMillis();
+				LOG.fine(() -> String.format("Login to menu took %.1fms, " +
+						"%.1fms of it setting up the connection",
+						(System.nanoTime() - started) / 1e6, startupMillis));
+			}
+		});
+	}
+
+	/**
+	 * @return a progress indicator that is hidden until something is loading
+	 */
+	private static ProgressIndicator newBusy() {
+		ProgressIndicator indicator = new ProgressIndicator();
+		indicator.setMaxSize(40, 40);
+		indicator.setVisible(false);
+		return indicator;
+	}
+
+	/**
+	 * Shows the current scene's progress indicator until call finishes.
+	 */
+	private <T> CompletableFuture<T> track(CompletableFuture<T> call) {
+		ProgressIndicator shown = busy;
+		shown.setVisible(true);
+		call.whenComplete((result, error) -> shown.setVisible(false));
+		return call;
+	}
+
+	/**
+	 * Tracks a read that is only needed while the current scene is showing.
+	 * It is cancelled when the user moves on, or starts another one.
+	 */
+	private <T> CompletableFuture<T> load(CompletableFuture<T> call) {
+		cancelLoading();
+		loading = call;
+		return track(call);
+	}
+
+	private void cancelLoading() {
+		if (loading != null) {
+			loading.cancel(false);
+			loading = null;
+		}
+	}
+
+	/**
+	 * @return the message of what went wrong, or its name if it has none
+	 */
+	private static String messageOf(Throwable error) {
+		Throwable cause = causeOf(error);
+		return (cause.getMessage() == null) ? cause.getClass().getSimpleName()
+											: cause.getMessage();
+	}
+
+	private static Throwable causeOf(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			return error.getCause();
 		}
+		return error;
 	}
 
 	public void switchToMainMenuScene(ActionEvent event) {
+		showMainMenuScene(buildMainMenuScene());
+	}
+
+	private void showMainMenuScene(Scene mainMenuScene) {
+		cancelLoading();
+		stage.setScene(mainMenuScene);
+		stage.setTitle("Cruise ship booking system & admin manager");
+	}
+
+	private Scene buildMainMenuScene() {
 		Label menuLabel = new Label("Welcome!");
 
 		Button browseButton = new Button("Book Trips");
@@ -167,9 +303,7 @@ public class CruiseShipGUI extends Application {
 		FlowPane pane = new FlowPane(arrangeMenu);
 		pane.setAlignment(Pos.CENTER);
 
-		Scene mainMenuScene = new Scene(pane, 300, 350);
-		stage.setScene(mainMenuScene);
-		stage.setTitle("Cruise ship booking system & admin manager");
+		return new Scene(pane, 300, 350);
 	}
 
 	public void switchToAdminPassword(ActionEvent event) {
@@ -197,9 +331,10 @@ public class CruiseShipGUI extends Application {
 			adminButton.setVisible(true);
 		}
 
+		busy = newBusy();
 		VBox arrangement = new VBox(20);
 		arrangement.getChildren().addAll(welcomeLabel, adminPasswordField,
-			       				adminButton, returnButton);
+			       				adminButton, busy, returnButton);
 
 		FlowPane pane = new FlowPane(arrangement);
 		pane.setAlignment(Pos.CENTER);
@@ -211,17 +346,28 @@ public class CruiseShipGUI extends Application {
 	}
 
 	public void switchToBrowseScene(ActionEvent event) {
-		trips = conn.queryTrip();
+		showBrowseScene(conn.pager(BROWSE_PAGE_SIZE));
+	}
+
+	/**
+	 * Shows the trips of a pager one at a time, starting with the first.
+	 */
+	private void showBrowseScene(TripPager pager) {
+		cancelLoading();
+		trips = pager;
 		
 		tripIndex = 0;
 
-		text = new Text(trips.get(tripIndex).toString());
+		text = new Text("Loading trips...");
+		busy = newBusy();
 
 		bookButton = new Button("Book");
 		nextButton = new Button("Next");
 		prevButton = new Button("Prev");
 		Button returnButton = new Button("Return");
 		returnButton.setOnAction(this::switchToMainMenuScene);
+		Button searchButton = new Button("Search");
+		searchButton.setOnAction(this::switchToSearchScene);
 
 		Button[] setBrowseButtons = {bookButton, nextButton, prevButton};
 		for(int i = 0; i < setBrowseButtons.length; i++) {
@@ -230,30 +376,157 @@ public class CruiseShipGUI extends Application {
 		}
 
 		HBox arrangeButt = new HBox(10, prevButton, bookButton, nextButton);
-		VBox arrange = new VBox(40, text, arrangeButt, returnButton);
+		HBox arrangeOther = new HBox(10, searchButton, returnButton);
+		VBox arrange = new VBox(40, text, busy, arrangeButt, arrangeOther);
 
 		FlowPane pane = new FlowPane(arrange);
 		pane.setAlignment(Pos.CENTER);
 		Scene browsingScene = new Scene(pane, 500, 550);
 		stage.setScene(browsingScene);
 		stage.setTitle("Crus, Man!");
+		showTrip(tripIndex);
 	}
 
 	public void browseAction(ActionEvent event) {
+		if (event.getSource() == nextButton) {
+			showTrip(++tripIndex);
+		}
+		else if (event.getSource() == prevButton) {
+			showTrip(--tripIndex);
+		}
+		else if (event.getSource() == bookButton) {
+			if (shownTrip == null) {
+				text.setText("None");
+			} else {
+				booked = shownTrip;
+				switchToBookingScene(event);
+			}
+		}
+	}
+
+	/**
+	 * Loads a trip off the application thread and shows it. Clicking through
+	 * quickly cancels the loads that are no longer wanted.
+	 */
+	private void showTrip(int index) {
+		TripPager pager = trips;
+		shownTrip = null;
+		load(conn.supply(() -> pager.get(index))).whenComplete((trip, error) -> {
+			if (error == null) {
+				shownTrip = trip;
+				text.setText(trip.toString());
+			} else if (causeOf(error) instanceof IndexOutOfBoundsException) {
+				text.setText("None");
+			} else if (!(error instanceof CancellationException)) {
+				text.setText("Error: " + causeOf(error).getMessage());
+			}
+		});
+	}
+
+	public void switchToSearchScene(ActionEvent event) {
+		cancelLoading();
+		Label searchLabel = new Label("Leave a box empty to match any trip");
+		searchError = new Label();
+		searchPortField = new TextField();
+		searchPortField.setPromptText("Port visited");
+		departFromField = new TextField();
+		departFromField.setPromptText("Leaving from dd-MM-yyyy");
+		departToField = new TextField();
+		departToField.setPromptText("Leaving by dd-MM-yyyy");
+		arriveFromField = new TextField();
+		arriveFromField.setPromptText("Back from dd-MM-yyyy");
+		arriveToField = new TextField();
+		arriveToField.setPromptText("Back by dd-MM-yyyy");
+		searchRoomSelection = new ComboBox<RoomType>();
+		searchRoomSelection.getItems().addAll(RoomType.values());
+		searchRoomSelection.setPromptText("Room type");
+		maxRoomFeeField = new TextField();
+		maxRoomFeeField.setPromptText("Max room fee");
+		minFreeCabinsField = new TextField();
+		minFreeCabinsField.setPromptText("Free cabins");
+		maxMealFeeField = new TextField();
+		maxMealFeeField.setPromptText("Max meal fee");
+		maxDrinkFeeField = new TextField();
+		maxDrinkFeeField.setPromptText("Max drink fee");
+
+		Button findButton = new Button("Find trips");
+		findButton.setPrefWidth(200);
+		findButton.setOnAction(this::searchTrips);
+		Button returnButton = new Button("Return");
+		returnButton.setPrefWidth(200);
+		returnButton.setOnAction(this::switchToBrowseScene);
+
+		VBox arrange = new VBox(20, searchLabel, searchPortField,
+				new HBox(10, departFromField, departToField),
+				new HBox(10, arriveFromField, arriveToField),
+				new HBox(10, searchRoomSelection, maxRoomFeeField, 
+						minFreeCabinsField),
+				new HBox(10, maxMealFeeField, maxDrinkFeeField),
+				searchError, findButton, returnButton);
+		FlowPane pane = new FlowPane(arrange);
+		pane.setAlignment(Pos.CENTER);
+		stage.setScene(new Scene(pane, 600, 550));
+		stage.setTitle("Search trips");
+	}
+
+	/**
+	 * Browses the trips matching the search boxes. The search is run by the
+	 * database a page at a time as the user steps through the results.
+	 */
+	public void searchTrips(ActionEvent event) {
+		TripQuery query = new TripQuery();
 		try {
-			if (event.getSource() == nextButton) {
-				text.setText(trips.get(++tripIndex).toString());
+			if (!searchPortField.getText().trim().isEmpty()) {
+				query.visiting(searchPortField.getText().trim());
 			}
-			else if (event.getSource() == prevButton) {
-				text.setText(trips.get(--tripIndex).toString());
+			query.departingBetween(parseDay(departFromField),
+									parseDay(departToField));
+			query.arrivingBetween(parseDay(arriveFromField),
+									parseDay(arriveToField));
+			RoomType roomType = searchRoomSelection.getValue();
+			boolean roomFilter = !maxRoomFeeField.getText().trim().isEmpty() ||
+						!minFreeCabinsField.getText().trim().isEmpty();
+			if (roomFilter && roomType == null) {
+				searchError.setText("Choose a room type for the room boxes");
+				return;
 			}
-			else if (event.getSource() == bookButton) {
-				booked = trips.get(tripIndex);
-				switchToBookingScene(event);
+			if (!maxRoomFeeField.getText().trim().isEmpty()) {
+				query.maxCost(roomType, 
+						Double.parseDouble(maxRoomFeeField.getText().trim()));
+			}
+			if (!minFreeCabinsField.getText().trim().isEmpty()) {
+				query.minFreeCabins(roomType, 
+						Integer.parseInt(minFreeCabinsField.getText().trim()));
+			}
+			if (!maxMealFeeField.getText().trim().isEmpty()) {
+				query.maxCost(Service.MEALS, 
+						Double.parseDouble(maxMealFeeField.getText().trim()));
 			}
-		} catch(IndexOutOfBoundsException e) {
-			text.setText("None");
+			if (!maxDrinkFeeField.getText().trim().isEmpty()) {
+				query.maxCost(Service.DRINKS, 
+						Double.parseDouble(maxDrinkFeeField.getText().trim()));
+			}
+		} catch(ParseException pe) {
+			searchError.setText("Dates have to be dd-MM-yyyy");
+			return;
+		} catch(IllegalArgumentException iae) {
+			searchError.setText("Fees and cabins have to be positive numbers");
+			return;
+		}
+		showBrowseScene(conn.pager(query, BROWSE_PAGE_SIZE));
+	}
+
+	/**
+	 * @return the day typed in a box, or null if it is empty
+	 */
+	private static Date parseDay(TextField field) throws ParseException {
+		String day = field.getText().trim();
+		if (day.isEmpty()) {
+			return null;
 		}
+		SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy");
+		sdf.setLenient(false);
+		return sdf.parse(day);
 	}
 
 	public void switchToBookingScene(ActionEvent event) {
@@ -360,7 +633,8 @@ public class CruiseShipGUI extends Application {
 		HBox arrangeTripRoomCosts = new HBox(20, roomSelection, roomCostField);
 		HBox arrangeTripServiceCosts = new HBox(20, serviceSelection, serviceCostField);
 		HBox arrangeTripCostButton = new HBox(10, addCostButton, warningLabelCost);
-		HBox arrangeAddTripButton = new HBox(10, createTripButton, tripLabel);
+		busy = newBusy();
+		HBox arrangeAddTripButton = new HBox(10, createTripButton, busy, tripLabel);
 		VBox arrangeTripVertical = new VBox(20);
 
 		arrangeTripVertical.getChildren().addAll(addShipLabel, portLabel, titleLabel,
@@ -402,8 +676,9 @@ public class CruiseShipGUI extends Application {
 			listRoom.getItems().add(roomType);
 		}
 
+		busy = newBusy();
 		VBox arrangeText = new VBox(20, labelCreateShip, listRoom, roomCountField,
-			 addRoomCountButton, addShipButton, returnButton);
+			 addRoomCountButton, addShipButton, busy, returnButton);
 
 		FlowPane pane = new FlowPane(arrangeText);
 		pane.setAlignment(Pos.CENTER);
@@ -414,28 +689,47 @@ public class CruiseShipGUI extends Application {
 	}
 
 	public void addShip(ActionEvent event) {
-		int parsedRoomCount = 0;
-		try {
-			if (event.getSource() == addRoomCountButton) {
+		if (event.getSource() == addRoomCountButton) {
+			int parsedRoomCount;
+			try {
 				parsedRoomCount = Integer.parseInt(roomCountField.getText());
-				if (parsedRoomCount < 0) {
-					throw new IllegalArgumentException();
+			} catch (NumberFormatException nfe) {
+				labelCreateShip.setText("Please only input integer values");
+				return;
+			}
+			if (listRoom.getValue() == null) {
+				labelCreateShip.setText(MISSING_ROOM_COUNT);
+			} else if (parsedRoomCount < 0) {
+				labelCreateShip.setText("No negative numbers allowed");
+			} else {
+				if (roomCount == null) {
+					roomCount = new EnumMap<RoomType, Integer>(RoomType.class);
 				}
-				roomCount = new EnumMap<RoomType, Integer>(RoomType.class);
 				roomCount.put(listRoom.getValue(), parsedRoomCount);
 				labelCreateShip.setText("Succesfully added room count");
-			} else if (event.getSource() == addShipButton) {
-				conn.createShip(roomCount);
-				labelCreateShip.setText("Successfully added a ship");
 			}
-		} catch (NumberFormatException nfe) {
-			    labelCreateShip.setText("Please only input integer values");
-		} catch (NullPointerException ne) {
-			labelCreateShip.setText("Invalid, please fill both room type " 
-					+ " and count\n or add at least one room count"  
-						    + " before finalizing ship");
-		} catch (IllegalArgumentException iae) {
-			labelCreateShip.setText("No negative numbers allowed");
+		} else if (event.getSource() == addShipButton) {
+			if (roomCount == null) {
+				labelCreateShip.setText(MISSING_ROOM_COUNT);
+				return;
+			}
+			//types that were not given a count have no rooms
+			Map<RoomType, Integer> counts = 
+						new EnumMap<RoomType, Integer>(roomCount);
+			for(RoomType type : RoomType.values()) {
+				counts.putIfAbsent(type, 0);
+			}
+			addShipButton.setDisable(true);
+			labelCreateShip.setText("Saving ship...");
+			track(conn.createShip(counts)).whenComplete((ship, error) -> {
+				addShipButton.setDisable(false);
+				if (error == null) {
+					roomCount = null;
+					labelCreateShip.setText("Successfully added a ship");
+				} else {
+					labelCreateShip.setText("Error: " + messageOf(error));
+				}
+			});
 		}
 	}
 
@@ -480,12 +774,21 @@ public class CruiseShipGUI extends Application {
 			}   
 		}
 		else if (event.getSource() == createTripButton) {
-			try {
-				conn.createTrip(tripBeingBuilt);
-				tripLabel.setText("Succesfully created Trip");
-			} catch(NullPointerException e) {
-				tripLabel.setText("Invalid, add at least one cost");
+			CostType missing = tripBeingBuilt.missingCost();
+			if (missing != null) {
+				tripLabel.setText("Invalid, add a cost for " + missing);
+				return;
 			}
+			createTripButton.setDisable(true);
+			tripLabel.setText("Saving trip...");
+			track(conn.createTrip(tripBeingBuilt)).whenComplete((trip, error) -> {
+				createTripButton.setDisable(false);
+				if (error == null) {
+					tripLabel.setText("Succesfully created Trip");
+				} else {
+					tripLabel.setText("Error: " + messageOf(error));
+				}
+			});
 		}
 	}
 
@@ -493,17 +796,23 @@ public class CruiseShipGUI extends Application {
         Button button = new Button("Done");
 	button.setPrefWidth(200);
         Label label = new Label("Choose a ship");
-	List<Ship> shipList = conn.queryShip();
 	listOfShipsToChoose = new ComboBox<>();
-	for(Ship ship : shipList) {
-		listOfShipsToChoose.getItems().add(ship);
-	}
+	listOfShipsToChoose.setDisable(true);
+	busy = newBusy();
+	load(conn.queryShip()).whenComplete((shipList, error) -> {
+		if (error == null) {
+			listOfShipsToChoose.getItems().addAll(shipList);
+			listOfShipsToChoose.setDisable(false);
+		} else if (!(error instanceof CancellationException)) {
+			label.setText("Error: " + causeOf(error).getMessage());
+		}
+	});
 
         listOfShipsToChoose.setOnAction(e -> tripBeingBuilt = new TripBuilder(listOfShipsToChoose.getValue()));
 
         button.setOnAction(this::switchToCreateTripsScene);
         
-        VBox arrange = new VBox(30, label, listOfShipsToChoose, button);
+        VBox arrange = new VBox(30, label, listOfShipsToChoose, busy, button);
         FlowPane pane = new FlowPane(arrange);
         pane.setAlignment(Pos.CENTER);
         Scene scene = new Scene(pane, 450, 350);
@@ -512,16 +821,60 @@ public class CruiseShipGUI extends Application {
     }
 
 	public void printTicketToFile(ActionEvent event) {
+		Button adminButton = (Button) event.getSource();
 		try {
-			 String ticketContents = conn.bookTrip(booked, customerNameField.getText(),
-									mealSelection.getValue().equals("Opt In"),
-									drinkSelection.getValue().equals("Opt In"),
-									bookingRoomSelection.getValue());
-			Path filePath = Path.of("ticket.txt");
-			Files.writeString(filePath, ticketContents, StandardOpenOption.CREATE);
-			welcomeLabel.setText("Successfully created ticket");
+			boolean mealSelect = mealSelection.getValue().equals("Opt In");
+			boolean drinkSelect = drinkSelection.getValue().equals("Opt In");
+			adminButton.setDisable(true);
+			welcomeLabel.setText("Booking...");
+			track(conn.bookTicket(booked, customerNameField.getText(), mealSelect,
+						drinkSelect, bookingRoomSelection.getValue()))
+					.whenComplete((ticket, error) -> {
+				adminButton.setDisable(false);
+				if (error == null) {
+					writeTicket(ticket);
+				} else if (causeOf(error) instanceof IllegalArgumentException) {
+					welcomeLabel.setText("Error: " + causeOf(error).getMessage());
+				} else {
+					welcomeLabel.setText("Error: Please fill all boxes in booking");
+				}
+			});
 		}catch (Exception e) {
 			welcomeLabel.setText("Error: Please fill all boxes in booking");
 		}
 	}
+
+	/**
+	 * Adds the ticket to this terminal's journal and waits for it to reach
+	 * the disk, off the application thread.
+	 */
+	private void writeTicket(Ticket ticket) {
+		track(conn.supply(() -> {
+			TicketJournal tickets = journal();
+			tickets.append(ticket);
+			tickets.sync();
+			return ticket;
+		})).whenComplete((written, error) -> {
+			if (error == null) {
+				welcomeLabel.setText("Successfully created ticket " + 
+										ticket.getTicketID());
+			} else {
+				welcomeLabel.setText("Error: " + causeOf(error).getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Opens the ticket journal the first time a ticket is printed.
+	 */
+	private synchronized TicketJournal journal() {
+		if (journal == null) {
+			try {
+				journal = new TicketJournal(JOURNAL_DIRECTORY);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return journal;
+	}
 }
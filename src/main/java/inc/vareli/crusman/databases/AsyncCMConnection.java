@@ -0,0 +1,252 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs CMConnection calls on a small pool of worker threads, so a user
+ * interface thread never has to wait on the database.
+ * Every call returns a CompletableFuture that is completed on the callbacks
+ * executor, so with JavaFX passing Platform::runLater means the results can
+ * be put straight on screen. Errors complete the future exceptionally with
+ * the same exception CMConnection would have thrown, or the Error the call
+ * failed with.
+ * Cancelling a future stops the call if it has not started yet. A call that
+ * is already running is left to finish, so a write is never cut off half
+ * way, but its result is thrown away.
+ */
+public class AsyncCMConnection implements AutoCloseable {
+	private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+	private final CMConnection connection;
+	private final ExecutorService workers;
+	private final Executor callbacks;
+
+	/**
+	 * Wraps a connection that is already open.
+	 * @param connection - the connection to run calls on
+	 * @param callbacks - where results are delivered, like Platform::runLater
+	 */
+	public AsyncCMConnection(CMConnection connection, Executor callbacks) {
+		this(connection, newWorkers(CMConnection.DEFAULT_POOL_SIZE), callbacks);
+	}
+
+	private AsyncCMConnection(CMConnection connection, ExecutorService workers,
+								Executor callbacks) {
+		this.connection = connection;
+		this.workers = workers;
+		this.callbacks = callbacks;
+	}
+
+	/**
+	 * Opens a CMConnection without blocking the calling thread.
+	 * @param callbacks - where results are delivered, like Platform::runLater
+	 * @return the connection, or an IllegalArgumentException if it could not
+	 * be opened
+	 */
+	public static CompletableFuture<AsyncCMConnection> connect(String url,
+					String loginID, String loginPass, Executor callbacks) {
+		ExecutorService workers = newWorkers(CMConnection.DEFAULT_POOL_SIZE);
+		CompletableFuture<AsyncCMConnection> connected = call(workers,
+				callbacks, () -> new AsyncCMConnection(
+						new CMConnection(url, loginID, loginPass), workers,
+						callbacks));
+		connected.whenComplete((opened, error) -> {
+			if (opened == null) {
+				workers.shutdown();
+			}
+		});
+		return connected;
+	}
+
+	/**
+	 * A daemon thread per pooled connection, so calls never queue up behind
+	 * each other waiting for a connection, and an open connection does not
+	 * keep the program running.
+	 */
+	private static ExecutorService newWorkers(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = task -> {
+			Thread thread = new Thread(task, "cmconnection-" +
+										count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads,
+							30, TimeUnit.SECONDS,
+							new LinkedBlockingQueue<Runnable>(), factory);
+		workers.allowCoreThreadTimeOut(true);
+		return workers;
+	}
+
+	/**
+	 * @return the connection calls are run on, for code that is already off
+	 * the user interface thread
+	 */
+	public CMConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Runs any blocking work on the worker threads, like stepping a TripPager.
+	 * @param work - what to run
+	 * @return the result of work, delivered on the callbacks executor
+	 */
+	public <T> CompletableFuture<T> supply(Supplier<T> work) {
+		return call(workers, callbacks, work);
+	}
+
+	/**
+	 * @param pageSize - how many trips to load at a time
+	 * @return a pager over every trip, that loads its next page on the
+	 * worker threads
+	 */
+	public TripPager pager(int pageSize) {
+		return new TripPager(connection, pageSize, workers);
+	}
+
+	/**
+	 * @param query - what the trips have to match
+	 * @param pageSize - how many trips to load at a time
+	 * @return a pager over the trips matching a search, that loads its next
+	 * page on the worker threads
+	 */
+	public TripPager pager(TripQuery query, int pageSize) {
+		return new TripPager(connection, query, pageSize, workers);
+	}
+
+	/**
+	 * @see CMConnection#createShip(Map)
+	 */
+	public CompletableFuture<Ship> createShip(Map<RoomType,Integer> roomCounts) {
+		return supply(() -> connection.createShip(roomCounts));
+	}
+
+	/**
+	 * @see CMConnection#queryShip()
+	 */
+	public CompletableFuture<List<Ship>> queryShip() {
+		return supply(connection::queryShip);
+	}
+
+	/**
+	 * @see CMConnection#createTrip(TripBuilder)
+	 */
+	public CompletableFuture<Trip> createTrip(TripBuilder temp) {
+		return supply(() -> connection.createTrip(temp));
+	}
+
+	/**
+	 * @see CMConnection#queryTrip()
+	 */
+	public CompletableFuture<List<Trip>> queryTrip() {
+		return supply(connection::queryTrip);
+	}
+
+	/**
+	 * @see CMConnection#queryTripPage(long, int)
+	 */
+	public CompletableFuture<List<Trip>> queryTripPage(long afterTripID,
+														int pageSize) {
+		return supply(() -> connection.queryTripPage(afterTripID, pageSize));
+	}
+
+	/**
+	 * @see CMConnection#searchTrips(TripQuery, long, int)
+	 */
+	public CompletableFuture<List<Trip>> searchTrips(TripQuery query,
+									long afterTripID, int pageSize) {
+		return supply(() -> connection.searchTrips(query, afterTripID,
+															pageSize));
+	}
+
+	/**
+	 * @see CMConnection#bookTrip(Trip, String, boolean, boolean, RoomType)
+	 */
+	public CompletableFuture<String> bookTrip(Trip tripIn, String customerName,
+						boolean mealSelect, boolean drinkSelect,
+						RoomType roomSelect) {
+		return supply(() -> connection.bookTrip(tripIn, customerName,
+										mealSelect, drinkSelect, roomSelect));
+	}
+
+	/**
+	 * @see CMConnection#bookTicket(Trip, String, boolean, boolean, RoomType)
+	 */
+	public CompletableFuture<Ticket> bookTicket(Trip tripIn,
+							String customerName, boolean mealSelect,
+							boolean drinkSelect, RoomType roomSelect) {
+		return supply(() -> connection.bookTicket(tripIn, customerName,
+											mealSelect, drinkSelect, roomSelect));
+	}
+
+	/**
+	 * @see CMConnection#tripOccupancy()
+	 */
+	public CompletableFuture<String> tripOccupancy() {
+		return supply(connection::tripOccupancy);
+	}
+
+	private static <T> CompletableFuture<T> call(ExecutorService workers,
+							Executor callbacks, Supplier<T> work) {
+		Call<T> call = new Call<T>();
+		call.task = workers.submit(() -> {
+			if (call.isDone()) {
+				return;
+			}
+			try {
+				T result = work.get();
+				callbacks.execute(() -> call.complete(result));
+			} catch (Throwable e) {
+				//Errors as well, or the caller would wait forever
+				callbacks.execute(() -> call.completeExceptionally(e));
+			}
+		});
+		return call;
+	}
+
+	/**
+	 * Stops taking new calls and closes the connection once the calls already
+	 * running have finished.
+	 */
+	@Override
+	public void close() {
+		workers.shutdown();
+		try {
+			workers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		connection.close();
+	}
+
+	/**
+	 * A future that also takes its call off the queue when it is cancelled.
+	 */
+	private static class Call<T> extends CompletableFuture<T> {
+		private volatile Future<?> task;
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			Future<?> queued = task;
+			if (cancelled && queued != null) {
+				queued.cancel(false);
+			}
+			return cancelled;
+		}
+	}
+}
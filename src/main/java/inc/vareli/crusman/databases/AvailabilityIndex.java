@@ -0,0 +1,241 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.time.temporal.ChronoUnit;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps how many empty rooms of each type every trip has, ordered by the day
+ * the trip leaves, so questions like "which trips in March still have 4 free
+ * balcony cabins" are answered without loading any trips.
+ * The index is read from the database once, then kept up to date by calling
+ * add when a trip is created and booked when a place is booked. Bookings
+ * made by other programs are not seen, so it should be read again every so
+ * often.
+ */
+class AvailabilityIndex {
+	private static final Comparator<Sailing> BY_DEPARTURE =
+			Comparator.<Sailing>comparingLong(sailing -> sailing.departure)
+					.thenComparingLong(sailing -> sailing.tripID);
+
+	private final NavigableSet<Sailing> byDeparture;
+	private final Map<Long,Sailing> byTrip;
+	private final long createdMillis;
+
+	AvailabilityIndex() {
+		this.byDeparture = new ConcurrentSkipListSet<Sailing>(BY_DEPARTURE);
+		this.byTrip = new ConcurrentHashMap<Long,Sailing>();
+		this.createdMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads the rooms, occupancy and first day of every trip with two
+	 * queries.
+	 * @param pooled - the connection to read through
+	 * @return an index of every trip in the database
+	 */
+	static AvailabilityIndex load(PooledConnection pooled) throws SQLException {
+		Map<Long,int[]> occupied = new HashMap<Long,int[]>();
+		PreparedStatement roomStatement = pooled.prepare(
+					"select tripID, roomType, occupancy from RoomInfo");
+		try(ResultSet roomSet = roomStatement.executeQuery()) {
+			while(roomSet.next()) {
+				OperationMetrics.rowsRead(1);
+				int[] people = occupied.computeIfAbsent(roomSet.getLong("tripID"),
+								tripID -> new int[RoomType.values().length]);
+				people[RoomType.valueOf(roomSet.getString("roomType"))
+							.ordinal()] = roomSet.getInt("occupancy");
+			}
+		}
+
+		AvailabilityIndex index = new AvailabilityIndex();
+		PreparedStatement tripStatement = pooled.prepare(
+					"select Trip.tripID, CruiseShip.interiorRooms, " +
+					"CruiseShip.outsideRooms, CruiseShip.balconyRooms, " +
+					"CruiseShip.suites, " +
+					"(select MIN(departureDate) from Port " +
+					"where Port.tripID = Trip.tripID) as departs, " +
+					"(select MAX(arrivalDate) from Port " +
+					"where Port.tripID = Trip.tripID) as returns " +
+					"from Trip join CruiseShip " +
+					"on Trip.shipID = CruiseShip.shipID");
+		try(ResultSet tripSet = tripStatement.executeQuery()) {
+			while(tripSet.next()) {
+				OperationMetrics.rowsRead(1);
+				java.sql.Date departs = tripSet.getDate("departs");
+				java.sql.Date returns = tripSet.getDate("returns");
+				if (departs == null) {
+					continue;
+				}
+				long tripID = tripSet.getLong("tripID");
+				int[] rooms = {tripSet.getInt("interiorRooms"),
+								tripSet.getInt("outsideRooms"),
+								tripSet.getInt("balconyRooms"),
+								tripSet.getInt("suites")};
+				long days = ChronoUnit.DAYS.between(departs.toLocalDate(),
+													returns.toLocalDate());
+				index.add(tripID, day(departs), Trip.maxOccupancyFor(days),
+							rooms, occupied.getOrDefault(tripID,
+										new int[rooms.length]));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a trip that was just created. Trips without ports never leave, so
+	 * like in load they are left out.
+	 */
+	void add(Trip trip) {
+		if (trip.PORTS.size() == 0) {
+			return;
+		}
+		int[] rooms = new int[RoomType.values().length];
+		int[] people = new int[rooms.length];
+		for(RoomType type : RoomType.values()) {
+			rooms[type.ordinal()] = trip.SHIP.getRoomCount(type);
+			people[type.ordinal()] = trip.SHIP.getTotalOccupancy(type);
+		}
+		add(trip.ID, day(trip.PORTS.getFirstDeparture()), trip.getMaxOccupancy(),
+				rooms, people);
+	}
+
+	/**
+	 * @param tripID - the trip
+	 * @param departure - the day it leaves, as returned by day
+	 * @param perRoom - how many people can share a room on it
+	 * @param rooms - how many rooms of each type it has, in RoomType order
+	 * @param people - how many people are booked into each type of room
+	 */
+	void add(long tripID, long departure, int perRoom, int[] rooms,
+				int[] people) {
+		Sailing sailing = new Sailing(tripID, departure, perRoom, rooms, people);
+		Sailing replaced = byTrip.put(tripID, sailing);
+		if (replaced != null) {
+			byDeparture.remove(replaced);
+		}
+		byDeparture.add(sailing);
+	}
+
+	/**
+	 * Counts one more person booked into a type of room on a trip. Trips the
+	 * index does not know about are ignored.
+	 */
+	void booked(long tripID, RoomType type) {
+		Sailing sailing = byTrip.get(tripID);
+		if (sailing != null) {
+			sailing.people.incrementAndGet(type.ordinal());
+		}
+	}
+
+	/**
+	 * Finds the trips with at least some empty rooms of a type that leave
+	 * between two days. Only the trips leaving in that range are looked at.
+	 * @param type - the type of room
+	 * @param cabins - how many rooms of that type have to be empty
+	 * @param earliest - the earliest day to leave, or null for any
+	 * @param latest - the latest day to leave, or null for any
+	 * @return the IDs of the matching trips, in the order they leave
+	 */
+	List<Long> find(RoomType type, int cabins, Date earliest, Date latest) {
+		Sailing from = new Sailing(Long.MIN_VALUE,
+				(earliest == null) ? Long.MIN_VALUE : day(earliest));
+		Sailing to = new Sailing(Long.MAX_VALUE,
+				(latest == null) ? Long.MAX_VALUE : day(latest));
+		List<Long> tripIDs = new ArrayList<Long>();
+		if (BY_DEPARTURE.compare(from, to) > 0) {
+			return tripIDs;
+		}
+		for(Sailing sailing : byDeparture.subSet(from, true, to, true)) {
+			if (sailing.freeCabins(type) >= cabins) {
+				tripIDs.add(sailing.tripID);
+			}
+		}
+		return tripIDs;
+	}
+
+	/**
+	 * @return how many rooms of a type nobody is booked into, or -1 if the
+	 * trip is not in the index
+	 */
+	int getFreeCabins(long tripID, RoomType type) {
+		Sailing sailing = byTrip.get(tripID);
+		return (sailing == null) ? -1 : sailing.freeCabins(type);
+	}
+
+	/**
+	 * @return how many trips are in the index
+	 */
+	int size() {
+		return byTrip.size();
+	}
+
+	/**
+	 * @return how long ago the index was read from the database
+	 */
+	long getAgeMillis() {
+		return System.currentTimeMillis() - createdMillis;
+	}
+
+	/**
+	 * @return the start of the day a date is on, the same way the database
+	 * stores Port dates
+	 */
+	static long day(Date date) {
+		return day(date.getTime());
+	}
+
+	static long day(long time) {
+		return java.sql.Date.valueOf(
+				new java.sql.Date(time).toLocalDate()).getTime();
+	}
+
+	/**
+	 * The rooms of one trip. Rooms are filled in order like
+	 * Ship.roomNumberFor does, so a type has ceil(people / perRoom) rooms in
+	 * use.
+	 */
+	private static class Sailing {
+		private final long tripID;
+		private final long departure;
+		private final int perRoom;
+		private final int[] rooms;
+		private final AtomicIntegerArray people;
+
+		private Sailing(long tripID, long departure, int perRoom, int[] rooms,
+						int[] people) {
+			this.tripID = tripID;
+			this.departure = departure;
+			this.perRoom = perRoom;
+			this.rooms = rooms;
+			this.people = new AtomicIntegerArray(people);
+		}
+
+		/**
+		 * Only for searching the set by departure.
+		 */
+		private Sailing(long tripID, long departure) {
+			this(tripID, departure, 1, new int[0], new int[0]);
+		}
+
+		private int freeCabins(RoomType type) {
+			int used = (people.get(type.ordinal()) + perRoom - 1) / perRoom;
+			return Math.max(0, rooms[type.ordinal()] - used);
+		}
+	}
+}
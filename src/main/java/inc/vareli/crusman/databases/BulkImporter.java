@@ -0,0 +1,585 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+import inc.vareli.crusman.databases.IdAllocator.Sequence;
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Loads ships and trips from CSV files without going through the screens.
+ * The files are read a row at a time and written with multi-row inserts, a
+ * transaction of ROWS_PER_TRANSACTION rows at a time, so memory use does not
+ * grow with the size of the files except for the ship and trip keys.
+ * Bad rows are reported and skipped. If the database rejects a transaction,
+ * its rows are written one at a time to find the bad ones.
+ * Before any trip is written, the ports and room fees files are read once to
+ * check that every trip will be complete: at least one port, ports that do
+ * not overlap, and a fee for every type of room. Trips that would not be are
+ * rejected, along with their ports and fees. This keeps the times of each
+ * trip's ports in memory as well.
+ *
+ * The files, each with a header row:
+ * ships - ship,interior,outside,balcony,suites
+ * trips - trip,ship,meals,drinks
+ * ports - trip,port,arrival,departure[,zone]
+ * room fees - trip,roomType,fee
+ * ship and trip are keys that only have to be unique within the files. A
+ * trip can also use the ID of a ship already in the database. Dates are
+ * yyyy-MM-dd or yyyy-MM-ddTHH:mm, in the zone if there is one.
+ */
+public class BulkImporter {
+	static final int ROWS_PER_STATEMENT = 100;
+	static final int ROWS_PER_TRANSACTION = 1000;
+	private static final String[] PORT_COLUMNS = {"trip", "port", "arrival",
+													"departure"};
+	private static final String[] FEE_COLUMNS = {"trip", "roomType", "fee"};
+	private static final RoomType[] ROOM_TYPES = RoomType.values();
+	private static final int ALL_FEES = (1 << ROOM_TYPES.length) - 1;
+
+	private final PooledConnection pooled;
+	private final IdAllocator ids;
+	private final ImportReport report;
+	private final Map<String,Long> shipIDs;
+	private final Map<String,Long> tripIDs;
+	private Map<String,TripPlan> plans;
+	private Set<Long> existingShips;
+
+	/**
+	 * @param pooled - the connection to write through, in autocommit mode
+	 * @param ids - where to get the IDs of the new ships and trips
+	 */
+	BulkImporter(PooledConnection pooled, IdAllocator ids) {
+		this.pooled = pooled;
+		this.ids = ids;
+		this.report = new ImportReport();
+		this.shipIDs = new HashMap<String,Long>();
+		this.tripIDs = new HashMap<String,Long>();
+	}
+
+	/**
+	 * Imports the files in order, so trips can refer to the ships before
+	 * them. Any of them can be null.
+	 * @return what was imported
+	 * @throws IOException if a file could not be read
+	 * @throws SQLException if the database could not be written at all
+	 */
+	ImportReport importFiles(Path ships, Path trips, Path ports,
+							Path roomFees) throws IOException, SQLException {
+		long started = System.nanoTime();
+		if (ships != null) {
+			importShips(ships);
+		}
+		if (trips != null) {
+			planTrips(ports, roomFees);
+			importTrips(trips);
+			plans = null;
+		}
+		if (ports != null) {
+			importPorts(ports);
+		}
+		if (roomFees != null) {
+			importRoomFees(roomFees);
+		}
+		report.finished(System.nanoTime() - started);
+		return report;
+	}
+
+	private void importShips(Path file) throws IOException, SQLException {
+		String[] columns = {"ship", "interior", "outside", "balcony", "suites"};
+		Batch batch = new Batch(file, "CruiseShip", 5, shipIDs);
+		IdBlock block = new IdBlock(Sequence.SHIP);
+		try(CsvReader csv = open(file, columns)) {
+			for(List<String> row = csv.next(); row != null; row = csv.next()) {
+				try {
+					String key = key(csv.get(row, "ship"), shipIDs, "ship");
+					Object[] values = new Object[5];
+					for(int i = 1; i < columns.length; i++) {
+						values[i] = count(csv.get(row, columns[i]), columns[i]);
+					}
+					values[0] = block.next();
+					shipIDs.put(key, (Long) values[0]);
+					batch.add(csv.getLine(), key, values);
+				} catch (IllegalArgumentException e) {
+					report.rejected(batch.name, csv.getLine(), e.getMessage());
+				}
+			}
+		}
+		batch.flush();
+	}
+
+	private void importTrips(Path file) throws IOException, SQLException {
+		Batch batch = new Batch(file, "Trip", 4, tripIDs);
+		IdBlock block = new IdBlock(Sequence.TRIP);
+		try(CsvReader csv = open(file, "trip", "ship", "meals", "drinks")) {
+			for(List<String> row = csv.next(); row != null; row = csv.next()) {
+				try {
+					String key = key(csv.get(row, "trip"), tripIDs, "trip");
+					TripPlan plan = plans.get(key);
+					String problem = (plan == null) ? "has no ports"
+												: plan.problem();
+					if (problem != null) {
+						throw new IllegalArgumentException("Trip " + key +
+														" " + problem);
+					}
+					long shipID = shipID(csv.get(row, "ship"));
+					double meals = fee(csv.get(row, "meals"), "meals");
+					double drinks = fee(csv.get(row, "drinks"), "drinks");
+					long tripID = block.next();
+					tripIDs.put(key, tripID);
+					batch.add(csv.getLine(), key, tripID, shipID, drinks, meals);
+				} catch (IllegalArgumentException e) {
+					report.rejected(batch.name, csv.getLine(), e.getMessage());
+				}
+			}
+		}
+		batch.flush();
+	}
+
+	/**
+	 * Reads the ports and room fees files to find out which trips would be
+	 * complete. A bad port row makes its trip incomplete, as the trip would
+	 * be missing that port, while a bad fee row only does if the trip has no
+	 * other fee for that type of room. Rows that repeat a port or room type
+	 * are left for the database to reject, as they break its primary keys.
+	 */
+	private void planTrips(Path ports, Path roomFees) throws IOException {
+		plans = new HashMap<String,TripPlan>();
+		if (ports != null) {
+			try(CsvReader csv = open(ports, PORT_COLUMNS)) {
+				for(List<String> row = csv.next(); row != null; row = csv.next()) {
+					TripPlan plan = plan(csv.get(row, "trip"));
+					try {
+						Stop stop = new Stop(csv, row);
+						if (plan.ports.add(stop.port)) {
+							plan.stops.add(new long[] {stop.arrival.getTime(),
+													stop.departure.getTime()});
+						}
+					} catch (IllegalArgumentException e) {
+						plan.rejected(ports, csv.getLine());
+					}
+				}
+			}
+		}
+		if (roomFees != null) {
+			try(CsvReader csv = open(roomFees, FEE_COLUMNS)) {
+				for(List<String> row = csv.next(); row != null; row = csv.next()) {
+					TripPlan plan = plan(csv.get(row, "trip"));
+					try {
+						RoomType type = roomType(csv.get(row, "roomType"));
+						fee(csv.get(row, "fee"), "fee");
+						plan.fees |= 1 << type.ordinal();
+					} catch (IllegalArgumentException e) {
+						//reported when the fees are imported
+					}
+				}
+			}
+		}
+	}
+
+	private TripPlan plan(String key) {
+		return plans.computeIfAbsent(key, trip -> new TripPlan());
+	}
+
+	private void importPorts(Path file) throws IOException, SQLException {
+		Batch batch = new Batch(file, "Port", 4, null);
+		try(CsvReader csv = open(file, PORT_COLUMNS)) {
+			for(List<String> row = csv.next(); row != null; row = csv.next()) {
+				try {
+					long tripID = tripID(csv.get(row, "trip"));
+					Stop stop = new Stop(csv, row);
+					batch.add(csv.getLine(), null, stop.port, tripID,
+								stop.arrival, stop.departure);
+				} catch (IllegalArgumentException e) {
+					report.rejected(batch.name, csv.getLine(), e.getMessage());
+				}
+			}
+		}
+		batch.flush();
+	}
+
+	private void importRoomFees(Path file) throws IOException, SQLException {
+		Batch batch = new Batch(file, "RoomInfo", 4, null);
+		try(CsvReader csv = open(file, FEE_COLUMNS)) {
+			for(List<String> row = csv.next(); row != null; row = csv.next()) {
+				try {
+					long tripID = tripID(csv.get(row, "trip"));
+					RoomType type = roomType(csv.get(row, "roomType"));
+					double fee = fee(csv.get(row, "fee"), "fee");
+					batch.add(csv.getLine(), null, type.name(), tripID, fee, 0);
+				} catch (IllegalArgumentException e) {
+					report.rejected(batch.name, csv.getLine(), e.getMessage());
+				}
+			}
+		}
+		batch.flush();
+	}
+
+	private static CsvReader open(Path file, String... columns)
+									throws IOException {
+		Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		try {
+			return new CsvReader(in, columns);
+		} catch (IOException e) {
+			in.close();
+			throw new IOException(file.getFileName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static String key(String key, Map<String,Long> seen, String what) {
+		if (key.isEmpty()) {
+			throw new IllegalArgumentException("No " + what);
+		}
+		if (seen.containsKey(key)) {
+			throw new IllegalArgumentException("There is already a " + what +
+												" " + key);
+		}
+		return key;
+	}
+
+	private long shipID(String key) {
+		Long shipID = shipIDs.get(key);
+		if (shipID != null) {
+			return shipID;
+		}
+		try {
+			if (existingShips().contains(Long.parseLong(key))) {
+				return Long.parseLong(key);
+			}
+		} catch (NumberFormatException e) {
+			//not an ID either
+		}
+		throw new IllegalArgumentException("No ship " + key);
+	}
+
+	/**
+	 * @return the IDs of the ships that were in the database before
+	 */
+	private Set<Long> existingShips() {
+		if (existingShips == null) {
+			existingShips = new HashSet<Long>();
+			try(ResultSet shipSet = pooled.prepare(
+						"select shipID from CruiseShip").executeQuery()) {
+				while(shipSet.next()) {
+					existingShips.add(shipSet.getLong("shipID"));
+				}
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return existingShips;
+	}
+
+	private long tripID(String key) {
+		Long tripID = tripIDs.get(key);
+		if (tripID == null) {
+			throw new IllegalArgumentException("No trip " + key +
+												" in the trips file");
+		}
+		return tripID;
+	}
+
+	private static int count(String value, String column) {
+		try {
+			int count = Integer.parseInt(value);
+			if (count >= 0) {
+				return count;
+			}
+		} catch (NumberFormatException e) {
+			//reported below
+		}
+		throw new IllegalArgumentException(column + " is not a count: " + value);
+	}
+
+	private static double fee(String value, String column) {
+		try {
+			double fee = Double.parseDouble(value);
+			if (fee >= 0 && !Double.isInfinite(fee)) {
+				return fee;
+			}
+		} catch (NumberFormatException e) {
+			//reported below
+		}
+		throw new IllegalArgumentException(column + " is not a fee: " + value);
+	}
+
+	private static RoomType roomType(String value) {
+		for(RoomType type : ROOM_TYPES) {
+			if (type.name().equalsIgnoreCase(value)
+					|| type.toString().equalsIgnoreCase(value)) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("No room type " + value);
+	}
+
+	private static ZoneId zone(String value) {
+		try {
+			return value.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(value);
+		} catch (DateTimeException e) {
+			throw new IllegalArgumentException("No time zone " + value);
+		}
+	}
+
+	private static java.sql.Date date(String value, ZoneId zone) {
+		try {
+			LocalDateTime time = (value.length() == 10)
+						? LocalDate.parse(value).atStartOfDay()
+						: LocalDateTime.parse(value.replace(' ', 'T'));
+			return new java.sql.Date(
+						time.atZone(zone).toInstant().toEpochMilli());
+		} catch (DateTimeException e) {
+			throw new IllegalArgumentException("Not a date: " + value);
+		}
+	}
+
+	/**
+	 * One row of the ports file.
+	 */
+	private static class Stop {
+		private final String port;
+		private final java.sql.Date arrival;
+		private final java.sql.Date departure;
+
+		private Stop(CsvReader csv, List<String> row) {
+			port = csv.get(row, "port");
+			if (port.isEmpty()) {
+				throw new IllegalArgumentException("No port name");
+			}
+			ZoneId zone = zone(csv.get(row, "zone"));
+			arrival = date(csv.get(row, "arrival"), zone);
+			departure = date(csv.get(row, "departure"), zone);
+			if (departure.before(arrival)) {
+				throw new IllegalArgumentException(
+								"Departure is before arrival");
+			}
+		}
+	}
+
+	/**
+	 * What the ports and room fees files have for one trip.
+	 */
+	private static class TripPlan {
+		private final Set<String> ports = new HashSet<String>();
+		/*
+		 * The arrival and departure of each port
+		 */
+		private final List<long[]> stops = new ArrayList<long[]>();
+		/*
+		 * Bit i is set when there is a fee for the RoomType with ordinal i
+		 */
+		private int fees;
+		private String badRow;
+
+		private void rejected(Path file, long line) {
+			if (badRow == null) {
+				badRow = "has a bad row on " + file.getFileName() +
+							" line " + line;
+			}
+		}
+
+		/**
+		 * @return why the trip would be incomplete, or null if it would not
+		 */
+		private String problem() {
+			if (badRow != null) {
+				return badRow;
+			}
+			if (stops.isEmpty()) {
+				return "has no ports";
+			}
+			stops.sort(Comparator.comparingLong(stop -> stop[0]));
+			for(int i = 1; i < stops.size(); i++) {
+				if (stops.get(i)[0] < stops.get(i - 1)[1]) {
+					return "arrives at a port before it leaves the one before";
+				}
+			}
+			if (fees != ALL_FEES) {
+				for(RoomType type : ROOM_TYPES) {
+					if ((fees & (1 << type.ordinal())) == 0) {
+						return "has no fee for " + type.name() + " rooms";
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Hands out IDs from blocks of ROWS_PER_TRANSACTION, so a whole chunk of
+	 * rows costs one update of IdSequence. The blocks are reserved through
+	 * the importer's connection, so an import only ever holds one.
+	 */
+	private class IdBlock {
+		private final Sequence sequence;
+		private long next;
+		private long end;
+
+		private IdBlock(Sequence sequence) {
+			this.sequence = sequence;
+		}
+
+		private long next() {
+			if (next >= end) {
+				try {
+					next = ids.reserve(pooled, sequence, ROWS_PER_TRANSACTION);
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+				end = next + ROWS_PER_TRANSACTION;
+			}
+			return next++;
+		}
+	}
+
+	/**
+	 * The rows of one file waiting to be written.
+	 */
+	private class Batch {
+		private final String name;
+		private final String table;
+		private final int columns;
+		private final Map<String,Long> keys;
+		private final List<Object[]> rows;
+		private final List<Long> lines;
+		private final List<String> rowKeys;
+
+		/**
+		 * @param keys - where the keys of rejected rows are removed from, so
+		 * later files do not refer to them, or null
+		 */
+		private Batch(Path file, String table, int columns,
+						Map<String,Long> keys) {
+			this.name = file.getFileName().toString();
+			this.table = table;
+			this.columns = columns;
+			this.keys = keys;
+			this.rows = new ArrayList<Object[]>(ROWS_PER_TRANSACTION);
+			this.lines = new ArrayList<Long>(ROWS_PER_TRANSACTION);
+			this.rowKeys = new ArrayList<String>(ROWS_PER_TRANSACTION);
+		}
+
+		private void add(long line, String key, Object... values)
+											throws SQLException {
+			rows.add(values);
+			lines.add(line);
+			rowKeys.add(key);
+			if (rows.size() >= ROWS_PER_TRANSACTION) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the waiting rows in one transaction, falling back to one row
+		 * at a time if the database rejects it.
+		 */
+		private void flush() throws SQLException {
+			if (rows.isEmpty()) {
+				return;
+			}
+			Connection connector = pooled.connection;
+			boolean committed = false;
+			connector.setAutoCommit(false);
+			try {
+				for(int i = 0; i < rows.size(); i += ROWS_PER_STATEMENT) {
+					insert(i, Math.min(rows.size(), i + ROWS_PER_STATEMENT));
+				}
+				connector.commit();
+				committed = true;
+			} catch (SQLException e) {
+				//one of the rows is bad, so find it below
+			} finally {
+				if (!committed) {
+					connector.rollback();
+				}
+				connector.setAutoCommit(true);
+			}
+			if (committed) {
+				report.imported(name, rows.size());
+			} else {
+				for(int i = 0; i < rows.size(); i++) {
+					try {
+						insert(i, i + 1);
+						report.imported(name, 1);
+					} catch (SQLException e) {
+						report.rejected(name, lines.get(i), e.getMessage());
+						if (keys != null) {
+							keys.remove(rowKeys.get(i));
+						}
+					}
+				}
+			}
+			rows.clear();
+			lines.clear();
+			rowKeys.clear();
+		}
+
+		/**
+		 * Inserts rows from up to end with one statement.
+		 */
+		private void insert(int from, int end) throws SQLException {
+			StringBuilder sql = new StringBuilder("insert into " + table +
+													" values ");
+			StringBuilder marks = new StringBuilder("(?");
+			for(int i = 1; i < columns; i++) {
+				marks.append(",?");
+			}
+			marks.append(")");
+			for(int i = from; i < end; i++) {
+				sql.append((i == from) ? "" : ",").append(marks);
+			}
+			PreparedStatement insert = pooled.prepare(sql.toString());
+			int parameter = 1;
+			for(int i = from; i < end; i++) {
+				for(Object value : rows.get(i)) {
+					insert.setObject(parameter++, value);
+				}
+			}
+			insert.executeUpdate();
+		}
+	}
+
+	/**
+	 * Imports CSV files into a CrusMan database from the command line.
+	 * Pass "-" for a file to skip it.
+	 * @param args url user password ships trips ports roomFees
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 7) {
+			System.err.println("Usage: BulkImporter url user password " +
+						"ships.csv trips.csv ports.csv roomFees.csv");
+			System.exit(2);
+		}
+		Path[] files = new Path[4];
+		for(int i = 0; i < files.length; i++) {
+			files[i] = args[i + 3].equals("-") ? null : Paths.get(args[i + 3]);
+		}
+		try(CMConnection connection = new CMConnection(args[0], args[1],
+														args[2])) {
+			System.out.print(connection.importCsv(files[0], files[1],
+												files[2], files[3]));
+		}
+	}
+}
@@ -2,76 +2,220 @@ package inc.vareli.crusman.databases;
 
 import inc.vareli.crusman.databases.Ship.*;
 import inc.vareli.crusman.databases.Trip.*;
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+import inc.vareli.crusman.databases.IdAllocator.Sequence;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Collection;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 
 import java.sql.*;
 
 
 /**
- * A wrapper around java.sql.Connection to encapsulate it for use in CrusMan
+ * A wrapper around java.sql.Connection to encapsulate it for use in CrusMan.
+ * Every operation borrows a connection from a pool, so one CMConnection can be
+ * shared by several threads.
  * @author Arhaan Sami 3751940
  */
-public class CMConnection {
-	private Connection connector;
+public class CMConnection implements AutoCloseable {
+	/**
+	 * How many connections are kept when no pool size is given
+	 */
+	public static final int DEFAULT_POOL_SIZE = 8;
+	private static final long BORROW_TIMEOUT_MILLIS = 30 * 1000;
+	private static final long MAX_IDLE_MILLIS = 5 * 60 * 1000;
+	private static final int ID_BLOCK_SIZE = 50;
+	private static final int MAX_BOOKING_ATTEMPTS = 5;
+	private static final long BOOKING_RETRY_MILLIS = 20;
+	/**
+	 * How many report rows the driver fetches at a time. MySQL only honours
+	 * this when the url has useCursorFetch=true.
+	 */
+	private static final int REPORT_FETCH_SIZE = 500;
+	private static final int TRIP_FETCH_SIZE = 100;
+	private static final int MANIFEST_FETCH_SIZE = 1000;
+	/**
+	 * How many trip IDs a tripID in (...) condition matches at a time, or
+	 * SMALL_TRIP_CHUNK when there are only a few
+	 */
+	private static final int TRIP_CHUNK = 500;
+	private static final int SMALL_TRIP_CHUNK = 20;
+	private static final int CATALOG_CACHE_SIZE = 16;
+	private static final long CATALOG_TTL_MILLIS = 60 * 1000;
+	private static final String ALL = "all";
+	private static final String PAGE = "page ";
+	private static final String SEARCH = "search ";
+
+	private final ConnectionPool pool;
+	private final IdAllocator ids;
+	/*
+	 * The browse and create trip screens read the whole catalog every time
+	 * they are opened, so the results are kept for a while. Each write only
+	 * changes or drops the entries it makes stale, and callers get copies of
+	 * the cached trips, so booking on one never changes the cache.
+	 */
+	private final CatalogCache<String,List<Trip>> tripCache;
+	private final CatalogCache<String,List<Ship>> shipCache;
+	/*
+	 * Read the first time someone asks for free cabins, then kept up to date
+	 * by createTrip and bookTrip until it is CATALOG_TTL_MILLIS old
+	 */
+	private volatile AvailabilityIndex availability;
+	private final long startupNanos;
+	private final OperationMetrics metrics;
 	/**
 	 * Creates a database connection, and sets up the tables to be used in all database operations. 
 	 * If tables already exist, it does not create duplicates.
 	 */
 	public CMConnection(String url, String loginID, String loginPass) throws IllegalArgumentException { 
-		try {
-			connector = DriverManager.getConnection(url, loginID, loginPass);
-			String shipCreator = "Create table CruiseShip (" +
-							"shipID int unsigned not null primary key, " +
-							"interiorRooms int unsigned not null, " + 
-							"outsideRooms int unsigned not null, " + 
-							"balconyRooms int unsigned not null, " + 
-							"suites int unsigned not null)";
-			String tripCreator = "Create table Trip (" + 
-							"tripID int unsigned not null primary key, " + 
-							"shipID int unsigned not null, " + 
-							"drinkFees float unsigned not null, " + 
-							"mealFees float unsigned not null, " + 
-							"foreign key(shipID) references CruiseShip(shipID))";
-			String portCreator = "Create table Port (" +
-							"portName varchar(100) not null, " +
-							"tripID int unsigned not null, " + 
-							"arrivalDate date, departureDate date, " + 
-							"primary key(portName, tripID), " + 
-							"foreign key(tripID) references Trip(tripID))";
-			String ticketCreator = "Create table Ticket (" + 
-							"ticketID int unsigned not null primary key, " + 
-							"tripID int unsigned not null, " + 
-							"customerName varchar(255) not null, " + 
-							"mealPackageFlag int unsigned not null, " + 
-							"drinkPackageFlag int unsigned not null, " + 
-							"roomNumber int unsigned not null, " + 
-							"foreign key(tripID) references Trip(tripID))";
-			String roomCreator = "Create table RoomInfo (" + 
-							"roomType varchar(100) not null, " + 
-							"tripID int unsigned not null, " + 
-							"fees double unsigned not null, " + 
-							"occupancy int unsigned not null, " + 
-							"primary key(roomType, tripID), " + 
-							"foreign key(tripID) references Trip(tripID))";
-			String[] createStatements = {shipCreator, tripCreator, 
-										portCreator, ticketCreator, roomCreator};
-			String[] tableNames = {"CruiseShip", "Trip", 
-										"Port", "Ticket", "RoomInfo"};
-			Statement stmt = connector.createStatement();
-			DatabaseMetaData dbm = connector.getMetaData();
-			for(int i = 0; i < createStatements.length; i++) {
-				ResultSet tables = dbm.getTables(null, null, tableNames[i], null);
-				if(!tables.next()) {
-					stmt.executeUpdate(createStatements[i]);
-				}
-			}
+		this(url, loginID, loginPass, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Creates a pool of up to poolSize database connections, and sets up the
+	 * tables the same way as the other constructor. Its OperationMetrics are
+	 * registered with the platform MBeanServer until it is closed.
+	 * @param poolSize The most connections that can be in use at once
+	 */
+	public CMConnection(String url, String loginID, String loginPass,
+						int poolSize) throws IllegalArgumentException {
+		this(new ConnectionPool(
+					() -> DriverManager.getConnection(url, loginID, loginPass),
+					poolSize, BORROW_TIMEOUT_MILLIS, MAX_IDLE_MILLIS), url);
+		metrics.register(url);
+	}
+
+	/**
+	 * Sets up the tables using a connection from the given pool.
+	 * Package private so tests can hand in a pool of their own.
+	 * @param pool The pool that every database operation borrows from
+	 */
+	CMConnection(ConnectionPool pool) throws IllegalArgumentException {
+		this(pool, null);
+	}
+
+	/**
+	 * Brings the schema up to date with SchemaMigrator. The pool opens its
+	 * first connection for this, and keeps it for the first real call.
+	 * @param pool The pool that every database operation borrows from
+	 * @param schemaKey Identifies the database, so the schema is only checked
+	 * the first time this program connects to it. Null always checks.
+	 */
+	CMConnection(ConnectionPool pool, String schemaKey)
+								throws IllegalArgumentException {
+		long started = System.nanoTime();
+		this.pool = pool;
+		this.metrics = new OperationMetrics();
+		this.ids = new IdAllocator(pool, ID_BLOCK_SIZE);
+		this.tripCache = new CatalogCache<String,List<Trip>>(
+								CATALOG_CACHE_SIZE, CATALOG_TTL_MILLIS);
+		this.shipCache = new CatalogCache<String,List<Ship>>(
+								CATALOG_CACHE_SIZE, CATALOG_TTL_MILLIS);
+		try(PooledConnection pooled = pool.borrow()) {
+			SchemaMigrator.ensureLatest(schemaKey, pooled.connection);
 		} catch (SQLException sqle) {
+			pool.close();
 			throw new IllegalArgumentException(sqle.getMessage());
 		}
+		this.startupNanos = System.nanoTime() - started;
+	}
+
+	/**
+	 * Finishes a transaction started with setAutoCommit(false), rolling it back
+	 * if it did not commit, and puts the connection back into autocommit mode.
+	 * @param connector The connection the transaction ran on
+	 * @param committed Whether the transaction was committed
+	 */
+	private static void endTransaction(Connection connector, boolean committed) {
+		try {
+			if (!committed) {
+				connector.rollback();
+			}
+			connector.setAutoCommit(true);
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Closes every connection in the pool. This CMConnection can not be used
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		metrics.close();
+		pool.close();
+	}
+
+	/**
+	 * @return how long the constructor took to connect and check the schema,
+	 * in milliseconds
+	 */
+	public double getStartupMillis() {
+		return startupNanos / 1e6;
+	}
+
+	/**
+	 * @return the latency, statement and row counts of every operation, which
+	 * are also shown in JMX under inc.vareli.crusman:type=CMConnection
+	 */
+	public OperationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return how many times a statement was reused from a connection's cache
+	 * instead of being prepared again
+	 */
+	public long getStatementCacheHits() {
+		return pool.getStatementHits();
+	}
+
+	/**
+	 * @return how many times a statement had to be prepared
+	 */
+	public long getStatementCacheMisses() {
+		return pool.getStatementMisses();
+	}
+
+	/**
+	 * Drops the cached catalogs, so the next reads go to the database.
+	 */
+	void invalidateCaches() {
+		tripCache.invalidateAll();
+		shipCache.invalidateAll();
+		availability = null;
+	}
+
+	/**
+	 * @return how often queryTrip was answered without the database
+	 */
+	public CacheStats getTripCacheStats() {
+		return tripCache.getStats();
+	}
+
+	/**
+	 * @return how often queryShip was answered without the database
+	 */
+	public CacheStats getShipCacheStats() {
+		return shipCache.getStats();
 	}
 
 	/**
@@ -79,46 +223,89 @@ public class CMConnection {
 	 * @param roomCounts The numbers of room of each type
 	 * @return A ship object with the ID and specified room counts*/
 	public Ship createShip(Map<RoomType,Integer> roomCounts) throws IllegalArgumentException {
-		String retrieveID = "select shipID from CruiseShip";
-		long id = 1;
-		try {
-			PreparedStatement retrieveStatement = 
-								connector.prepareStatement(retrieveID);
-			ResultSet idSet = retrieveStatement.executeQuery();
-			while(idSet.next()) {
-				id = idSet.getInt("shipID") + 1;
+		return metrics.record("createShip", () -> insertShip(roomCounts));
+	}
+
+	private Ship insertShip(Map<RoomType,Integer> roomCounts) {
+		//checked before an ID is taken, so a bad ship does not use one up
+		for(RoomType type : RoomType.values()) {
+			Integer count = Objects.requireNonNull(roomCounts.get(type),
+										"No count was given for " + type);
+			if (count < 0) {
+				throw new IllegalArgumentException("There can not be " +
+											count + " " + type + " rooms");
 			}
+		}
+		long id;
+		try {
+			id = ids.next(Sequence.SHIP);
 		} catch(SQLException e) {
 			throw new IllegalArgumentException(e.getMessage());
 		}
-		
-		try {
-			String insert = "insert into CruiseShip values (?,?,?,?,?)";
-			PreparedStatement insertStatement = connector.prepareStatement(insert);
-			insertStatement.setLong(1, id);
-			insertStatement.setInt(2, roomCounts.get(RoomType.INTERIOR));
-			insertStatement.setInt(3, roomCounts.get(RoomType.OUTSIDE));
-			insertStatement.setInt(4, roomCounts.get(RoomType.BALCONY));
-			insertStatement.setInt(5, roomCounts.get(RoomType.SUITE));
-			insertStatement.executeUpdate();
-		} catch (SQLException sqle) {
-			throw new IllegalArgumentException("Invalid inputs for createShip()");
+		try(PooledConnection pooled = pool.borrow()) {
+			try {
+				String insert = "insert into CruiseShip values (?,?,?,?,?)";
+				PreparedStatement insertStatement = pooled.prepare(insert);
+				insertStatement.setLong(1, id);
+				insertStatement.setInt(2, roomCounts.get(RoomType.INTERIOR));
+				insertStatement.setInt(3, roomCounts.get(RoomType.OUTSIDE));
+				insertStatement.setInt(4, roomCounts.get(RoomType.BALCONY));
+				insertStatement.setInt(5, roomCounts.get(RoomType.SUITE));
+				insertStatement.executeUpdate();
+			} catch (SQLException sqle) {
+				throw new IllegalArgumentException("Invalid inputs for createShip()");
+			}
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
 		}
+		shipCache.invalidateAll();
 		return new Ship(id, roomCounts);
 	}
 	
+	/**
+	 * Loads ships, trips, ports and room fees from CSV files with
+	 * BulkImporter, which describes the files. Any of them can be null.
+	 * @return how many rows were imported and rejected, and how fast
+	 * @throws IOException if a file could not be read
+	 * @throws IllegalArgumentException if the database could not be written
+	 */
+	public ImportReport importCsv(Path ships, Path trips, Path ports, 
+								Path roomFees) throws IOException {
+		try(PooledConnection pooled = pool.borrow()) {
+			return new BulkImporter(pooled, ids).importFiles(ships, trips, 
+														ports, roomFees);
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		} finally {
+			invalidateCaches();
+		}
+	}
+
 	/**
 	 * Queries the CruiseShip table to retrieve the list of ships in the database
+	 * The list is cached for a while, and every call gets Ships of its own
+	 * with nobody booked on them.
 	 * @return A list that contains data of all ships in the database.
 	 */
 	public List<Ship> queryShip() throws IllegalArgumentException {
+		return metrics.record("queryShip", () -> {
+			List<Ship> shipList = new ArrayList<Ship>();
+			for(Ship ship : shipCache.get(ALL, this::loadShips)) {
+				shipList.add(ship.emptyCopy());
+			}
+			return shipList;
+		});
+	}
+
+	private List<Ship> loadShips() {
 		List<Ship> shipList = new ArrayList<Ship>();
 		String queryStatement = "select * from CruiseShip";
-		try {	
+		try(PooledConnection pooled = pool.borrow()) {
 			PreparedStatement retrieveStatement = 
-								connector.prepareStatement(queryStatement);
+								pooled.prepare(queryStatement);
 			ResultSet shipSet = retrieveStatement.executeQuery();			
 			while(shipSet.next()) {
+				OperationMetrics.rowsRead(1);
 				EnumMap<RoomType,Integer> roomCounts = 
 									new EnumMap<RoomType,Integer>(RoomType.class);
 				int id = shipSet.getInt("shipID");
@@ -128,6 +315,7 @@ public class CMConnection {
 				roomCounts.put(RoomType.SUITE, shipSet.getInt("suites"));
 				shipList.add(new Ship(id, roomCounts));
 			}
+			shipSet.close();
 		} catch(SQLException e) {
 			throw new IllegalArgumentException(e.getMessage());
 		}
@@ -136,124 +324,366 @@ public class CMConnection {
 
 	/**
 	 * Creates a trip object, and enters data into Trip, Port and RoomInfo.
+	 * All of the rows are sent as batches inside a single transaction, so either
+	 * the whole trip is written or none of it is.
 	 * @param temp A TripBuilder that contains a Ship object for the Trip.
 	 * @return A trip object containing data from the tripBuilder.
+	 * @throws IllegalArgumentException if a cost is missing or the ports are
+	 * out of order, which is checked before the trip is given an ID
 	 */
 	public Trip createTrip(TripBuilder temp) {
-		long tripID = 1;
-		String retrieveID = "select MAX(tripID) as maxTripID from Trip";
+		return metrics.record("createTrip", () -> buildTrip(temp));
+	}
+
+	private Trip buildTrip(TripBuilder temp) {
+		temp.validate();
+		long tripID;
 		try {
-			PreparedStatement retrieveStatement = 
-								connector.prepareStatement(retrieveID);
-			ResultSet idSet = retrieveStatement.executeQuery();
-			if(idSet.next()) {
-				if(idSet.getInt("maxTripID") != 0){
-					tripID = idSet.getInt("maxTripID") + 1;
-				}
-			}
+			tripID = ids.next(Sequence.TRIP);
 		} catch(SQLException e) {
 			throw new IllegalArgumentException(e.getMessage());
 		}
 		Trip toReturn = temp.build(tripID);
+		try(PooledConnection pooled = pool.borrow()) {
+			insertTrip(pooled, toReturn);
+			tripCreated(toReturn);
+			AvailabilityIndex index = availability;
+			if (index != null) {
+				index.add(toReturn);
+			}
+			return toReturn;
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void insertTrip(PooledConnection pooled, Trip toReturn)
+										throws SQLException {
+		Connection connector = pooled.connection;
+		long tripID = toReturn.ID;
+		boolean committed = false;
 		try {
-			String insert = "insert into Trip values (?,?,?,?)";
-			PreparedStatement insertStatement = 
-								connector.prepareStatement(insert);
-			insertStatement.setLong(1, tripID);
-			insertStatement.setLong(2, toReturn.SHIP.ID);
-			insertStatement.setDouble(3, toReturn.COSTS.get(Service.DRINKS));
-			insertStatement.setDouble(4, toReturn.COSTS.get(Service.MEALS));
-			insertStatement.executeUpdate();
-			
-			for(int i = 0; i < toReturn.PORTS.size(); i++) {
-				insert = "insert into Port values (?,?,?,?)";
-				insertStatement = connector.prepareStatement(insert);
-				insertStatement.setString(1, toReturn.PORTS.get(i).location);
-				insertStatement.setLong(2, tripID);
-				insertStatement.setDate(3, new java.sql.Date(
-									toReturn.PORTS.get(i).arrival.getTime()));
-				insertStatement.setDate(4, new java.sql.Date(
-									toReturn.PORTS.get(i).departure.getTime()));
-				insertStatement.executeUpdate();
+			connector.setAutoCommit(false);
+			PreparedStatement tripStatement = 
+						pooled.prepare("insert into Trip values (?,?,?,?)");
+			tripStatement.setLong(1, tripID);
+			tripStatement.setLong(2, toReturn.SHIP.ID);
+			tripStatement.setDouble(3, toReturn.COSTS.get(Service.DRINKS));
+			tripStatement.setDouble(4, toReturn.COSTS.get(Service.MEALS));
+			tripStatement.addBatch();
+
+			PreparedStatement portStatement = 
+						pooled.prepare("insert into Port values (?,?,?,?)");
+			Itinerary ports = toReturn.PORTS;
+			for(int i = 0; i < ports.size(); i++) {
+				portStatement.setString(1, ports.getLocation(i));
+				portStatement.setLong(2, tripID);
+				portStatement.setDate(3, new java.sql.Date(ports.getArrival(i)));
+				portStatement.setDate(4, new java.sql.Date(ports.getDeparture(i)));
+				portStatement.addBatch();
 			}
 
+			PreparedStatement roomStatement = 
+					pooled.prepare("insert into RoomInfo values (?,?,?,?)");
 			for(RoomType currentType : RoomType.values()){
-				insert = "insert into RoomInfo values (?,?,?,?)";
-				insertStatement = connector.prepareStatement(insert);
-				insertStatement.setString(1, currentType.name());
-				insertStatement.setLong(2, tripID);
-				insertStatement.setDouble(3, toReturn.COSTS.get(currentType));
-				insertStatement.setInt(4, toReturn.SHIP.getTotalOccupancy(currentType));
-				insertStatement.executeUpdate();
+				roomStatement.setString(1, currentType.name());
+				roomStatement.setLong(2, tripID);
+				roomStatement.setDouble(3, toReturn.COSTS.get(currentType));
+				roomStatement.setInt(4, toReturn.SHIP.getTotalOccupancy(currentType));
+				roomStatement.addBatch();
 			}
-		} catch (SQLException e) {
-			throw new IllegalStateException(e);
+
+			tripStatement.executeBatch();
+			portStatement.executeBatch();
+			roomStatement.executeBatch();
+			connector.commit();
+			committed = true;
+		} finally {
+			endTransaction(connector, committed);
 		}
-		return toReturn;
 	}
 	
 	/**
-	 * Queries the CruiseShip, Trip, Port and RoomInfo tables to retrieve data to
-	 * retrieve data for all Trips in the database.
+	 * Queries the CruiseShip, Trip, Port and RoomInfo tables to retrieve data
+	 * for all Trips in the database.
+	 * Each table is read once and the trips are put together in memory, so the
+	 * number of queries stays the same no matter how many trips there are.
+	 * The result is cached for a while, and kept up to date with the trips
+	 * created and booked through this connection. Every call gets copies of
+	 * the trips, so booking on them does not change what others are given.
 	 * @return A list of all Trips in the database.
 	 */
 	public List<Trip> queryTrip(){
+		return metrics.record("queryTrip", () -> 
+				copiesOf(tripCache.get(ALL, this::loadTrips)));
+	}
+
+	/**
+	 * @return copies of cached trips, with Ships of their own, for handing
+	 * out to callers that may book on them
+	 */
+	private static List<Trip> copiesOf(List<Trip> trips) {
+		List<Trip> copies = new ArrayList<Trip>(trips.size());
+		for(Trip trip : trips) {
+			copies.add(trip.copy());
+		}
+		return copies;
+	}
+
+	/**
+	 * Adds a new trip to the cached catalog in order of ID. Pages and search
+	 * results it might belong to are dropped, as where it lands on them
+	 * depends on the trips other terminals created.
+	 */
+	private void tripCreated(Trip trip) {
+		Trip cached = trip.copy();
+		tripCache.update((key, trips) -> {
+			if (!key.equals(ALL)) {
+				return null;
+			}
+			//a new list, as callers may still be copying the old one
+			int at = 0;
+			while(at < trips.size() && trips.get(at).ID < trip.ID) {
+				at++;
+			}
+			List<Trip> added = new ArrayList<Trip>(trips.size() + 1);
+			added.addAll(trips.subList(0, at));
+			added.add(cached);
+			added.addAll(trips.subList(at, trips.size()));
+			return added;
+		});
+	}
+
+	/**
+	 * Books the room on the cached copies of a trip as well, instead of
+	 * reading the catalog again. Search results with the trip in them are
+	 * dropped, as it may no longer have the free cabins they asked for.
+	 */
+	private void tripBooked(long tripID, RoomType type, int roomNumber) {
+		tripCache.update((key, trips) -> {
+			for(Trip trip : trips) {
+				if (trip.ID == tripID) {
+					if (key.startsWith(SEARCH)) {
+						return null;
+					}
+					trip.SHIP.addPersonTo(type, roomNumber);
+				}
+			}
+			return trips;
+		});
+	}
+
+	private List<Trip> loadTrips() {
 		List<Trip> tripList = new ArrayList<Trip>();
-		long tripID;
-		try {
-			String retrieveTripDetails = "select * from Trip";	
-			PreparedStatement tripStatement = 
-								connector.prepareStatement(retrieveTripDetails);
-			ResultSet tripSet = tripStatement.executeQuery();
-			while(tripSet.next()) {
-				tripID = tripSet.getLong("tripID");
-				long shipId = tripSet.getLong("shipID");
-				double drinkFee = tripSet.getDouble("drinkFees");
-				double mealFee = tripSet.getDouble("mealFees");
-
-				String retrieveShipDetails = "select CruiseShip.*, TripID from " + 
-										"CruiseShip natural join Trip " + 
-										"where TripID = " + tripID;
-				PreparedStatement shipStatement = 
-										connector.prepareStatement(retrieveShipDetails);
-				ResultSet shipSet = shipStatement.executeQuery();
-				EnumMap<RoomType,Integer> roomCounts = 
-										new EnumMap<RoomType,Integer>(RoomType.class);
-				while(shipSet.next()){
-					roomCounts.put(RoomType.INTERIOR, shipSet.getInt("interiorRooms"));
-					roomCounts.put(RoomType.OUTSIDE, shipSet.getInt("outsideRooms"));
-					roomCounts.put(RoomType.BALCONY, shipSet.getInt("balconyRooms"));
-					roomCounts.put(RoomType.SUITE, shipSet.getInt("suites"));
+		try(PooledConnection pooled = pool.borrow();
+				TripCursor cursor = openTrips(pooled, 0, Long.MAX_VALUE, 
+												TRIP_FETCH_SIZE)) {
+			cursor.forEachRemaining(tripList::add);
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		return tripList;
+	}
+
+	/**
+	 * Brings the rooms of trips that were loaded earlier up to date with the
+	 * tickets booked on them since, by this terminal or any other. The
+	 * occupancy of each trip's room types is checked against RoomInfo, which
+	 * every booking updates, in one query per TRIP_CHUNK trips. Only the
+	 * trips that have new bookings have their tickets counted again, in one
+	 * more query per chunk of them.
+	 * @param trips The trips to bring up to date
+	 * @return How many of the trips had new bookings
+	 */
+	public int refreshOccupancy(List<Trip> trips) {
+		if (trips.isEmpty()) {
+			return 0;
+		}
+		return metrics.record("refreshOccupancy", () -> {
+			try(PooledConnection pooled = pool.borrow()) {
+				return refreshOccupancy(pooled, trips);
+			} catch(SQLException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		});
+	}
+
+	private static int refreshOccupancy(PooledConnection pooled, 
+								List<Trip> trips) throws SQLException {
+		Map<Long,Trip> byID = new HashMap<Long,Trip>();
+		for(Trip trip : trips) {
+			byID.put(trip.ID, trip);
+		}
+		Map<Long,Trip> changed = new TreeMap<Long,Trip>();
+		for(Long[] chunk : tripChunks(byID.keySet())) {
+			PreparedStatement occupancyStatement = pooled.prepare(
+						"select tripID, roomType, occupancy from RoomInfo " + 
+						"where " + inTrips(chunk.length));
+			bindTrips(occupancyStatement, chunk);
+			try(ResultSet occupancySet = occupancyStatement.executeQuery()) {
+				while(occupancySet.next()) {
+					OperationMetrics.rowsRead(1);
+					Trip trip = byID.get(occupancySet.getLong("tripID"));
+					RoomType type = 
+						RoomType.valueOf(occupancySet.getString("roomType"));
+					if (occupancySet.getInt("occupancy") != 
+									trip.SHIP.getTotalOccupancy(type)) {
+						changed.put(trip.ID, trip);
+					}
 				}
+			}
+		}
+		if (changed.isEmpty()) {
+			return 0;
+		}
 
-				TripBuilder builder = new TripBuilder(new Ship(shipId, roomCounts));
-				String retrieveRoomDetails = "select * from RoomInfo " + 
-										"where TripID = " + tripID;
-				PreparedStatement roomStatement = 
-										connector.prepareStatement(retrieveRoomDetails);
-				ResultSet roomSet = roomStatement.executeQuery();
-				while(roomSet.next()){
-					builder.addCost(RoomType.valueOf(roomSet.getString("RoomType")),
-									roomSet.getInt("fees"));
+		for(Long[] chunk : tripChunks(changed.keySet())) {
+			PreparedStatement ticketStatement = pooled.prepare(
+						"select tripID, roomNumber, COUNT(*) as people " + 
+						"from Ticket where " + inTrips(chunk.length) + 
+						" group by tripID, roomNumber");
+			bindTrips(ticketStatement, chunk);
+			try(ResultSet ticketSet = ticketStatement.executeQuery()) {
+				while(ticketSet.next()) {
+					OperationMetrics.rowsRead(1);
+					//tickets are never cancelled, so rooms only gain people
+					changed.get(ticketSet.getLong("tripID")).SHIP.fillRoomTo(
+						ticketSet.getInt("roomNumber"), ticketSet.getInt("people"));
 				}
+			}
+		}
+		return changed.size();
+	}
+
+	private static void bindTrips(PreparedStatement statement, 
+								Long[] tripIDs) throws SQLException {
+		for(int i = 0; i < tripIDs.length; i++) {
+			statement.setLong(i + 1, tripIDs[i]);
+		}
+	}
+
+	/**
+	 * Splits trip IDs into chunks of TRIP_CHUNK, or one chunk of
+	 * SMALL_TRIP_CHUNK if there are only a few, padding the last chunk by
+	 * repeating its last ID. However many trips are asked for, each query
+	 * then only has two shapes in the statement cache, and never passes the
+	 * database's limit on parameters.
+	 * @param tripIDs - the IDs, in the order the chunks should be in
+	 */
+	private static List<Long[]> tripChunks(Collection<Long> tripIDs) {
+		int size = (tripIDs.size() <= SMALL_TRIP_CHUNK) ? SMALL_TRIP_CHUNK 
+														: TRIP_CHUNK;
+		List<Long[]> chunks = new ArrayList<Long[]>();
+		Long[] chunk = null;
+		int filled = 0;
+		for(Long tripID : tripIDs) {
+			if (chunk == null || filled == size) {
+				chunk = new Long[size];
+				chunks.add(chunk);
+				filled = 0;
+			}
+			chunk[filled++] = tripID;
+		}
+		if (chunk != null) {
+			Arrays.fill(chunk, filled, size, chunk[filled - 1]);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Gets one page of trips, ordered by trip ID. Pages are found by the last
+	 * trip ID of the page before (keyset paging), so later pages cost the same
+	 * as the first one and trips created in the meantime are not skipped or
+	 * shown twice. Pages are cached like queryTrip.
+	 * @param afterTripID The ID of the last trip on the previous page, or 0
+	 * for the first page
+	 * @param pageSize The most trips to return
+	 * @return The trips after afterTripID, at most pageSize of them
+	 */
+	public List<Trip> queryTripPage(long afterTripID, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1");
+		}
+		return copiesOf(tripCache.get(PAGE + afterTripID + " " + pageSize, 
+						() -> loadTripPage(afterTripID, pageSize)));
+	}
+
+	private List<Trip> loadTripPage(long afterTripID, int pageSize) {
+		List<Trip> tripList = new ArrayList<Trip>(pageSize);
+		try(PooledConnection pooled = pool.borrow()) {
+			PreparedStatement lastStatement = pooled.prepare(
+						"select tripID from Trip where tripID > ? " + 
+						"order by tripID limit ?");
+			lastStatement.setLong(1, afterTripID);
+			lastStatement.setInt(2, pageSize);
+			long lastTripID = -1;
+			try(ResultSet idSet = lastStatement.executeQuery()) {
+				while(idSet.next()) {
+					OperationMetrics.rowsRead(1);
+					lastTripID = idSet.getLong("tripID");
+				}
+			}
+			if (lastTripID < 0) {
+				return tripList;
+			}
+			try(TripCursor cursor = openTrips(pooled, afterTripID, lastTripID, 
+												pageSize)) {
+				cursor.forEachRemaining(tripList::add);
+			}
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		return tripList;
+	}
 
-				String retrievePortDetails = "select * from Port where TripID = " +
-										tripID + " order by departureDate";
-				PreparedStatement portStatement = 
-										connector.prepareStatement(retrievePortDetails);
-				ResultSet portSet = portStatement.executeQuery();
-				while(portSet.next()){
-					builder.addPort(new java.util.Date(
-								portSet.getDate("arrivalDate").getTime()),
-								new java.util.Date(
-								portSet.getDate("departureDate").getTime()), 
-								portSet.getString("portName"), 
-								portSet.getString("portName"));
+	/**
+	 * Finds the trips matching a query, one page at a time in order of trip ID
+	 * like queryTripPage. The filtering is done by the database, which can
+	 * use the Port and RoomInfo indexes, so only the matching trips are read.
+	 * Results are cached like queryTrip.
+	 * @param query What the trips have to match
+	 * @param afterTripID The ID of the last trip on the previous page, or 0
+	 * for the first page
+	 * @param pageSize The most trips to return
+	 * @return The matching trips after afterTripID, at most pageSize of them
+	 */
+	public List<Trip> searchTrips(TripQuery query, long afterTripID, 
+									int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1");
+		}
+		String key = SEARCH + query + " " + afterTripID + " " + pageSize;
+		return metrics.record("searchTrips", () -> copiesOf(
+				tripCache.get(key, () -> loadSearch(query, afterTripID, 
+													pageSize))));
+	}
+
+	private List<Trip> loadSearch(TripQuery query, long afterTripID, 
+									int pageSize) {
+		List<Trip> tripList = new ArrayList<Trip>(pageSize);
+		try(PooledConnection pooled = pool.borrow()) {
+			PreparedStatement matchStatement = pooled.prepare(
+						"select Trip.tripID from Trip join CruiseShip " + 
+						"on Trip.shipID = CruiseShip.shipID " + 
+						"where Trip.tripID > ?" + query.conditions() + 
+						" order by Trip.tripID limit ?");
+			matchStatement.setLong(1, afterTripID);
+			matchStatement.setInt(query.bind(matchStatement, 2), pageSize);
+			List<Long> tripIDs = new ArrayList<Long>(pageSize);
+			try(ResultSet idSet = matchStatement.executeQuery()) {
+				while(idSet.next()) {
+					OperationMetrics.rowsRead(1);
+					tripIDs.add(idSet.getLong("tripID"));
+				}
+			}
+			if (tripIDs.isEmpty()) {
+				return tripList;
+			}
+			for(Long[] chunk : tripChunks(tripIDs)) {
+				try(TripCursor cursor = openTrips(pooled, inTrips(chunk.length), 
+												chunk.length, chunk)) {
+					cursor.forEachRemaining(tripList::add);
 				}
-				builder.addCost(Service.MEALS, mealFee);
-				builder.addCost(Service.DRINKS, drinkFee);
-				
-				tripList.add(builder.build(tripID));
 			}
 		} catch(SQLException e) {
 			throw new IllegalArgumentException(e.getMessage());
@@ -261,43 +691,264 @@ public class CMConnection {
 		return tripList;
 	}
 
+	/**
+	 * Finds the trips that still have some empty rooms of a type, leaving
+	 * between two days. This is answered from an index kept in memory, so it
+	 * does not touch the database except to read the index the first time
+	 * and again once it is CATALOG_TTL_MILLIS old. Bookings made by other
+	 * terminals since then are not counted.
+	 * @param roomType The type of room
+	 * @param cabins How many rooms of that type nobody is booked into yet
+	 * @param earliest The earliest day to leave, or null for any
+	 * @param latest The latest day to leave, or null for any
+	 * @return The IDs of the matching trips, in the order they leave
+	 */
+	public List<Long> findAvailableTrips(RoomType roomType, int cabins, 
+										Date earliest, Date latest) {
+		return metrics.record("findAvailableTrips", () -> 
+				availability().find(roomType, cabins, earliest, latest));
+	}
+
+	private AvailabilityIndex availability() {
+		AvailabilityIndex index = availability;
+		if (index != null && index.getAgeMillis() < CATALOG_TTL_MILLIS) {
+			return index;
+		}
+		synchronized (this) {
+			index = availability;
+			if (index == null || index.getAgeMillis() >= CATALOG_TTL_MILLIS) {
+				try(PooledConnection pooled = pool.borrow()) {
+					index = AvailabilityIndex.load(pooled);
+				} catch(SQLException e) {
+					throw new IllegalArgumentException(e.getMessage());
+				}
+				availability = index;
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Reads every trip one at a time, in order of trip ID, without loading
+	 * the whole catalog into memory. The stream holds on to a pooled
+	 * connection until it is closed, so it should be used in a
+	 * try-with-resources block. With MySQL, add useCursorFetch=true to the url
+	 * so rows are fetched in batches instead of all at once.
+	 * @return A stream of all Trips in the database, not cached
+	 */
+	public Stream<Trip> streamTrips() {
+		PooledConnection pooled;
+		try {
+			pooled = pool.borrow();
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		try {
+			TripCursor cursor = openTrips(pooled, 0, Long.MAX_VALUE, 
+											TRIP_FETCH_SIZE);
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+							cursor, Spliterator.ORDERED | Spliterator.NONNULL), 
+							false)
+						.onClose(() -> {
+							cursor.close();
+							pooled.close();
+						});
+		} catch(SQLException e) {
+			pooled.close();
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts reading the trips with afterTripID < tripID <= lastTripID. Each
+	 * table is read with one forward only query, so the number of queries
+	 * does not depend on the number of trips.
+	 */
+	private static TripCursor openTrips(PooledConnection pooled, 
+						long afterTripID, long lastTripID, int fetchSize) 
+						throws SQLException {
+		return openTrips(pooled, "tripID > ? and tripID <= ?", fetchSize, 
+							afterTripID, lastTripID);
+	}
+
+	/**
+	 * @return a condition matching tripID against that many parameters
+	 */
+	private static String inTrips(int count) {
+		StringBuilder in = new StringBuilder("tripID in (?");
+		for(int i = 1; i < count; i++) {
+			in.append(",?");
+		}
+		return in.append(")").toString();
+	}
+
+	/**
+	 * Runs the four trip queries for the trips matching a condition on
+	 * tripID, whose parameters are the given IDs. The tickets are counted
+	 * per room by the database, so every trip comes back with its rooms as
+	 * full as the Ticket table says in one query, however many trips there are.
+	 */
+	private static TripCursor openTrips(PooledConnection pooled, 
+						String condition, int fetchSize, Long... tripIDs) 
+						throws SQLException {
+		String retrieveTripDetails = "select Trip.tripID, Trip.shipID, " + 
+								"Trip.drinkFees, Trip.mealFees, " + 
+								"CruiseShip.interiorRooms, " + 
+								"CruiseShip.outsideRooms, " + 
+								"CruiseShip.balconyRooms, CruiseShip.suites " + 
+								"from Trip join CruiseShip " + 
+								"on Trip.shipID = CruiseShip.shipID " + 
+								"where " + condition + " " + 
+								"order by Trip.tripID";
+		String retrieveRoomDetails = "select tripID, roomType, fees " + 
+								"from RoomInfo where " + condition + " " + 
+								"order by tripID";
+		String retrievePortDetails = "select tripID, portName, arrivalDate, " + 
+								"departureDate from Port " + 
+								"where " + condition + " " + 
+								"order by tripID, departureDate";
+		String retrieveTicketCounts = "select tripID, roomNumber, " + 
+								"COUNT(*) as people from Ticket " + 
+								"where " + condition + " " + 
+								"group by tripID, roomNumber order by tripID";
+		String[] queries = {retrieveTripDetails, retrieveRoomDetails, 
+							retrievePortDetails, retrieveTicketCounts};
+		ResultSet[] sets = new ResultSet[queries.length];
+		try {
+			for(int i = 0; i < queries.length; i++) {
+				PreparedStatement statement = pooled.prepare(queries[i]);
+				statement.setFetchSize(fetchSize);
+				for(int j = 0; j < tripIDs.length; j++) {
+					statement.setLong(j + 1, tripIDs[j]);
+				}
+				sets[i] = statement.executeQuery();
+			}
+			return new TripCursor(sets[0], sets[1], sets[2], sets[3]);
+		} catch(SQLException e) {
+			for(ResultSet set : sets) {
+				if (set != null) {
+					set.close();
+				}
+			}
+			throw e;
+		}
+	}
+
 	/**
 	 * Utilised for booking a trip, enters booking data into the Ticket table 
 	 * and returns a ticket.
+	 * A place in the room type is reserved with a conditional update on RoomInfo
+	 * in the same transaction as the Ticket insert, so concurrent bookings can
+	 * never put more people on a trip than it has space for. The room number
+	 * comes from the reserved place rather than from this process's copy of
+	 * the trip, so every booking agent hands out the same rooms in the same
+	 * order. Conflicts with other transactions are retried a few times.
 	 * @param tripIn The trip to be booked
 	 * @param customerName The name of the customer
 	 * @param mealSelect Whether or not a meal package is selected
 	 * @param drinkSelect Whether or not a drink package is selected
 	 * @param roomSelect The type of room that is selected
 	 * @return A text output of the ticket details
+	 * @throws IllegalArgumentException if there is no space left in that type
+	 * of room, or the booking could not be written
 	 */
 	public String bookTrip(Trip tripIn, String customerName, boolean mealSelect, 
 						boolean drinkSelect, RoomType roomSelect){
-		String toReturn;
-		long ticketID = 1;
-		int roomNumber = tripIn.addPerson(roomSelect);
-		String retrieveID = "select MAX(TicketID) as maxTicketID from Ticket";
+		return bookTicket(tripIn, customerName, mealSelect, drinkSelect, 
+							roomSelect).toString();
+	}
+
+	/**
+	 * Books a trip the same way as bookTrip.
+	 * @return The ticket, for code that needs its ID or room
+	 * @throws IllegalArgumentException if there is no space left in that type
+	 * of room, or the booking could not be written
+	 */
+	public Ticket bookTicket(Trip tripIn, String customerName, 
+				boolean mealSelect, boolean drinkSelect, RoomType roomSelect) {
+		return metrics.record("bookTrip", () -> issueTicket(tripIn, 
+						customerName, mealSelect, drinkSelect, roomSelect));
+	}
+
+	private Ticket issueTicket(Trip tripIn, String customerName, 
+				boolean mealSelect, boolean drinkSelect, RoomType roomSelect) {
+		Objects.requireNonNull(tripIn, "No trip was chosen");
+		Objects.requireNonNull(customerName, "No customer name was given");
+		Objects.requireNonNull(roomSelect, "No room type was chosen");
+		long ticketID;
 		try {
-			PreparedStatement retrieveStatement = 
-											connector.prepareStatement(retrieveID);
-			ResultSet idSet = retrieveStatement.executeQuery();
-			if(idSet.next()) {
-				if(idSet.getInt("maxTicketID") != 0) {
-					ticketID = idSet.getInt("maxTicketID") + 1;
-				}
-			}
+			ticketID = ids.next(Sequence.TICKET);
 		} catch(SQLException e) {
 			throw new IllegalArgumentException(e.getMessage());
 		}
-		try{
-			Statement updateStatment = connector.createStatement();
-			String updateOccupancy = "update RoomInfo set occupancy = occupancy + 1 " +
-								"where roomType ='" + roomSelect.name() + 
-								"' AND tripID = " + tripIn.ID; 
-			updateStatment.executeUpdate(updateOccupancy);
+		int roomNumber = -1;
+		for(int attempt = 1; roomNumber < 0; attempt++) {
+			try(PooledConnection pooled = pool.borrow()) {
+				roomNumber = insertTicket(pooled, ticketID, tripIn, 
+							customerName, mealSelect, drinkSelect, roomSelect);
+			} catch(SQLException e) {
+				if (attempt >= MAX_BOOKING_ATTEMPTS || !isTransient(e)) {
+					throw new IllegalArgumentException(e.getMessage());
+				}
+				try {
+					Thread.sleep(attempt * BOOKING_RETRY_MILLIS);
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IllegalArgumentException(e.getMessage());
+				}
+			}
+		}
+		tripIn.SHIP.addPersonTo(roomSelect, roomNumber);
+		tripBooked(tripIn.ID, roomSelect, roomNumber);
+		AvailabilityIndex index = availability;
+		if (index != null) {
+			index.booked(tripIn.ID, roomSelect);
+		}
+		return new Ticket(ticketID, tripIn.ID, roomSelect, roomNumber, 
+						customerName, mealSelect, drinkSelect);
+	}
+
+	/**
+	 * Reserves a place in a room and writes the ticket in one transaction.
+	 * @return the room number the ticket is for
+	 */
+	private static int insertTicket(PooledConnection pooled, long ticketID, 
+						Trip tripIn, String customerName, boolean mealSelect, 
+						boolean drinkSelect, RoomType roomSelect) throws SQLException {
+		Connection connector = pooled.connection;
+		boolean committed = false;
+		connector.setAutoCommit(false);
+		try {
+			String reserve = "update RoomInfo set occupancy = occupancy + 1 " +
+								"where roomType = ? and tripID = ? and occupancy < ?";
+			PreparedStatement reserveStatement = pooled.prepare(reserve);
+			reserveStatement.setString(1, roomSelect.name());
+			reserveStatement.setLong(2, tripIn.ID);
+			reserveStatement.setInt(3, tripIn.getCapacity(roomSelect));
+			int reserved = reserveStatement.executeUpdate();
+			if (reserved == 0) {
+				throw new IllegalArgumentException("No " + roomSelect + 
+								" rooms left on trip " + tripIn.ID);
+			}
+
+			//the row stays locked until commit, so this is our own reservation
+			String occupancy = "select occupancy from RoomInfo " + 
+								"where roomType = ? and tripID = ?";
+			PreparedStatement occupancyStatement = 
+										pooled.prepare(occupancy);
+			occupancyStatement.setString(1, roomSelect.name());
+			occupancyStatement.setLong(2, tripIn.ID);
+			ResultSet occupancySet = occupancyStatement.executeQuery();
+			occupancySet.next();
+			OperationMetrics.rowsRead(1);
+			int place = occupancySet.getInt("occupancy") - 1;
+			occupancySet.close();
+			int roomNumber = tripIn.SHIP.roomNumberFor(roomSelect, place, 
+											tripIn.getMaxOccupancy());
+
 			String createTicket = "insert into Ticket values(?, ?, ?, ?, ?, ?)";
 			PreparedStatement insertStatement = 
-										connector.prepareStatement(createTicket);
+										pooled.prepare(createTicket);
 			insertStatement.setLong(1, ticketID);
 			insertStatement.setLong(2, tripIn.ID);
 			insertStatement.setString(3, customerName);
@@ -313,16 +964,25 @@ public class CMConnection {
 				insertStatement.setInt(5, 0);
 			
 			insertStatement.setInt(6, roomNumber);
-			toReturn = "Ticket ID: " + ticketID + "\nTrip ID: " + tripIn.ID +
-						"\nRoom Number: " + roomNumber +
-						"\nCustomer Name: " + customerName + 
-						"\nMeal Package Selected: " + ((mealSelect) ? "Yes" : "No") +
-						"\nDrink Package Selected: " + ((drinkSelect) ? "Yes" : "No");
 			insertStatement.executeUpdate();
-		}catch(SQLException e){
-			throw new IllegalArgumentException(e.getMessage());
+			connector.commit();
+			committed = true;
+			return roomNumber;
+		} finally {
+			endTransaction(connector, committed);
 		}
-		return toReturn;
+	}
+
+	/**
+	 * @return whether the exception is a deadlock, serialization failure or
+	 * lock timeout that is worth retrying
+	 */
+	private static boolean isTransient(SQLException e) {
+		String state = e.getSQLState();
+		return e instanceof SQLTransientException
+				|| e instanceof SQLTransactionRollbackException
+				|| (state != null && (state.startsWith("40") 
+										|| state.equals("HYT00")));
 	}
 
 	/**
@@ -330,22 +990,184 @@ public class CMConnection {
 	 * @return a string showing total occupancy for every trip.
 	 */
 	public String tripOccupancy(){
-		String outString = "";
-		List<Trip> tripList = this.queryTrip();
-		String retrieveStats = "select SUM(occupancy), TripID from RoomInfo where TripID = ";
-		try{
-			for(int i = 0; i<tripList.size(); i++){
-				PreparedStatement query = connector.prepareStatement(retrieveStats + 
-									tripList.get(i).ID);
-				ResultSet statSet = query.executeQuery();
+		return metrics.record("tripOccupancy", () -> {
+			StringBuilder outString = new StringBuilder();
+			try {
+				writeOccupancyReport(outString);
+			} catch (IOException e) {
+				//a StringBuilder never throws
+			}
+			return outString.toString();
+		});
+	}
+
+	/**
+	 * Writes the same report as tripOccupancy, one trip at a time, so a report
+	 * on every trip never has to be held in memory.
+	 * @param out Where the report is written
+	 * @throws IOException if out could not be written to
+	 */
+	public void writeOccupancyReport(Appendable out) throws IOException {
+		forEachOccupancy(row -> out.append(row.toString()));
+	}
+
+	/**
+	 * Reads the occupancy of every trip, broken down by room type.
+	 * @return one row per trip, in order of trip ID
+	 */
+	public List<OccupancyRow> occupancyReport() {
+		List<OccupancyRow> rows = new ArrayList<OccupancyRow>();
+		try {
+			forEachOccupancy(rows::add);
+		} catch (IOException e) {
+			//adding to a list never throws
+		}
+		return rows;
+	}
+
+	/**
+	 * Works out the revenue, load factor and yield of every trip, like
+	 * revenueReport with a query that matches every trip.
+	 * @return the report, per trip, ship, month and room type
+	 */
+	public RevenueReport revenueReport() {
+		return revenueReport(new TripQuery());
+	}
+
+	/**
+	 * Works out the revenue, load factor and yield of every trip matching a
+	 * query, and adds them up per ship, per month of departure and per type
+	 * of room. The bookings and fees of the trips are read with three
+	 * forward only queries, and the figures are added up in parallel on the
+	 * common fork/join pool.
+	 * @param query Which trips to report on
+	 * @return the report, per trip, ship, month and room type
+	 */
+	public RevenueReport revenueReport(TripQuery query) {
+		return metrics.record("revenueReport", () -> {
+			List<TripFigures> trips;
+			try(PooledConnection pooled = pool.borrow()) {
+				trips = TripFigures.load(pooled, query, REPORT_FETCH_SIZE);
+			} catch(SQLException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+			return RevenueReport.aggregate(trips, ForkJoinPool.commonPool());
+		});
+	}
+
+	/**
+	 * Reads the occupancy of every trip with one query, handing each trip to
+	 * the handler as soon as all of its rows have been read.
+	 */
+	private void forEachOccupancy(RowHandler handler) throws IOException {
+		String retrieveStats = "select tripID, roomType, " + 
+								"SUM(occupancy) as occupied from RoomInfo " + 
+								"group by tripID, roomType order by tripID";
+		try(PooledConnection pooled = pool.borrow()) {
+			PreparedStatement query = pooled.prepare(retrieveStats);
+			query.setFetchSize(REPORT_FETCH_SIZE);
+			try(ResultSet statSet = query.executeQuery()) {
+				OccupancyRow row = null;
 				while(statSet.next()){
-					outString += "\nTrip ID: " + statSet.getString("tripID") + 
-						"\nTotal occupancy: " + statSet.getInt("SUM(occupancy)") + "\n";
+					OperationMetrics.rowsRead(1);
+					long tripID = statSet.getLong("tripID");
+					if (row == null || row.getTripID() != tripID) {
+						if (row != null) {
+							handler.accept(row);
+						}
+						row = new OccupancyRow(tripID);
+					}
+					row.add(RoomType.valueOf(statSet.getString("roomType")), 
+							statSet.getInt("occupied"));
+				}
+				if (row != null) {
+					handler.accept(row);
 				}
 			}
 		}catch(SQLException e){
 			throw new IllegalArgumentException(e.getMessage());
 		}
-		return outString;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Writes the passenger manifest of one trip, like exportManifest with a
+	 * query for just that trip.
+	 * @param tripID The ID of the trip
+	 * @param format Whether to write CSV or JSON Lines
+	 * @param out Where the manifest is written. It is not closed.
+	 * @return How many passengers were written
+	 * @throws IOException if out could not be written to
+	 */
+	public long exportManifest(long tripID, ManifestFormat format, 
+							WritableByteChannel out) throws IOException {
+		return exportManifest(new TripQuery().onTrip(tripID), format, out);
+	}
+
+	/**
+	 * Writes the passenger manifest of every trip matching a query, such as
+	 * the trips departingBetween two dates. There is a line per ticket, in
+	 * order of trip and then ticket ID, with the passenger's room, packages,
+	 * fare and the ports they board and leave at. Tickets are read with
+	 * forward only queries and written through one reused buffer as they
+	 * arrive, so the manifest is never held in memory. With MySQL, add
+	 * useCursorFetch=true to the url so rows are fetched in batches instead
+	 * of all at once.
+	 * @param query Which trips to write the manifest of
+	 * @param format Whether to write CSV or JSON Lines
+	 * @param out Where the manifest is written. It is not closed.
+	 * @return How many passengers were written
+	 * @throws IOException if out could not be written to
+	 */
+	public long exportManifest(TripQuery query, ManifestFormat format, 
+							WritableByteChannel out) throws IOException {
+		String tripJoin = "join Trip on Trip.tripID = %s.tripID " + 
+						"join CruiseShip on Trip.shipID = CruiseShip.shipID " + 
+						"where Trip.tripID > ?" + query.conditions();
+		String retrieveTickets = "select Ticket.tripID, Ticket.ticketID, " + 
+						"Ticket.customerName, Ticket.mealPackageFlag, " + 
+						"Ticket.drinkPackageFlag, Ticket.roomNumber, " + 
+						"Trip.shipID, Trip.mealFees, Trip.drinkFees, " + 
+						"CruiseShip.interiorRooms, CruiseShip.outsideRooms, " + 
+						"CruiseShip.balconyRooms, CruiseShip.suites " + 
+						"from Ticket " + String.format(tripJoin, "Ticket") + 
+						" order by Ticket.tripID, Ticket.ticketID";
+		String retrieveRooms = "select RoomInfo.tripID, RoomInfo.roomType, " + 
+						"RoomInfo.fees from RoomInfo " + 
+						String.format(tripJoin, "RoomInfo") + 
+						" order by RoomInfo.tripID";
+		String retrievePorts = "select Port.tripID, Port.portName, " + 
+						"Port.arrivalDate, Port.departureDate from Port " + 
+						String.format(tripJoin, "Port") + 
+						" order by Port.tripID, Port.departureDate";
+		String[] queries = {retrieveTickets, retrieveRooms, retrievePorts};
+		ResultSet[] sets = new ResultSet[queries.length];
+		try(PooledConnection pooled = pool.borrow()) {
+			try {
+				for(int i = 0; i < queries.length; i++) {
+					PreparedStatement statement = pooled.prepare(queries[i]);
+					statement.setFetchSize(MANIFEST_FETCH_SIZE);
+					statement.setLong(1, 0);
+					query.bind(statement, 2);
+					sets[i] = statement.executeQuery();
+				}
+				return new ManifestWriter(out, format).write(sets[0], sets[1], 
+																sets[2]);
+			} finally {
+				for(ResultSet set : sets) {
+					if (set != null) {
+						set.close();
+					}
+				}
+			}
+		} catch(SQLException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Receives the rows of the occupancy report one at a time.
+	 */
+	private interface RowHandler {
+		void accept(OccupancyRow row) throws IOException;
+	}
+}
@@ -0,0 +1,62 @@
+package inc.vareli.crusman.databases;
+
+/**
+ * A snapshot of how well a cache in front of the database is doing.
+ */
+public class CacheStats {
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long loadNanos;
+
+	CacheStats(long hits, long misses, long evictions, long loadNanos) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.loadNanos = loadNanos;
+	}
+
+	/**
+	 * @return how many lookups were answered without the database
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return how many lookups had to go to the database
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return how many entries were dropped to stay under the size limit
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of lookups that were hits, or 0 before any lookup
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return (lookups == 0) ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return the average time spent loading from the database, in
+	 * milliseconds
+	 */
+	public double getAverageLoadMillis() {
+		return (misses == 0) ? 0 : loadNanos / 1e6 / misses;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hit rate), " + 
+				"%d evictions, %.2fms average load", hits, misses, 
+				getHitRate() * 100, evictions, getAverageLoadMillis());
+	}
+}
@@ -0,0 +1,150 @@
+package inc.vareli.crusman.databases;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A small read-through cache for results that are expensive to read from the
+ * database and change rarely, like the list of trips.
+ * Entries expire after a fixed time so changes made by other terminals are
+ * picked up eventually, and the least recently used entry is dropped once
+ * there are more than maxEntries. Changes made through this process should
+ * call invalidate or update so they show up straight away.
+ * Loads happen outside the lock, so a slow query does not hold up other
+ * lookups. A load that was running while the cache was invalidated is
+ * returned to its caller but not kept.
+ */
+class CatalogCache<K,V> {
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final LongSupplier clock;
+	private final Map<K,Entry<V>> entries;
+	private long generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long loadNanos;
+
+	/**
+	 * @param maxEntries - how many results to keep at most
+	 * @param ttlMillis - how long a result is used before it is read again
+	 */
+	CatalogCache(int maxEntries, long ttlMillis) {
+		this(maxEntries, ttlMillis, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param clock - where the current time in milliseconds comes from
+	 */
+	CatalogCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<K,Entry<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K,Entry<V>> eldest) {
+				if (size() > CatalogCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached value for key, loading it if it is missing or expired.
+	 * @param key - what is being looked up
+	 * @param loader - reads the value from the database
+	 * @return the cached or freshly loaded value
+	 */
+	V get(K key, Supplier<V> loader) {
+		long loadingGeneration;
+		synchronized (this) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && clock.getAsLong() < entry.expires) {
+				hits++;
+				return entry.value;
+			}
+			entries.remove(key);
+			misses++;
+			loadingGeneration = generation;
+		}
+		long start = System.nanoTime();
+		V value = loader.get();
+		long took = System.nanoTime() - start;
+		synchronized (this) {
+			loadNanos += took;
+			if (loadingGeneration == generation) {
+				entries.put(key, new Entry<V>(value, clock.getAsLong() + ttlMillis));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Drops the cached value for one key.
+	 */
+	synchronized void invalidate(K key) {
+		generation++;
+		entries.remove(key);
+	}
+
+	/**
+	 * Changes the cached values instead of dropping them, for writes that
+	 * are cheaper to apply than to read back. Loads running at the same time
+	 * are not kept, as they may have read the database before the write.
+	 * @param change - given each key and value, returns the value to keep,
+	 * which can be the same one changed in place, or null to drop it
+	 */
+	synchronized void update(BiFunction<K,V,V> change) {
+		generation++;
+		Iterator<Map.Entry<K,Entry<V>>> iterator = entries.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<K,Entry<V>> entry = iterator.next();
+			Entry<V> cached = entry.getValue();
+			V value = change.apply(entry.getKey(), cached.value);
+			if (value == null) {
+				iterator.remove();
+			} else if (value != cached.value) {
+				entry.setValue(new Entry<V>(value, cached.expires));
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached value, so the next lookups read from the database.
+	 */
+	synchronized void invalidateAll() {
+		generation++;
+		entries.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the hit, miss and load time counts so far
+	 */
+	synchronized CacheStats getStats() {
+		return new CacheStats(hits, misses, evictions, loadNanos);
+	}
+
+	private static class Entry<V> {
+		private final V value;
+		private final long expires;
+
+		private Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package inc.vareli.crusman.databases;
+
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+/**
+ * A fixed size pool of database connections that can be shared between
+ * threads. Connections are opened lazily, checked before being handed out
+ * again after sitting idle, and closed once they have been idle for too long.
+ * Each connection keeps a StatementCache so statements are prepared once per
+ * connection rather than once per use.
+ * Package private since only CMConnection should be touching raw connections.
+ */
+class ConnectionPool implements AutoCloseable {
+	/**
+	 * Idle connections are only validated after this long, so a busy pool
+	 * does not pay for a round trip on every borrow.
+	 */
+	private static final long VALIDATE_AFTER_MILLIS = 5000;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	private static final int STATEMENTS_PER_CONNECTION = 64;
+
+	private final ConnectionFactory factory;
+	private final int maxSize;
+	private final long borrowTimeoutMillis;
+	private final long maxIdleMillis;
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<PooledConnection> idle;
+	private final AtomicLong statementHits;
+	private final AtomicLong statementMisses;
+	private volatile boolean closed;
+
+	/**
+	 * Opens a new physical connection for the pool.
+	 */
+	interface ConnectionFactory {
+		Connection open() throws SQLException;
+	}
+
+	/**
+	 * @param factory - how to open a new connection
+	 * @param maxSize - the most connections that can be borrowed at once
+	 * @param borrowTimeoutMillis - how long borrow() waits for a free connection
+	 * @param maxIdleMillis - how long a connection may sit unused before it is
+	 * closed
+	 */
+	ConnectionPool(ConnectionFactory factory, int maxSize,
+					long borrowTimeoutMillis, long maxIdleMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.maxIdleMillis = maxIdleMillis;
+		this.permits = new Semaphore(maxSize, true);
+		this.idle = new LinkedBlockingDeque<PooledConnection>();
+		this.statementHits = new AtomicLong();
+		this.statementMisses = new AtomicLong();
+	}
+
+	/**
+	 * Borrows a connection, waiting up to the borrow timeout for one to be
+	 * returned if they are all in use. The connection goes back to the pool
+	 * when the returned PooledConnection is closed.
+	 * @return a connection that is only used by the caller until it is closed
+	 * @throws SQLException if no connection could be borrowed or opened
+	 */
+	PooledConnection borrow() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLTimeoutException("Timed out after " +
+						borrowTimeoutMillis + "ms waiting for a connection");
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection", ie);
+		}
+		try {
+			evictIdle();
+			PooledConnection pooled;
+			//most recently used first, so the oldest ones get a chance to expire
+			while((pooled = idle.pollFirst()) != null) {
+				if (isUsable(pooled)) {
+					pooled.borrowed = true;
+					return pooled;
+				}
+				discard(pooled);
+			}
+			pooled = new PooledConnection(this, factory.open());
+			pooled.borrowed = true;
+			return pooled;
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private boolean isUsable(PooledConnection pooled) {
+		long idleFor = System.currentTimeMillis() - pooled.lastUsed;
+		if (idleFor < VALIDATE_AFTER_MILLIS) {
+			return true;
+		}
+		try {
+			return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Takes a connection back. Any transaction left open is rolled back so the
+	 * next borrower starts clean.
+	 */
+	void release(PooledConnection pooled) {
+		try {
+			if (closed || pooled.connection.isClosed()) {
+				discard(pooled);
+				return;
+			}
+			if (!pooled.connection.getAutoCommit()) {
+				pooled.connection.rollback();
+				pooled.connection.setAutoCommit(true);
+			}
+			pooled.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(pooled);
+		} catch (SQLException e) {
+			discard(pooled);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout.
+	 */
+	void evictIdle() {
+		long cutoff = System.currentTimeMillis() - maxIdleMillis;
+		Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+		while(oldestFirst.hasNext()) {
+			PooledConnection pooled = oldestFirst.next();
+			if (pooled.lastUsed < cutoff && idle.removeLastOccurrence(pooled)) {
+				discard(pooled);
+			}
+		}
+	}
+
+	private void discard(PooledConnection pooled) {
+		pooled.statements.close();
+		try {
+			pooled.connection.close();
+		} catch (SQLException e) {
+			//it is being thrown away anyways
+		}
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return how many times a statement was reused instead of prepared again
+	 */
+	long getStatementHits() {
+		return statementHits.get();
+	}
+
+	/**
+	 * @return how many times a statement had to be prepared
+	 */
+	long getStatementMisses() {
+		return statementMisses.get();
+	}
+
+	/**
+	 * Closes every idle connection. Borrowed connections are closed when they
+	 * are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		PooledConnection pooled;
+		while((pooled = idle.pollFirst()) != null) {
+			discard(pooled);
+		}
+	}
+
+	/**
+	 * A connection borrowed from the pool. Closing it returns the connection
+	 * to the pool instead of closing it, so it can be used with
+	 * try-with-resources.
+	 */
+	static class PooledConnection implements AutoCloseable {
+		final Connection connection;
+		private final StatementCache statements;
+		private final ConnectionPool pool;
+		private long lastUsed;
+		private boolean borrowed;
+
+		private PooledConnection(ConnectionPool pool, Connection connection) {
+			this.pool = pool;
+			this.connection = connection;
+			this.statements = new StatementCache(connection,
+					STATEMENTS_PER_CONNECTION, pool.statementHits,
+					pool.statementMisses);
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * Gets a prepared statement from this connection's cache. The
+		 * statement must not be closed by the caller.
+		 * @param sql - the statement to prepare
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			return statements.prepare(sql);
+		}
+
+		/**
+		 * Returns this connection to the pool. Closing it a second time does
+		 * nothing.
+		 */
+		@Override
+		public void close() {
+			if (borrowed) {
+				borrowed = false;
+				pool.release(this);
+			}
+		}
+	}
+}
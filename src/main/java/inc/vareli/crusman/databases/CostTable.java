@@ -0,0 +1,123 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+
+/**
+ * How much each cost of a trip is. Every CostType is a RoomType or a Service,
+ * so the amounts are kept in one array with a slot for each of them, rooms
+ * first and services after, instead of a map of boxed Doubles. Reading a
+ * cost or the total never allocates.
+ */
+public class CostTable {
+	/*
+	 * Every cost type, in the order of their slots
+	 */
+	private static final CostType[] TYPES = types();
+	private static final int SERVICES_START = RoomType.values().length;
+
+	private final double[] amounts;
+	/*
+	 * Bit i is set when the cost in slot i has been given
+	 */
+	private int given;
+
+	CostTable() {
+		this.amounts = new double[TYPES.length];
+	}
+
+	private CostTable(CostTable other) {
+		this.amounts = other.amounts.clone();
+		this.given = other.given;
+	}
+
+	private static CostType[] types() {
+		RoomType[] rooms = RoomType.values();
+		Service[] services = Service.values();
+		CostType[] types = new CostType[rooms.length + services.length];
+		System.arraycopy(rooms, 0, types, 0, rooms.length);
+		System.arraycopy(services, 0, types, rooms.length, services.length);
+		return types;
+	}
+
+	/**
+	 * @return which slot of the table a cost type is kept in
+	 */
+	private static int slotOf(CostType type) {
+		if (type instanceof RoomType) {
+			return ((RoomType) type).ordinal();
+		}
+		if (type instanceof Service) {
+			return SERVICES_START + ((Service) type).ordinal();
+		}
+		throw new IllegalArgumentException("Unknown cost " + type);
+	}
+
+	void set(CostType type, double amount) {
+		int slot = slotOf(type);
+		amounts[slot] = amount;
+		given |= 1 << slot;
+	}
+
+	/**
+	 * @return a table with the same costs, that later changes to this one do
+	 * not show up in
+	 */
+	CostTable copy() {
+		return new CostTable(this);
+	}
+
+	/**
+	 * @param type - a type of room or a service
+	 * @return how much it costs, or 0 if it was never given
+	 */
+	public double get(CostType type) {
+		return amounts[slotOf(type)];
+	}
+
+	/**
+	 * @param type - a type of room or a service
+	 * @return whether a cost was given for it
+	 */
+	public boolean has(CostType type) {
+		return (given & (1 << slotOf(type))) != 0;
+	}
+
+	/**
+	 * @return every cost added together
+	 */
+	public double getTotal() {
+		double total = 0;
+		for(int i = 0; i < amounts.length; i++) {
+			total += amounts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @return the types that a cost was given for, rooms first and then
+	 * services
+	 */
+	public CostType[] getTypes() {
+		CostType[] types = new CostType[Integer.bitCount(given)];
+		int next = 0;
+		for(int i = 0; i < TYPES.length; i++) {
+			if ((given & (1 << i)) != 0) {
+				types[next++] = TYPES[i];
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * @return a type no cost was given for, or null if they all were
+	 */
+	CostType missing() {
+		for(int i = 0; i < TYPES.length; i++) {
+			if ((given & (1 << i)) == 0) {
+				return TYPES[i];
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,150 @@
+package inc.vareli.crusman.databases;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a CSV file one row at a time, so a file of any size can be read in
+ * the same amount of memory. Fields can be quoted with double quotes, and a
+ * quoted field can hold commas, line breaks and doubled quotes. The first
+ * row names the columns.
+ */
+class CsvReader implements AutoCloseable {
+	/**
+	 * The longest a field can be, so a missing closing quote can not read the
+	 * rest of the file into memory
+	 */
+	static final int MAX_FIELD_CHARS = 64 * 1024;
+
+	private final BufferedReader in;
+	private final Map<String,Integer> columns;
+	private final StringBuilder field;
+	private long line;
+	private long rowLine;
+	private boolean ended;
+
+	/**
+	 * Reads the header row.
+	 * @param in - where to read the file from
+	 * @param required - columns that have to be in the header
+	 * @throws IOException if the header is missing a required column
+	 */
+	CsvReader(Reader in, String... required) throws IOException {
+		this.in = (in instanceof BufferedReader) ? (BufferedReader) in
+												: new BufferedReader(in);
+		this.columns = new HashMap<String,Integer>();
+		this.field = new StringBuilder();
+		this.line = 1;
+		List<String> header = next();
+		if (header == null) {
+			throw new IOException("The file is empty");
+		}
+		for(int i = 0; i < header.size(); i++) {
+			columns.put(header.get(i).trim().toLowerCase(), i);
+		}
+		for(String column : required) {
+			if (!columns.containsKey(column.toLowerCase())) {
+				throw new IOException("No " + column + " column");
+			}
+		}
+	}
+
+	/**
+	 * @return the fields of the next row, or null at the end of the file.
+	 * Blank lines are skipped.
+	 * @throws IOException if the file could not be read, or a field is too
+	 * long
+	 */
+	List<String> next() throws IOException {
+		List<String> row = new ArrayList<String>();
+		while(row.isEmpty()) {
+			if (ended) {
+				return null;
+			}
+			rowLine = line;
+			readRow(row);
+			if (row.size() == 1 && row.get(0).isEmpty()) {
+				row.clear();
+			}
+		}
+		return row;
+	}
+
+	private void readRow(List<String> row) throws IOException {
+		boolean quoted = false;
+		field.setLength(0);
+		while(true) {
+			int c = in.read();
+			if (c < 0) {
+				if (quoted) {
+					throw new IOException("Line " + rowLine +
+											": a quote is never closed");
+				}
+				ended = true;
+				row.add(field.toString());
+				return;
+			}
+			if (quoted) {
+				if (c == '"') {
+					in.mark(1);
+					if (in.read() != '"') {
+						in.reset();
+						quoted = false;
+						continue;
+					}
+				} else if (c == '\n') {
+					line++;
+				}
+				append((char) c);
+			} else if (c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if (c == ',') {
+				row.add(field.toString());
+				field.setLength(0);
+			} else if (c == '\n') {
+				line++;
+				row.add(field.toString());
+				return;
+			} else if (c != '\r') {
+				append((char) c);
+			}
+		}
+	}
+
+	private void append(char c) throws IOException {
+		if (field.length() >= MAX_FIELD_CHARS) {
+			throw new IOException("Line " + rowLine + ": a field is longer " +
+									"than " + MAX_FIELD_CHARS + " characters");
+		}
+		field.append(c);
+	}
+
+	/**
+	 * @return the line the last row returned by next started on
+	 */
+	long getLine() {
+		return rowLine;
+	}
+
+	/**
+	 * @param row - a row returned by next
+	 * @param column - the name of a column from the header
+	 * @return the trimmed field, or an empty string if the row is too short
+	 * or there is no such column
+	 */
+	String get(List<String> row, String column) {
+		Integer i = columns.get(column.toLowerCase());
+		return (i == null || i >= row.size()) ? "" : row.get(i).trim();
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
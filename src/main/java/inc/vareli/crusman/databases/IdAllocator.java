@@ -0,0 +1,181 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out unique IDs for ships, trips and tickets without reading the
+ * database before every insert.
+ * IDs are reserved from the IdSequence table in blocks (hi/lo style): one
+ * update reserves a whole block for this process, and the IDs in it are then
+ * given out from memory. Other processes reserve their own blocks, so no two
+ * ever get the same ID. IDs left in a block when the program exits are
+ * skipped, so IDs can have gaps.
+ */
+class IdAllocator {
+	/**
+	 * The tables that get their IDs from an IdAllocator
+	 */
+	enum Sequence {
+		SHIP("CruiseShip", "shipID"),
+		TRIP("Trip", "tripID"),
+		TICKET("Ticket", "ticketID");
+
+		private final String table;
+		private final String idColumn;
+
+		private Sequence(String table, String idColumn) {
+			this.table = table;
+			this.idColumn = idColumn;
+		}
+	}
+
+	/**
+	 * Creates the table that keeps the next unreserved ID of each sequence
+	 */
+	static final String TABLE_CREATOR = "Create table IdSequence (" +
+					"sequenceName varchar(50) not null primary key, " +
+					"nextID bigint not null)";
+
+	private final ConnectionPool pool;
+	private final int blockSize;
+	private final Map<Sequence,Block> blocks;
+
+	/**
+	 * @param pool - where to borrow a connection when a new block is needed
+	 * @param blockSize - how many IDs to reserve at a time
+	 */
+	IdAllocator(ConnectionPool pool, int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1");
+		}
+		this.pool = pool;
+		this.blockSize = blockSize;
+		this.blocks = new EnumMap<Sequence,Block>(Sequence.class);
+		for(Sequence sequence : Sequence.values()) {
+			blocks.put(sequence, new Block());
+		}
+	}
+
+	/**
+	 * Gets the next free ID. Only touches the database when the current block
+	 * has run out, so callers should not be holding a pooled connection.
+	 * @param sequence - which table the ID is for
+	 * @return an ID that has not been given out before
+	 * @throws SQLException if a new block could not be reserved
+	 */
+	long next(Sequence sequence) throws SQLException {
+		Block block = blocks.get(sequence);
+		synchronized (block) {
+			if (block.next >= block.end) {
+				block.next = reserve(sequence, blockSize);
+				block.end = block.next + blockSize;
+			}
+			return block.next++;
+		}
+	}
+
+	/**
+	 * Reserves a block of IDs for a sequence, seeding it from the highest ID
+	 * already in the table the first time it is used. For callers that need
+	 * many IDs at once, like bulk imports.
+	 * @param count - how many IDs to reserve
+	 * @return the first ID of the reserved block, which runs to first + count
+	 * @throws SQLException if the block could not be reserved
+	 */
+	long reserve(Sequence sequence, int count) throws SQLException {
+		try(PooledConnection pooled = pool.borrow()) {
+			return reserve(pooled, sequence, count);
+		}
+	}
+
+	/**
+	 * Reserves a block of IDs like reserve(Sequence, int), through a
+	 * connection the caller already holds, for callers like bulk imports that
+	 * would otherwise need two connections at once.
+	 * @param pooled - the connection to use, in autocommit mode
+	 * @param count - how many IDs to reserve
+	 * @return the first ID of the reserved block, which runs to first + count
+	 * @throws SQLException if the block could not be reserved
+	 */
+	long reserve(PooledConnection pooled, Sequence sequence, int count)
+											throws SQLException {
+		if (count < 1) {
+			throw new IllegalArgumentException("Must reserve at least 1 ID");
+		}
+		Connection connector = pooled.connection;
+		boolean committed = false;
+		connector.setAutoCommit(false);
+		try {
+			if (!advance(pooled, sequence, count)) {
+				seed(pooled, sequence);
+				if (!advance(pooled, sequence, count)) {
+					throw new SQLException("Could not reserve IDs for " +
+											sequence.table);
+				}
+			}
+			PreparedStatement select = pooled.prepare(
+					"select nextID from IdSequence where sequenceName = ?");
+			select.setString(1, sequence.name());
+			ResultSet nextSet = select.executeQuery();
+			nextSet.next();
+			OperationMetrics.rowsRead(1);
+			long end = nextSet.getLong("nextID");
+			nextSet.close();
+			connector.commit();
+			committed = true;
+			return end - count;
+		} finally {
+			if (!committed) {
+				connector.rollback();
+			}
+			connector.setAutoCommit(true);
+		}
+	}
+
+	private boolean advance(PooledConnection pooled, Sequence sequence, 
+							int count) throws SQLException {
+		PreparedStatement update = pooled.prepare(
+				"update IdSequence set nextID = nextID + ? where sequenceName = ?");
+		update.setLong(1, count);
+		update.setString(2, sequence.name());
+		return update.executeUpdate() == 1;
+	}
+
+	/**
+	 * Starts a sequence just past the IDs that were handed out before the
+	 * IdSequence table existed. If another process seeds it at the same time
+	 * the primary key stops the second insert, which is fine.
+	 */
+	private void seed(PooledConnection pooled, Sequence sequence)
+										throws SQLException {
+		PreparedStatement max = pooled.prepare("select MAX(" +
+				sequence.idColumn + ") as maxID from " + sequence.table);
+		ResultSet maxSet = max.executeQuery();
+		long first = maxSet.next() ? maxSet.getLong("maxID") + 1 : 1;
+		maxSet.close();
+		PreparedStatement insert = pooled.prepare(
+				"insert into IdSequence values (?,?)");
+		insert.setString(1, sequence.name());
+		insert.setLong(2, first);
+		try {
+			insert.executeUpdate();
+		} catch (SQLException e) {
+			if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+				throw e;
+			}
+		}
+	}
+
+	private static class Block {
+		private long next;
+		private long end;
+	}
+}
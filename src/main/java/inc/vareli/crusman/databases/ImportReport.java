@@ -0,0 +1,116 @@
+package inc.vareli.crusman.databases;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a bulk import did: how many rows of each file went in, which rows
+ * were rejected and why, and how fast it went.
+ */
+public class ImportReport {
+	/**
+	 * How many rejected rows are described, so a file full of bad rows does
+	 * not fill memory with messages
+	 */
+	static final int MAX_ERRORS = 100;
+
+	private final Map<String,long[]> files;
+	private final List<String> errors;
+	private long imported;
+	private long rejected;
+	private long elapsedNanos;
+
+	ImportReport() {
+		this.files = new LinkedHashMap<String,long[]>();
+		this.errors = new ArrayList<String>();
+	}
+
+	void imported(String file, int rows) {
+		counts(file)[0] += rows;
+		imported += rows;
+	}
+
+	void rejected(String file, long line, String reason) {
+		counts(file)[1]++;
+		rejected++;
+		if (errors.size() < MAX_ERRORS) {
+			errors.add(file + " line " + line + ": " + reason);
+		}
+	}
+
+	private long[] counts(String file) {
+		return files.computeIfAbsent(file, name -> new long[2]);
+	}
+
+	void finished(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @param file - the name of one of the imported files
+	 * @return how many of its rows were written to the database
+	 */
+	public long getImported(String file) {
+		long[] counts = files.get(file);
+		return (counts == null) ? 0 : counts[0];
+	}
+
+	/**
+	 * @param file - the name of one of the imported files
+	 * @return how many of its rows were rejected
+	 */
+	public long getRejected(String file) {
+		long[] counts = files.get(file);
+		return (counts == null) ? 0 : counts[1];
+	}
+
+	/**
+	 * @return how many rows of all the files were written
+	 */
+	public long getRowsImported() {
+		return imported;
+	}
+
+	/**
+	 * @return how many rows of all the files were rejected
+	 */
+	public long getRowsRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return why rows were rejected, for the first MAX_ERRORS of them
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return how many rows were written per second
+	 */
+	public double getRowsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : imported / (elapsedNanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for(Map.Entry<String,long[]> file : files.entrySet()) {
+			report.append(file.getKey() + ": " + file.getValue()[0] +
+					" imported, " + file.getValue()[1] + " rejected\n");
+		}
+		report.append(String.format("%d rows in %.1fs (%.0f rows/s)%n",
+				imported, elapsedNanos / 1e9, getRowsPerSecond()));
+		for(String error : errors) {
+			report.append(error + "\n");
+		}
+		if (rejected > errors.size()) {
+			report.append("and " + (rejected - errors.size()) +
+							" more rejected rows\n");
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,181 @@
+package inc.vareli.crusman.databases;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ports a trip calls at, in order. Times are kept as milliseconds since
+ * the epoch in arrays, one entry per port, so looking up a port, the
+ * duration or where the ship is at some time never creates Dates or other
+ * objects. The order is checked once, when a new trip is built; trips read
+ * back from the database are taken as they were stored.
+ *
+ * Solution to the timezone issue: the timezone is stored with the port
+ * and will be interpreted at the display level (GUI stuff) to show the
+ * correct timezone for the situation.
+ * Calculations and stuff use UTC-0 (unix time)
+ */
+public class Itinerary {
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	/*
+	 * Every trip calls at a handful of the same ports, so each timezone ID is
+	 * only kept once, however many trips use it. Only IDs of real timezones
+	 * are kept, so the map is never bigger than TimeZone.getAvailableIDs
+	 */
+	private static final ConcurrentHashMap<String,String> ZONE_IDS =
+								new ConcurrentHashMap<String,String>();
+
+	private final String[] locations;
+	private final String[] zoneIds;
+	private final long[] arrivals;
+	private final long[] departures;
+	private final long durationDays;
+
+	/**
+	 * Copies the ports out of the arrays, without checking their order.
+	 * @param count - how many entries of the arrays are ports
+	 */
+	Itinerary(String[] locations, String[] zoneIds, long[] arrivals,
+								long[] departures, int count) {
+		this.locations = Arrays.copyOf(locations, count);
+		this.zoneIds = Arrays.copyOf(zoneIds, count);
+		this.arrivals = Arrays.copyOf(arrivals, count);
+		this.departures = Arrays.copyOf(departures, count);
+		this.durationDays = (count == 0) ? 0
+				: (this.arrivals[count - 1] - this.departures[0]) / DAY_MILLIS;
+	}
+
+	/**
+	 * @return this itinerary, allowing chaining
+	 * @throws IllegalArgumentException if a port is left before it is
+	 * arrived at, or arrived at before the port before it is left
+	 */
+	Itinerary checkOrder() {
+		for(int i = 0; i < locations.length; i++) {
+			if (departures[i] < arrivals[i]) {
+				throw new IllegalArgumentException("The trip leaves " +
+							locations[i] + " before it arrives there");
+			}
+			if (i > 0 && arrivals[i] < departures[i - 1]) {
+				throw new IllegalArgumentException("The trip arrives at " +
+							locations[i] + " before it leaves " +
+							locations[i - 1]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @param zoneId - a timezone identifier, in the format of
+	 * java.util.TimeZone
+	 * @return the ID of that timezone, the same String every time. Unknown
+	 * IDs are GMT, like TimeZone.getTimeZone.
+	 */
+	static String internZone(String zoneId) {
+		String shared = ZONE_IDS.get(zoneId);
+		if (shared != null) {
+			return shared;
+		}
+		String id = TimeZone.getTimeZone(zoneId).getID();
+		shared = ZONE_IDS.putIfAbsent(id, id);
+		return (shared == null) ? id : shared;
+	}
+
+	/**
+	 * @return how many ports the trip calls at
+	 */
+	public int size() {
+		return locations.length;
+	}
+
+	/**
+	 * @param port - the index of the port, from 0
+	 * @return the name of the port
+	 */
+	public String getLocation(int port) {
+		return locations[port];
+	}
+
+	/**
+	 * @param port - the index of the port, from 0
+	 * @return the ID of the port's timezone
+	 */
+	public String getZoneId(int port) {
+		return zoneIds[port];
+	}
+
+	/**
+	 * @param port - the index of the port, from 0
+	 * @return the port's timezone, for showing its times
+	 */
+	public TimeZone getZone(int port) {
+		return TimeZone.getTimeZone(zoneIds[port]);
+	}
+
+	/**
+	 * @param port - the index of the port, from 0
+	 * @return when the ship arrives at the port, in milliseconds since the
+	 * epoch
+	 */
+	public long getArrival(int port) {
+		return arrivals[port];
+	}
+
+	/**
+	 * @param port - the index of the port, from 0
+	 * @return when the ship leaves the port, in milliseconds since the epoch
+	 */
+	public long getDeparture(int port) {
+		return departures[port];
+	}
+
+	/**
+	 * @return when the ship leaves the first port
+	 */
+	public long getFirstDeparture() {
+		return departures[0];
+	}
+
+	/**
+	 * @return when the ship arrives at the last port
+	 */
+	public long getLastArrival() {
+		return arrivals[arrivals.length - 1];
+	}
+
+	/**
+	 * @return how many whole days there are between leaving the first port
+	 * and arriving at the last one
+	 */
+	public long getDurationDays() {
+		return durationDays;
+	}
+
+	/**
+	 * @param time - milliseconds since the epoch
+	 * @return the index of the port the ship is at then, or -1 if it is not
+	 * at any port
+	 */
+	public int portAt(long time) {
+		//the last port arrived at by then
+		int i = Arrays.binarySearch(arrivals, time);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		while(i + 1 < arrivals.length && arrivals[i + 1] == time) {
+			i++;
+		}
+		return (i >= 0 && time <= departures[i]) ? i : -1;
+	}
+
+	/**
+	 * @param time - milliseconds since the epoch
+	 * @return whether the trip has left its first port by then, has not
+	 * arrived at its last port yet, and the ship is not at any port between
+	 */
+	public boolean isAtSea(long time) {
+		return arrivals.length > 0 && time > departures[0] &&
+				time < getLastArrival() && portAt(time) < 0;
+	}
+}
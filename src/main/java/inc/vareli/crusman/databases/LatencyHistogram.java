@@ -0,0 +1,78 @@
+package inc.vareli.crusman.databases;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long calls take in buckets that grow with the latency, so any
+ * percentile can be read back to within about 12% without keeping every
+ * sample. Recording is lock free and never allocates.
+ * Each power of two microseconds is split into 8 equal buckets, which is the
+ * same idea as HdrHistogram with less precision.
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (65 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param micros - how long the call took, in microseconds
+	 */
+	void record(long micros) {
+		long value = Math.max(0, micros);
+		counts.incrementAndGet(bucketOf(value));
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value that falls in the bucket
+	 */
+	static long highestIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * @param fraction - which percentile to read, like 0.99 for p99
+	 * @return a latency in microseconds that at least that fraction of the
+	 * calls took no longer than, or 0 if nothing has been recorded
+	 */
+	long percentile(double fraction) {
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long wanted = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= wanted) {
+				return Math.min(highestIn(i), max.get());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the longest latency recorded, in microseconds
+	 */
+	long getMax() {
+		return max.get();
+	}
+}
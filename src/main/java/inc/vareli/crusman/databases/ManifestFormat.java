@@ -0,0 +1,17 @@
+package inc.vareli.crusman.databases;
+
+/**
+ * The ways a passenger manifest can be written by
+ * CMConnection.exportManifest.
+ */
+public enum ManifestFormat {
+	/**
+	 * A header row naming the columns, then one comma separated row per
+	 * passenger
+	 */
+	CSV,
+	/**
+	 * One JSON object per passenger on each line, with no header
+	 */
+	JSON_LINES
+}
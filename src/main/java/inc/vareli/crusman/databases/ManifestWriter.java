@@ -0,0 +1,308 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes a passenger manifest from three result sets that are all ordered by
+ * tripID, read forwards together the same way as TripCursor: the tickets
+ * joined with their trips and ships, the room fees, and the ports. Every
+ * row is encoded into one buffer that is reused for the whole manifest and
+ * handed to the channel whenever it fills up, so a manifest of any size is
+ * written in the same amount of memory. A ticket for a room its ship does
+ * not have is still written, with no room type and a fare of only its
+ * packages, so one bad row never cuts a manifest short.
+ */
+class ManifestWriter {
+	/**
+	 * How many bytes are gathered before they are written to the channel
+	 */
+	static final int BUFFER_BYTES = 64 * 1024;
+	static final String[] COLUMNS = {"tripID", "ticketID", "customerName",
+					"roomType", "roomNumber", "mealPackage", "drinkPackage",
+					"fare", "embarkPort", "embarkDate", "disembarkPort",
+					"disembarkDate"};
+
+	private final WritableByteChannel out;
+	private final ManifestFormat format;
+	private final ByteBuffer buffer;
+	private final CharsetEncoder encoder;
+	private final StringBuilder row;
+	private final double[] roomFees;
+	private int column;
+	private long rowsRead;
+
+	/*
+	 * The trip whose tickets are being written
+	 */
+	private long tripID;
+	private Ship ship;
+	private double mealFees;
+	private double drinkFees;
+	private String embarkPort;
+	private Date embarkDate;
+	private String disembarkPort;
+	private Date disembarkDate;
+
+	/**
+	 * @param out - where the manifest is written. It is not closed.
+	 * @param format - how the manifest is written
+	 */
+	ManifestWriter(WritableByteChannel out, ManifestFormat format) {
+		this.out = out;
+		this.format = format;
+		this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		this.encoder = StandardCharsets.UTF_8.newEncoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.row = new StringBuilder(256);
+		this.roomFees = new double[RoomType.values().length];
+		this.tripID = -1;
+	}
+
+	/**
+	 * Writes one line per ticket, and a header first for CSV.
+	 * @param ticketSet - the Ticket columns with the fees of their Trip and
+	 * the room counts of its CruiseShip, ordered by tripID
+	 * @param roomSet - tripID, roomType and fees from RoomInfo, ordered by
+	 * tripID
+	 * @param portSet - the Port columns, ordered by tripID then departureDate
+	 * @return how many tickets were written
+	 * @throws IOException if the channel could not be written to
+	 */
+	long write(ResultSet ticketSet, ResultSet roomSet, ResultSet portSet)
+								throws SQLException, IOException {
+		boolean roomsLeft = roomSet.next();
+		boolean portsLeft = portSet.next();
+		long tickets = 0;
+		if (format == ManifestFormat.CSV) {
+			for(String name : COLUMNS) {
+				value(name, name);
+			}
+			endRow();
+		}
+		while(ticketSet.next()) {
+			rowsRead++;
+			if (ticketSet.getLong("tripID") != tripID) {
+				startTrip(ticketSet);
+				roomsLeft = readRooms(roomSet, roomsLeft);
+				portsLeft = readPorts(portSet, portsLeft);
+			}
+			writeTicket(ticketSet);
+			tickets++;
+		}
+		drain();
+		OperationMetrics.rowsRead((int) Math.min(rowsRead, 
+											Integer.MAX_VALUE));
+		return tickets;
+	}
+
+	private void startTrip(ResultSet ticketSet) throws SQLException {
+		tripID = ticketSet.getLong("tripID");
+		Map<RoomType,Integer> roomCounts =
+							new EnumMap<RoomType,Integer>(RoomType.class);
+		roomCounts.put(RoomType.INTERIOR, ticketSet.getInt("interiorRooms"));
+		roomCounts.put(RoomType.OUTSIDE, ticketSet.getInt("outsideRooms"));
+		roomCounts.put(RoomType.BALCONY, ticketSet.getInt("balconyRooms"));
+		roomCounts.put(RoomType.SUITE, ticketSet.getInt("suites"));
+		ship = new Ship(ticketSet.getLong("shipID"), roomCounts);
+		mealFees = ticketSet.getDouble("mealFees");
+		drinkFees = ticketSet.getDouble("drinkFees");
+	}
+
+	/**
+	 * Reads the room fees of the current trip, skipping trips that nobody
+	 * is booked on.
+	 * @return whether roomSet has any rows left
+	 */
+	private boolean readRooms(ResultSet roomSet, boolean roomsLeft)
+												throws SQLException {
+		Arrays.fill(roomFees, 0);
+		while(roomsLeft && roomSet.getLong("tripID") < tripID) {
+			roomsLeft = roomSet.next();
+			rowsRead++;
+		}
+		while(roomsLeft && roomSet.getLong("tripID") == tripID) {
+			RoomType type = RoomType.valueOf(roomSet.getString("roomType"));
+			roomFees[type.ordinal()] = roomSet.getDouble("fees");
+			roomsLeft = roomSet.next();
+			rowsRead++;
+		}
+		return roomsLeft;
+	}
+
+	/**
+	 * Reads where the current trip starts and ends.
+	 * @return whether portSet has any rows left
+	 */
+	private boolean readPorts(ResultSet portSet, boolean portsLeft)
+												throws SQLException {
+		embarkPort = null;
+		embarkDate = null;
+		disembarkPort = null;
+		disembarkDate = null;
+		while(portsLeft && portSet.getLong("tripID") < tripID) {
+			portsLeft = portSet.next();
+			rowsRead++;
+		}
+		while(portsLeft && portSet.getLong("tripID") == tripID) {
+			if (embarkPort == null) {
+				embarkPort = portSet.getString("portName");
+				embarkDate = portSet.getDate("departureDate");
+			}
+			disembarkPort = portSet.getString("portName");
+			disembarkDate = portSet.getDate("arrivalDate");
+			portsLeft = portSet.next();
+			rowsRead++;
+		}
+		return portsLeft;
+	}
+
+	private void writeTicket(ResultSet ticketSet) throws SQLException,
+														IOException {
+		int roomNumber = ticketSet.getInt("roomNumber");
+		boolean meals = ticketSet.getInt("mealPackageFlag") != 0;
+		boolean drinks = ticketSet.getInt("drinkPackageFlag") != 0;
+		RoomType roomType = ship.typeOf(roomNumber);
+		double fare = ((roomType == null) ? 0 : roomFees[roomType.ordinal()]) +
+						(meals ? mealFees : 0) + (drinks ? drinkFees : 0);
+
+		plain("tripID", Long.toString(tripID));
+		plain("ticketID", Long.toString(ticketSet.getLong("ticketID")));
+		value("customerName", ticketSet.getString("customerName"));
+		value("roomType", (roomType == null) ? null : roomType.name());
+		plain("roomNumber", Integer.toString(roomNumber));
+		plain("mealPackage", Boolean.toString(meals));
+		plain("drinkPackage", Boolean.toString(drinks));
+		plain("fare", Double.toString(fare));
+		value("embarkPort", embarkPort);
+		value("embarkDate",
+					(embarkDate == null) ? null : embarkDate.toString());
+		value("disembarkPort", disembarkPort);
+		value("disembarkDate",
+					(disembarkDate == null) ? null : disembarkDate.toString());
+		endRow();
+	}
+
+	/**
+	 * Adds a field that never needs quoting.
+	 */
+	private void plain(String name, String value) {
+		startField(name);
+		row.append(value);
+	}
+
+	/**
+	 * Adds a text field, quoted as the format needs. A null value is an
+	 * empty CSV field and a JSON null.
+	 */
+	private void value(String name, String value) {
+		startField(name);
+		if (format == ManifestFormat.CSV) {
+			appendCsv(value);
+		} else if (value == null) {
+			row.append("null");
+		} else {
+			appendJson(value);
+		}
+	}
+
+	private void startField(String name) {
+		if (format == ManifestFormat.CSV) {
+			if (column > 0) {
+				row.append(',');
+			}
+		} else {
+			row.append((column == 0) ? "{\"" : ",\"").append(name)
+				.append("\":");
+		}
+		column++;
+	}
+
+	private void appendCsv(String value) {
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for(int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			row.append(value);
+			return;
+		}
+		row.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				row.append('"');
+			}
+			row.append(c);
+		}
+		row.append('"');
+	}
+
+	private void appendJson(String value) {
+		row.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				row.append('\\').append(c);
+			} else if (c == '\n') {
+				row.append("\\n");
+			} else if (c == '\r') {
+				row.append("\\r");
+			} else if (c == '\t') {
+				row.append("\\t");
+			} else if (c < 0x20) {
+				row.append(String.format("\\u%04x", (int) c));
+			} else {
+				row.append(c);
+			}
+		}
+		row.append('"');
+	}
+
+	/**
+	 * Ends the line and encodes it into the buffer, writing the buffer out
+	 * as often as it fills up.
+	 */
+	private void endRow() throws IOException {
+		if (format == ManifestFormat.JSON_LINES) {
+			row.append('}');
+		}
+		row.append('\n');
+		CharBuffer chars = CharBuffer.wrap(row);
+		while(encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+			drain();
+		}
+		encoder.reset();
+		row.setLength(0);
+		column = 0;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+}
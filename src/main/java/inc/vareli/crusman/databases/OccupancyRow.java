@@ -0,0 +1,56 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * One line of the occupancy report: how many people are booked on a trip,
+ * in total and for each type of room.
+ */
+public class OccupancyRow {
+	private final long tripID;
+	private final Map<RoomType,Integer> byRoomType;
+	private int total;
+
+	OccupancyRow(long tripID) {
+		this.tripID = tripID;
+		this.byRoomType = new EnumMap<RoomType,Integer>(RoomType.class);
+		for(RoomType type : RoomType.values()) {
+			byRoomType.put(type, 0);
+		}
+	}
+
+	void add(RoomType roomType, int occupancy) {
+		byRoomType.put(roomType, byRoomType.get(roomType) + occupancy);
+		total += occupancy;
+	}
+
+	/**
+	 * @return the ID of the trip this row is about
+	 */
+	public long getTripID() {
+		return tripID;
+	}
+
+	/**
+	 * @param roomType - the type of room to count
+	 * @return how many people are booked into rooms of that type
+	 */
+	public int getOccupancy(RoomType roomType) {
+		return byRoomType.get(roomType);
+	}
+
+	/**
+	 * @return how many people are booked on the trip
+	 */
+	public int getTotalOccupancy() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "\nTrip ID: " + tripID + "\nTotal occupancy: " + total + "\n";
+	}
+}
@@ -0,0 +1,221 @@
+package inc.vareli.crusman.databases;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how long each CMConnection operation takes, how many statements it
+ * runs and how many rows it reads, so slow paths can be found while the
+ * program is running.
+ * The operation running on a thread is remembered, so the StatementCache and
+ * the code reading result sets can count against it without being handed
+ * anything.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+	private static final Logger LOG =
+					Logger.getLogger(OperationMetrics.class.getName());
+	private static final ThreadLocal<Recorder> current =
+												new ThreadLocal<Recorder>();
+	private static final AtomicInteger registered = new AtomicInteger();
+
+	private final ConcurrentMap<String,Recorder> operations;
+	private ObjectName name;
+	private ScheduledExecutorService logger;
+
+	OperationMetrics() {
+		this.operations = new ConcurrentHashMap<String,Recorder>();
+	}
+
+	/**
+	 * Runs and records one call of an operation. Calls to other operations
+	 * inside it are recorded separately, and their statements and rows only
+	 * count towards the inner one.
+	 * @param operation - the name of the operation, usually the method name
+	 * @param call - the work to do
+	 * @return whatever call returns
+	 */
+	<T> T record(String operation, Supplier<T> call) {
+		Recorder recorder = operations.computeIfAbsent(operation,
+												key -> new Recorder());
+		Recorder outer = current.get();
+		current.set(recorder);
+		long started = System.nanoTime();
+		boolean failed = true;
+		try {
+			T result = call.get();
+			failed = false;
+			return result;
+		} finally {
+			recorder.latency.record((System.nanoTime() - started) / 1000);
+			recorder.count.incrementAndGet();
+			if (failed) {
+				recorder.errors.incrementAndGet();
+			}
+			current.set(outer);
+		}
+	}
+
+	/**
+	 * Counts a statement against the operation running on this thread, if
+	 * there is one.
+	 */
+	static void statementRun() {
+		Recorder recorder = current.get();
+		if (recorder != null) {
+			recorder.statements.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts rows read against the operation running on this thread, if
+	 * there is one.
+	 */
+	static void rowsRead(int rows) {
+		Recorder recorder = current.get();
+		if (recorder != null) {
+			recorder.rowsRead.addAndGet(rows);
+		}
+	}
+
+	@Override
+	public OperationStats[] getOperations() {
+		Map<String,Recorder> sorted = new TreeMap<String,Recorder>(operations);
+		OperationStats[] stats = new OperationStats[sorted.size()];
+		int i = 0;
+		for(Map.Entry<String,Recorder> entry : sorted.entrySet()) {
+			stats[i++] = entry.getValue().snapshot(entry.getKey());
+		}
+		return stats;
+	}
+
+	/**
+	 * @param operation - the name of the operation
+	 * @return how it has been doing, or null if it has not been called
+	 */
+	public OperationStats getOperation(String operation) {
+		Recorder recorder = operations.get(operation);
+		return (recorder == null) ? null : recorder.snapshot(operation);
+	}
+
+	@Override
+	public void reset() {
+		operations.clear();
+	}
+
+	/**
+	 * Shows these metrics in JMX, under a name made from the url without its
+	 * login or parameters, as any JMX client can read the name.
+	 * @param url - the database the connection is for
+	 */
+	synchronized void register(String url) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("inc.vareli.crusman:type=CMConnection,id=" +
+					registered.incrementAndGet() + ",url=" + 
+					ObjectName.quote(withoutCredentials(url)));
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			name = null;
+			LOG.warning("Could not register CMConnection metrics: " + 
+														e.getMessage());
+		}
+	}
+
+	/**
+	 * @param url - a JDBC url
+	 * @return the url without the user and password before the host, or any
+	 * parameters after the database, like ?user= or ;PASSWORD=
+	 */
+	static String withoutCredentials(String url) {
+		int parameters = url.length();
+		for(char separator : new char[] {'?', ';', '&'}) {
+			int at = url.indexOf(separator);
+			if (at >= 0 && at < parameters) {
+				parameters = at;
+			}
+		}
+		String plain = url.substring(0, parameters);
+		int host = plain.indexOf("//");
+		int login = plain.lastIndexOf('@');
+		if (host >= 0 && login > host) {
+			plain = plain.substring(0, host + 2) + plain.substring(login + 1);
+		}
+		return plain;
+	}
+
+	/**
+	 * @return the name these metrics are registered under in JMX, or null
+	 */
+	public synchronized ObjectName getObjectName() {
+		return name;
+	}
+
+	/**
+	 * Writes every operation's stats to the log at a fixed rate, for servers
+	 * where nobody is watching JMX.
+	 * @param periodSeconds - how often to write them
+	 */
+	public synchronized void logEvery(long periodSeconds) {
+		if (logger != null) {
+			logger.shutdown();
+		}
+		logger = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "cmconnection-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		logger.scheduleAtFixedRate(() -> {
+			for(OperationStats stats : getOperations()) {
+				LOG.info(stats.toString());
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops logging and removes these metrics from JMX.
+	 */
+	synchronized void close() {
+		if (logger != null) {
+			logger.shutdown();
+			logger = null;
+		}
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				//already gone
+			}
+			name = null;
+		}
+	}
+
+	private static class Recorder {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong statements = new AtomicLong();
+		private final AtomicLong rowsRead = new AtomicLong();
+
+		private OperationStats snapshot(String name) {
+			return new OperationStats(name, count.get(), errors.get(),
+					statements.get(), rowsRead.get(),
+					latency.percentile(0.5) / 1000.0,
+					latency.percentile(0.99) / 1000.0,
+					latency.getMax() / 1000.0);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package inc.vareli.crusman.databases;
+
+/**
+ * What a CMConnection shows in JMX tools like JConsole, under
+ * inc.vareli.crusman:type=CMConnection.
+ */
+public interface OperationMetricsMXBean {
+	/**
+	 * @return the latency, statement, row and error counts of every operation
+	 * that has been called
+	 */
+	OperationStats[] getOperations();
+
+	/**
+	 * Starts counting from zero again.
+	 */
+	void reset();
+}
@@ -0,0 +1,92 @@
+package inc.vareli.crusman.databases;
+
+/**
+ * A snapshot of how one CMConnection operation, like bookTrip, has been
+ * doing. Shown as a row of the Operations attribute in JMX.
+ */
+public class OperationStats {
+	private final String name;
+	private final long count;
+	private final long errors;
+	private final long statements;
+	private final long rowsRead;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	OperationStats(String name, long count, long errors, long statements,
+					long rowsRead, double p50Millis, double p99Millis,
+					double maxMillis) {
+		this.name = name;
+		this.count = count;
+		this.errors = errors;
+		this.statements = statements;
+		this.rowsRead = rowsRead;
+		this.p50Millis = p50Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * @return the name of the CMConnection method
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return how many times it was called
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return how many of those calls threw an exception
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return how many SQL statements it ran in total
+	 */
+	public long getStatements() {
+		return statements;
+	}
+
+	/**
+	 * @return how many rows it read from the database in total
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	/**
+	 * @return the median latency, in milliseconds
+	 */
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	/**
+	 * @return the latency 99% of calls were faster than, in milliseconds
+	 */
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	/**
+	 * @return the slowest call, in milliseconds
+	 */
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d calls, %d errors, %d statements, " + 
+				"%d rows read, p50 %.2fms, p99 %.2fms, max %.2fms", name, count,
+				errors, statements, rowsRead, p50Millis, p99Millis, maxMillis);
+	}
+}
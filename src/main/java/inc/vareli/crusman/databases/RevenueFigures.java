@@ -0,0 +1,78 @@
+package inc.vareli.crusman.databases;
+
+/**
+ * The figures of a group of trips added together: one line of the per ship,
+ * per month or per room type tables of a RevenueReport.
+ */
+public class RevenueFigures {
+	private int trips;
+	private long passengers;
+	private long capacity;
+	private double revenue;
+
+	RevenueFigures() {
+	}
+
+	void add(long passengers, long capacity, double revenue) {
+		this.trips++;
+		this.passengers += passengers;
+		this.capacity += capacity;
+		this.revenue += revenue;
+	}
+
+	void add(RevenueFigures other) {
+		this.trips += other.trips;
+		this.passengers += other.passengers;
+		this.capacity += other.capacity;
+		this.revenue += other.revenue;
+	}
+
+	/**
+	 * @return how many trips are in the group
+	 */
+	public int getTrips() {
+		return trips;
+	}
+
+	/**
+	 * @return how many people booked the trips
+	 */
+	public long getPassengers() {
+		return passengers;
+	}
+
+	/**
+	 * @return how many people could have booked the trips
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return what the bookings paid
+	 */
+	public double getRevenue() {
+		return revenue;
+	}
+
+	/**
+	 * @return the share of the places that are booked, from 0 to 1
+	 */
+	public double getLoadFactor() {
+		return (capacity == 0) ? 0 : (double) passengers / capacity;
+	}
+
+	/**
+	 * @return the revenue per place that could have been sold
+	 */
+	public double getYield() {
+		return (capacity == 0) ? 0 : revenue / capacity;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d trips, %d/%d booked (%.1f%%), " +
+					"revenue %.2f, yield %.2f", trips, passengers, capacity,
+					getLoadFactor() * 100, revenue, getYield());
+	}
+}
@@ -0,0 +1,141 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.time.YearMonth;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Revenue, load factor and yield of a set of trips, per trip, per ship, per
+ * month of departure and per type of room, and for all of them together.
+ *
+ * Load factor is the share of the places that are booked and yield is the
+ * revenue per place that could have been sold. The room type table only
+ * counts what was paid for rooms, as packages are bought per ticket and not
+ * per room; every other table counts packages as well. Trips without ports
+ * have no month and are left out of the month table.
+ */
+public class RevenueReport {
+	private static final RoomType[] ROOM_TYPES = RoomType.values();
+
+	private final List<TripFigures> trips;
+	private final Map<Long,RevenueFigures> byShip;
+	private final Map<YearMonth,RevenueFigures> byMonth;
+	private final Map<RoomType,RevenueFigures> byRoomType;
+	private final RevenueFigures total;
+
+	private RevenueReport(List<TripFigures> trips, Totals totals) {
+		this.trips = Collections.unmodifiableList(trips);
+		this.byShip = Collections.unmodifiableMap(
+				new TreeMap<Long,RevenueFigures>(totals.byShip));
+		this.byMonth = Collections.unmodifiableMap(
+				new TreeMap<YearMonth,RevenueFigures>(totals.byMonth));
+		this.byRoomType = Collections.unmodifiableMap(totals.byRoomType);
+		this.total = totals.total;
+	}
+
+	/**
+	 * Adds the trips up on a pool's threads. The list is split between them
+	 * by a parallel stream, each part is added up into its own tables and the
+	 * tables are merged at the end, so no table is ever shared between
+	 * threads.
+	 * @param trips - the figures of each trip
+	 * @param workers - the pool that adds them up
+	 */
+	static RevenueReport aggregate(List<TripFigures> trips,
+									ForkJoinPool workers) {
+		Totals totals = workers.submit(() -> trips.parallelStream()
+					.collect(Totals::new, Totals::add, Totals::merge)).join();
+		return new RevenueReport(trips, totals);
+	}
+
+	/**
+	 * @return the figures of each trip, in order of trip ID
+	 */
+	public List<TripFigures> getTrips() {
+		return trips;
+	}
+
+	/**
+	 * @return the figures of each ship's trips, by ship ID
+	 */
+	public Map<Long,RevenueFigures> getByShip() {
+		return byShip;
+	}
+
+	/**
+	 * @return the figures of the trips leaving in each month, in order
+	 */
+	public Map<YearMonth,RevenueFigures> getByMonth() {
+		return byMonth;
+	}
+
+	/**
+	 * @return the figures of each type of room over every trip, counting
+	 * only what was paid for rooms
+	 */
+	public Map<RoomType,RevenueFigures> getByRoomType() {
+		return byRoomType;
+	}
+
+	/**
+	 * @return the figures of every trip together
+	 */
+	public RevenueFigures getTotal() {
+		return total;
+	}
+
+	/**
+	 * The tables of the report while they are being added up by one thread.
+	 */
+	private static class Totals {
+		private final Map<Long,RevenueFigures> byShip =
+								new HashMap<Long,RevenueFigures>();
+		private final Map<YearMonth,RevenueFigures> byMonth =
+								new HashMap<YearMonth,RevenueFigures>();
+		private final Map<RoomType,RevenueFigures> byRoomType =
+								new EnumMap<RoomType,RevenueFigures>(RoomType.class);
+		private final RevenueFigures total = new RevenueFigures();
+
+		Totals() {
+			for(RoomType type : ROOM_TYPES) {
+				byRoomType.put(type, new RevenueFigures());
+			}
+		}
+
+		void add(TripFigures trip) {
+			int passengers = trip.getPassengers();
+			int capacity = trip.getCapacity();
+			double revenue = trip.getRevenue();
+			total.add(passengers, capacity, revenue);
+			byShip.computeIfAbsent(trip.getShipID(), id -> new RevenueFigures())
+								.add(passengers, capacity, revenue);
+			if (trip.getMonth() != null) {
+				byMonth.computeIfAbsent(trip.getMonth(),
+										month -> new RevenueFigures())
+								.add(passengers, capacity, revenue);
+			}
+			for(RoomType type : ROOM_TYPES) {
+				byRoomType.get(type).add(trip.getPassengers(type),
+							trip.getCapacity(type), trip.getRevenue(type));
+			}
+		}
+
+		void merge(Totals other) {
+			total.add(other.total);
+			other.byShip.forEach((id, figures) -> byShip.computeIfAbsent(id,
+								key -> new RevenueFigures()).add(figures));
+			other.byMonth.forEach((month, figures) -> byMonth.computeIfAbsent(
+								month, key -> new RevenueFigures()).add(figures));
+			for(RoomType type : ROOM_TYPES) {
+				byRoomType.get(type).add(other.byRoomType.get(type));
+			}
+		}
+	}
+}
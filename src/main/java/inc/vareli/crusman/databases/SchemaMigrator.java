@@ -0,0 +1,403 @@
+package inc.vareli.crusman.databases;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Brings the database schema up to date. Every change to the schema is a
+ * numbered migration, and the SchemaVersion table records which ones have
+ * been applied, so each one runs exactly once per database.
+ * To change the schema, add a migration to the end of MIGRATIONS. Never edit
+ * one that has already been released, since databases that already have it
+ * will not run it again.
+ */
+class SchemaMigrator {
+	/**
+	 * Creates the table that records which migrations have been applied
+	 */
+	static final String TABLE_CREATOR = "Create table SchemaVersion (" +
+					"version int not null primary key, " +
+					"description varchar(200) not null, " +
+					"appliedOn timestamp not null)";
+
+	/**
+	 * Every migration, in the order they are applied
+	 */
+	static final List<Migration> MIGRATIONS = Arrays.asList(
+		new Migration(1, "Create the CrusMan tables",
+									SchemaMigrator::createMissingTables),
+		new Migration(2, "Index the columns trips are looked up by",
+			createIndex("PortByTrip", "Port",
+						"tripID, departureDate, portName, arrivalDate"),
+			createIndex("RoomInfoByTrip", "RoomInfo",
+						"tripID, roomType, fees, occupancy"),
+			createIndex("TicketByTrip", "Ticket", "tripID, roomNumber"),
+			createIndex("TicketByCustomer", "Ticket", "customerName")));
+
+	/**
+	 * The version a database is at once every migration has been applied
+	 */
+	static final int LATEST_VERSION =
+						MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+
+	/**
+	 * The version of the SchemaVersion row a terminal holds while it migrates
+	 */
+	private static final int LOCK_VERSION = -1;
+	/**
+	 * How long to wait for another terminal to finish migrating
+	 */
+	private static final long LOCK_WAIT_MILLIS = 60 * 1000;
+	private static final long LOCK_POLL_MILLIS = 200;
+	/**
+	 * How old a lock has to be before it is taken to be left by a terminal
+	 * that stopped while migrating
+	 */
+	private static final long STALE_LOCK_MILLIS = 10 * 60 * 1000;
+
+	/**
+	 * The databases this program has already brought up to date
+	 */
+	private static final Set<String> upToDate = ConcurrentHashMap.newKeySet();
+
+	private SchemaMigrator() {
+	}
+
+	/**
+	 * Applies every migration the database does not have yet. Only one
+	 * terminal migrates a database at a time: the others wait for it to
+	 * finish, then carry on from the version it left the database at.
+	 * @param connector - the connection to migrate through, in autocommit mode
+	 * @return the version the database is at afterwards
+	 * @throws SQLException if a migration could not be applied
+	 */
+	static int migrate(Connection connector) throws SQLException {
+		int version = probeVersion(connector);
+		if (version < 0) {
+			try(Statement stmt = connector.createStatement()) {
+				stmt.executeUpdate(TABLE_CREATOR);
+			} catch (SQLException e) {
+				if (probeVersion(connector) < 0) {
+					throw e;
+				}
+			}
+			version = currentVersion(connector);
+		}
+		if (version >= LATEST_VERSION) {
+			return version;
+		}
+		lock(connector);
+		try {
+			version = currentVersion(connector);
+			for(Migration migration : MIGRATIONS) {
+				if (migration.version > version) {
+					apply(connector, migration);
+					version = migration.version;
+				}
+			}
+		} finally {
+			unlock(connector);
+		}
+		return version;
+	}
+
+	/**
+	 * Takes the lock row out in SchemaVersion, waiting while another
+	 * terminal holds it. The row is committed by itself, so it is still held
+	 * after MySQL commits the create statements of a migration.
+	 * @throws SQLException if the other terminal does not finish in time
+	 */
+	private static void lock(Connection connector) throws SQLException {
+		long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+		while(true) {
+			try(PreparedStatement insert = connector.prepareStatement(
+					"insert into SchemaVersion values (?,?,?)")) {
+				insert.setInt(1, LOCK_VERSION);
+				insert.setString(2, "Migrating");
+				insert.setTimestamp(3,
+						new java.sql.Timestamp(System.currentTimeMillis()));
+				insert.executeUpdate();
+				return;
+			} catch (SQLException e) {
+				java.sql.Timestamp taken = lockTakenOn(connector);
+				long now = System.currentTimeMillis();
+				if (taken == null) {
+					//let go of in the meantime, or the insert failed by itself
+					if (now > deadline) {
+						throw e;
+					}
+				} else if (now - taken.getTime() > STALE_LOCK_MILLIS) {
+					try(PreparedStatement delete = connector.prepareStatement(
+							"delete from SchemaVersion " +
+							"where version = ? and appliedOn = ?")) {
+						delete.setInt(1, LOCK_VERSION);
+						delete.setTimestamp(2, taken);
+						delete.executeUpdate();
+					}
+				} else if (now > deadline) {
+					throw new SQLException("The schema is being migrated by " +
+							"another terminal, try again later",
+							e.getSQLState(), e);
+				}
+			}
+			try {
+				Thread.sleep(LOCK_POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting to migrate");
+			}
+		}
+	}
+
+	/**
+	 * @return when the lock row was taken out, or null if nobody holds it
+	 */
+	private static java.sql.Timestamp lockTakenOn(Connection connector)
+											throws SQLException {
+		try(PreparedStatement select = connector.prepareStatement(
+				"select appliedOn from SchemaVersion where version = ?")) {
+			select.setInt(1, LOCK_VERSION);
+			try(ResultSet lockSet = select.executeQuery()) {
+				return lockSet.next() ? lockSet.getTimestamp("appliedOn") : null;
+			}
+		}
+	}
+
+	private static void unlock(Connection connector) throws SQLException {
+		try(PreparedStatement delete = connector.prepareStatement(
+				"delete from SchemaVersion where version = ?")) {
+			delete.setInt(1, LOCK_VERSION);
+			delete.executeUpdate();
+		}
+	}
+
+	/**
+	 * Makes sure a database is at LATEST_VERSION, skipping the check if it has
+	 * already been seen up to date by this program. An up to date database
+	 * costs one query the first time, and none after that.
+	 * @param key - identifies the database, like its url, or null to always
+	 * check
+	 * @param connector - the connection to migrate through, in autocommit mode
+	 * @throws SQLException if a migration could not be applied
+	 */
+	static void ensureLatest(String key, Connection connector)
+										throws SQLException {
+		if (key != null && upToDate.contains(key)) {
+			return;
+		}
+		migrate(connector);
+		if (key != null) {
+			upToDate.add(key);
+		}
+	}
+
+	/**
+	 * Reads the version with the same query whether or not the SchemaVersion
+	 * table exists, rather than asking the metadata about it first.
+	 * @return the version, or -1 if there is no SchemaVersion table
+	 */
+	private static int probeVersion(Connection connector) {
+		try {
+			return currentVersion(connector);
+		} catch (SQLException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the highest migration applied to the database, or 0 if none
+	 * have been
+	 */
+	static int currentVersion(Connection connector) throws SQLException {
+		try(Statement stmt = connector.createStatement();
+				ResultSet versionSet = stmt.executeQuery(
+						"select MAX(version) as version from SchemaVersion " +
+						"where version > 0")) {
+			return versionSet.next() ? versionSet.getInt("version") : 0;
+		}
+	}
+
+	/**
+	 * Runs one migration and records it in the same transaction. MySQL commits
+	 * after every create or alter statement though, so a migration there
+	 * should only do one thing that can fail, or be safe to run again.
+	 */
+	private static void apply(Connection connector, Migration migration)
+											throws SQLException {
+		boolean committed = false;
+		SQLException failure = null;
+		connector.setAutoCommit(false);
+		try {
+			migration.step.apply(connector);
+			try(PreparedStatement record = connector.prepareStatement(
+					"insert into SchemaVersion values (?,?,?)")) {
+				record.setInt(1, migration.version);
+				record.setString(2, migration.description);
+				record.setTimestamp(3,
+						new java.sql.Timestamp(System.currentTimeMillis()));
+				record.executeUpdate();
+			}
+			connector.commit();
+			committed = true;
+		} catch (SQLException e) {
+			failure = e;
+		} finally {
+			if (!committed) {
+				connector.rollback();
+			}
+			connector.setAutoCommit(true);
+		}
+		if (failure != null && currentVersion(connector) < migration.version) {
+			throw new SQLException("Migration " + migration.version + " (" +
+					migration.description + ") failed: " + failure.getMessage(),
+					failure.getSQLState(), failure);
+		}
+	}
+
+	/**
+	 * Lists every table with one metadata lookup, instead of one per table.
+	 * @return the lower case names of the tables in the database
+	 */
+	private static Set<String> existingTables(Connection connector)
+											throws SQLException {
+		Set<String> names = new HashSet<String>();
+		DatabaseMetaData dbm = connector.getMetaData();
+		try(ResultSet tables = dbm.getTables(connector.getCatalog(), null, "%",
+											new String[] {"TABLE"})) {
+			while(tables.next()) {
+				names.add(tables.getString("TABLE_NAME").toLowerCase());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * The schema CrusMan started with. Tables that are already there are
+	 * left alone, so databases from before there were migrations are picked
+	 * up as they are.
+	 */
+	private static void createMissingTables(Connection connector)
+											throws SQLException {
+		String shipCreator = "Create table CruiseShip (" +
+						"shipID int unsigned not null primary key, " +
+						"interiorRooms int unsigned not null, " +
+						"outsideRooms int unsigned not null, " +
+						"balconyRooms int unsigned not null, " +
+						"suites int unsigned not null)";
+		String tripCreator = "Create table Trip (" +
+						"tripID int unsigned not null primary key, " +
+						"shipID int unsigned not null, " +
+						"drinkFees float not null, " +
+						"mealFees float not null, " +
+						"foreign key(shipID) references CruiseShip(shipID))";
+		String portCreator = "Create table Port (" +
+						"portName varchar(100) not null, " +
+						"tripID int unsigned not null, " +
+						"arrivalDate date, departureDate date, " +
+						"primary key(portName, tripID), " +
+						"foreign key(tripID) references Trip(tripID))";
+		String ticketCreator = "Create table Ticket (" +
+						"ticketID int unsigned not null primary key, " +
+						"tripID int unsigned not null, " +
+						"customerName varchar(255) not null, " +
+						"mealPackageFlag int unsigned not null, " +
+						"drinkPackageFlag int unsigned not null, " +
+						"roomNumber int unsigned not null, " +
+						"foreign key(tripID) references Trip(tripID))";
+		String roomCreator = "Create table RoomInfo (" +
+						"roomType varchar(100) not null, " +
+						"tripID int unsigned not null, " +
+						"fees double not null, " +
+						"occupancy int unsigned not null, " +
+						"primary key(roomType, tripID), " +
+						"foreign key(tripID) references Trip(tripID))";
+		String[] createStatements = {shipCreator, tripCreator,
+									portCreator, ticketCreator, roomCreator,
+									IdAllocator.TABLE_CREATOR};
+		String[] tableNames = {"CruiseShip", "Trip",
+									"Port", "Ticket", "RoomInfo", "IdSequence"};
+		Set<String> existing = existingTables(connector);
+		try(Statement stmt = connector.createStatement()) {
+			for(int i = 0; i < createStatements.length; i++) {
+				if(!existing.contains(tableNames[i].toLowerCase())) {
+					stmt.executeUpdate(createStatements[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an index unless the table already has one by that name, so a
+	 * migration that stopped part of the way through can be run again.
+	 * @param columns - the indexed columns, separated by commas
+	 */
+	static Step createIndex(String name, String table, String columns) {
+		return connector -> {
+			DatabaseMetaData dbm = connector.getMetaData();
+			try(ResultSet indexes = dbm.getIndexInfo(connector.getCatalog(),
+										null, table, false, false)) {
+				while(indexes.next()) {
+					if (name.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+						return;
+					}
+				}
+			}
+			try(Statement stmt = connector.createStatement()) {
+				stmt.executeUpdate("create index " + name + " on " + table +
+									" (" + columns + ")");
+			}
+		};
+	}
+
+	/**
+	 * Makes a change to the schema of a database.
+	 */
+	interface Step {
+		void apply(Connection connector) throws SQLException;
+	}
+
+	/**
+	 * One numbered change to the schema.
+	 */
+	static class Migration {
+		final int version;
+		final String description;
+		private final Step step;
+
+		/**
+		 * A migration that takes the given steps in order.
+		 */
+		Migration(int version, String description, Step... steps) {
+			this.version = version;
+			this.description = description;
+			this.step = connector -> {
+				for(Step each : steps) {
+					each.apply(connector);
+				}
+			};
+		}
+
+		/**
+		 * A migration that runs the given statements in order.
+		 */
+		Migration(int version, String description, String... statements) {
+			this(version, description, connector -> {
+				try(Statement stmt = connector.createStatement()) {
+					for(String statement : statements) {
+						stmt.executeUpdate(statement);
+					}
+				}
+			});
+		}
+	}
+}
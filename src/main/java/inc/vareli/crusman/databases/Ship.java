@@ -1,12 +1,32 @@
 package inc.vareli.crusman.databases;
 
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.Iterator;
 
 public class Ship {
 
 	protected final long ID;
-	protected Room[] rooms;
+
+	/**
+	 * How many people are in each room. Kept as bytes rather than an object per
+	 * room, since every Trip has its own Ship and there can be thousands of
+	 * trips loaded with thousands of rooms each.
+	 */
+	private final byte[] counts;
+
+	/*
+	 * The rooms of each type sit next to each other in counts, so every type
+	 * is described by a range, indexed by RoomType.ordinal(). Rooms only ever
+	 * gain people and are filled from the front of their range, so every room
+	 * before firstFree holds at least freeIndexMax people and addPerson never
+	 * has to look at them again while the maximum stays the same.
+	 */
+	private final int[] typeStart;
+	private final int[] typeEnd;
+	private final int[] firstFree;
+	private final int[] occupancy;
+	private final int[] emptyRooms;
+	private final int[] freeIndexMax;
 
 	/**
 	 * A constructor. Creates a Ship with the specified ID and room counts
@@ -18,19 +38,58 @@ public class Ship {
 	 */
 	protected Ship(long ID, Map<RoomType,Integer> roomCounts) {
 		int size = roomCounts.values().stream().mapToInt(t->t).sum();
+		int types = RoomType.values().length;
 		this.ID = ID;
-		this.rooms = new Room[size];
+		this.counts = new byte[size];
+		this.typeStart = new int[types];
+		this.typeEnd = new int[types];
+		this.firstFree = new int[types];
+		this.occupancy = new int[types];
+		this.emptyRooms = new int[types];
+		this.freeIndexMax = new int[types];
 
-		Iterator<RoomType> iter = roomCounts.keySet().iterator();
 		int prev = 0;
-		do {
-			RoomType currentType = iter.next();
-			int i;
-			for (i = prev; i <  prev + roomCounts.get(currentType); i++) {
-				rooms[i] = new Room(currentType);
-			}
+		for (Map.Entry<RoomType,Integer> entry : roomCounts.entrySet()) {
+			RoomType currentType = entry.getKey();
+			int i = prev + entry.getValue();
+			typeStart[currentType.ordinal()] = prev;
+			typeEnd[currentType.ordinal()] = i;
+			firstFree[currentType.ordinal()] = prev;
+			emptyRooms[currentType.ordinal()] = i - prev;
 			prev = i;
-		} while (iter.hasNext());
+		}
+	}
+
+	private Ship(Ship other) {
+		this.ID = other.ID;
+		this.counts = other.counts.clone();
+		this.typeStart = other.typeStart;
+		this.typeEnd = other.typeEnd;
+		this.firstFree = other.firstFree.clone();
+		this.occupancy = other.occupancy.clone();
+		this.emptyRooms = other.emptyRooms.clone();
+		this.freeIndexMax = other.freeIndexMax.clone();
+	}
+
+	/**
+	 * @return a Ship with the same ID and rooms as this one, and the same
+	 * people in them, that can be booked without changing this one
+	 */
+	synchronized Ship copy() {
+		return new Ship(this);
+	}
+
+	/**
+	 * @return a Ship with the same ID and rooms as this one, with nobody in
+	 * any of the rooms
+	 */
+	Ship emptyCopy() {
+		Map<RoomType,Integer> roomCounts = 
+							new EnumMap<RoomType,Integer>(RoomType.class);
+		for (RoomType type : RoomType.values()) {
+			roomCounts.put(type, getRoomCount(type));
+		}
+		return new Ship(ID, roomCounts);
 	}
 
 	/**
@@ -40,14 +99,150 @@ public class Ship {
 	 * @param maxOccupancy - the maximum people we can have in a room
 	 * @return if this operation succeeded or not
 	 */
-	public int addPerson(RoomType roomType, int maxOccupancy) {
-		for (int i = 0; i < rooms.length; i++) {
-			if (rooms[i] != null && rooms[i].type == roomType && rooms[i].count < maxOccupancy) {
-				rooms[i].count++;
-				return (roomType.ordinal()*100)+i;
+	public synchronized int addPerson(RoomType roomType, int maxOccupancy) {
+		int i = findFree(roomType, maxOccupancy);
+		if (i < 0) {
+			return -1;
+		}
+		fill(roomType, i);
+		return (roomType.ordinal()*100)+i;
+	}
+
+	/**
+	 * Finds the first room of a type that still has space, moving past rooms
+	 * that have filled up since the last call.
+	 * @return the index of the room, or -1 if they are all full
+	 */
+	private int findFree(RoomType roomType, int maxOccupancy) {
+		int type = roomType.ordinal();
+		if (maxOccupancy > freeIndexMax[type]) {
+			//full rooms may have space again, so start over
+			firstFree[type] = typeStart[type];
+		}
+		freeIndexMax[type] = maxOccupancy;
+		int i = firstFree[type];
+		while (i < typeEnd[type] && counts[i] >= maxOccupancy) {
+			i++;
+		}
+		firstFree[type] = i;
+		return (i < typeEnd[type]) ? i : -1;
+	}
+
+	private void fill(RoomType roomType, int i) {
+		if (counts[i] == Byte.MAX_VALUE) {
+			throw new IllegalStateException("Room " + i + " is already full");
+		}
+		if (counts[i] == 0) {
+			emptyRooms[roomType.ordinal()]--;
+		}
+		counts[i]++;
+		occupancy[roomType.ordinal()]++;
+	}
+
+	/**
+	 * Works out which room the given place in a room type belongs to, when the
+	 * rooms of that type are filled in order like addPerson does.
+	 * @param roomType - the type of room
+	 * @param place - counting from 0, which place in that room type it is
+	 * @param maxOccupancy - the maximum people we can have in a room
+	 * @return the room number of that place, numbered the same as addPerson
+	 */
+	public int roomNumberFor(RoomType roomType, int place, int maxOccupancy) {
+		int i = typeStart[roomType.ordinal()] + place / maxOccupancy;
+		if (place < 0 || i >= typeEnd[roomType.ordinal()]) {
+			throw new IllegalArgumentException("There are not " + (place + 1) + 
+					" places in " + roomType + " rooms");
+		}
+		return (roomType.ordinal()*100)+i;
+	}
+
+	/**
+	 * Records one more person in a specific room, for bookings whose room
+	 * number was decided elsewhere.
+	 * @param roomType - the type of the room
+	 * @param roomNumber - the room number, as returned by addPerson
+	 */
+	public synchronized void addPersonTo(RoomType roomType, int roomNumber) {
+		int i = roomNumber - (roomType.ordinal()*100);
+		if (i >= typeStart[roomType.ordinal()] && i < typeEnd[roomType.ordinal()]) {
+			fill(roomType, i);
+		}
+	}
+
+	/**
+	 * Works out the type of a room from its number, for bookings read back
+	 * from the database, which only keep the room number.
+	 * @param roomNumber - the room number, as returned by addPerson
+	 * @return the type of the room
+	 * @throws IllegalArgumentException if there is no such room on this Ship
+	 */
+	public RoomType getRoomType(int roomNumber) {
+		RoomType type = typeOf(roomNumber);
+		if (type == null) {
+			throw new IllegalArgumentException("There is no room " + roomNumber);
+		}
+		return type;
+	}
+
+	/**
+	 * @return the type of the room, or null if there is no such room
+	 */
+	RoomType typeOf(int roomNumber) {
+		for (RoomType type : RoomType.values()) {
+			int i = roomNumber - (type.ordinal()*100);
+			if (i >= typeStart[type.ordinal()] && i < typeEnd[type.ordinal()]) {
+				return type;
 			}
 		}
-		return -1;
+		return null;
+	}
+
+	/**
+	 * Puts the people booked into a room back, when a trip is read from the
+	 * database or brought up to date with it. Rooms that are not on this Ship
+	 * are ignored like addPersonTo.
+	 * @param roomNumber - the room number, as returned by addPerson
+	 * @param people - how many people are booked into the room
+	 * @return how many people were added, 0 if the room already had that many
+	 */
+	synchronized int fillRoomTo(int roomNumber, int people) {
+		RoomType type = typeOf(roomNumber);
+		if (type == null) {
+			return 0;
+		}
+		int i = roomNumber - (type.ordinal()*100);
+		int added = 0;
+		while (counts[i] < people) {
+			fill(type, i);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * @param roomType - the type of room to count
+	 * @return how many rooms of roomType are on this Ship
+	 */
+	public int getRoomCount(RoomType roomType) {
+		return typeEnd[roomType.ordinal()] - typeStart[roomType.ordinal()];
+	}
+
+	/**
+	 * @param roomType - the type of room to count
+	 * @return how many rooms of roomType have nobody in them yet
+	 */
+	public synchronized int getEmptyRoomCount(RoomType roomType) {
+		return emptyRooms[roomType.ordinal()];
+	}
+
+	/**
+	 * Checks if addPerson would succeed, without adding anybody
+	 * @param roomType - the type of room that we want
+	 * @param maxOccupancy - the maximum people we can have in a room
+	 * @return if there is a room of that type with space in it
+	 */
+	public synchronized boolean hasSpace(RoomType roomType, int maxOccupancy) {
+		return findFree(roomType, maxOccupancy) >= 0;
 	}
 
 	/**
@@ -56,41 +251,19 @@ public class Ship {
 	 * @param roomType - the type of the room we want to find the total occupancy of
 	 * @return the total occupancy of all rooms of type roomType
 	 */
-	public int getTotalOccupancy(RoomType roomType) {
-		int sum = 0;
-		for (Room r : rooms) {
-			if (r.type == roomType) {
-				sum += r.count;
-			}
-		}
-		return sum;
+	public synchronized int getTotalOccupancy(RoomType roomType) {
+		return occupancy[roomType.ordinal()];
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		for (RoomType type : RoomType.values()) {
-			int typeCount = 0;
-			for (Room r : rooms) {
-				if (r.type == type) {
-					typeCount++;
-				}
-			}
-			builder.append(typeCount + " " + type + " rooms.\n");
+			builder.append(getRoomCount(type) + " " + type + " rooms.\n");
 		}
 		return builder.toString();
 	}
 
-	private static class Room {
-		public RoomType type;
-		public int count;
-
-		public Room(RoomType type) {
-			this.type = type;
-			count = 0;
-		}
-	}
-
 	/**
 	 * An enum of the possible types of rooms. Rooms are a type of cost as well.
 	 */
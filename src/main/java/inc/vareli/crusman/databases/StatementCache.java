@@ -0,0 +1,99 @@
+package inc.vareli.crusman.databases;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Keeps the PreparedStatements of one connection open so each SQL string is
+ * only prepared once per connection. The least recently used statement is
+ * closed once there are more than maxSize of them.
+ * Statements handed out belong to the cache and must not be closed by the
+ * caller. With MySQL, adding useServerPrepStmts=true to the url makes the
+ * server keep the parsed statement as well.
+ * Not thread safe, since a pooled connection is only used by one thread at a
+ * time.
+ */
+class StatementCache implements AutoCloseable {
+	private final Connection connection;
+	private final Map<String,PreparedStatement> statements;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	/**
+	 * @param connection - the connection to prepare statements on
+	 * @param maxSize - how many statements to keep open at most
+	 * @param hits - counts statements that were already prepared
+	 * @param misses - counts statements that had to be prepared
+	 */
+	StatementCache(Connection connection, int maxSize, AtomicLong hits,
+					AtomicLong misses) {
+		this.connection = connection;
+		this.hits = hits;
+		this.misses = misses;
+		this.statements = new LinkedHashMap<String,PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+								Map.Entry<String,PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets a prepared statement for the sql, preparing it if this connection
+	 * has not seen it yet. Any parameters or batch left over from the last use
+	 * are cleared. Each call counts as a statement run by the current
+	 * operation in OperationMetrics.
+	 * @param sql - the statement to prepare
+	 * @return a statement owned by this cache
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		OperationMetrics.statementRun();
+		PreparedStatement statement = statements.get(sql);
+		if (statement != null && !statement.isClosed()) {
+			hits.incrementAndGet();
+			statement.clearParameters();
+			statement.clearBatch();
+			return statement;
+		}
+		misses.incrementAndGet();
+		statement = connection.prepareStatement(sql);
+		statements.put(sql, statement);
+		return statement;
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			//the connection is probably gone anyways
+		}
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	@Override
+	public void close() {
+		Iterator<PreparedStatement> open = statements.values().iterator();
+		while(open.hasNext()) {
+			closeQuietly(open.next());
+			open.remove();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+/**
+ * A booking made with CMConnection.bookTicket.
+ */
+public class Ticket {
+	private final long ticketID;
+	private final long tripID;
+	private final RoomType roomType;
+	private final int roomNumber;
+	private final String customerName;
+	private final boolean mealPackage;
+	private final boolean drinkPackage;
+
+	Ticket(long ticketID, long tripID, RoomType roomType, int roomNumber,
+			String customerName, boolean mealPackage, boolean drinkPackage) {
+		this.ticketID = ticketID;
+		this.tripID = tripID;
+		this.roomType = roomType;
+		this.roomNumber = roomNumber;
+		this.customerName = customerName;
+		this.mealPackage = mealPackage;
+		this.drinkPackage = drinkPackage;
+	}
+
+	/**
+	 * @return the unique ID of the ticket
+	 */
+	public long getTicketID() {
+		return ticketID;
+	}
+
+	/**
+	 * @return the ID of the trip the ticket is for
+	 */
+	public long getTripID() {
+		return tripID;
+	}
+
+	/**
+	 * @return the type of room that was booked
+	 */
+	public RoomType getRoomType() {
+		return roomType;
+	}
+
+	/**
+	 * @return the room the customer is in
+	 */
+	public int getRoomNumber() {
+		return roomNumber;
+	}
+
+	/**
+	 * @return the name of the customer
+	 */
+	public String getCustomerName() {
+		return customerName;
+	}
+
+	/**
+	 * @return whether the meal package was selected
+	 */
+	public boolean hasMealPackage() {
+		return mealPackage;
+	}
+
+	/**
+	 * @return whether the drink package was selected
+	 */
+	public boolean hasDrinkPackage() {
+		return drinkPackage;
+	}
+
+	/**
+	 * @return the ticket as it is printed
+	 */
+	@Override
+	public String toString() {
+		return "Ticket ID: " + ticketID + "\nTrip ID: " + tripID +
+					"\nRoom Number: " + roomNumber +
+					"\nCustomer Name: " + customerName +
+					"\nMeal Package Selected: " + ((mealPackage) ? "Yes" : "No") +
+					"\nDrink Package Selected: " + ((drinkPackage) ? "Yes" : "No");
+	}
+}
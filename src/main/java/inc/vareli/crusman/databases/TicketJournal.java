@@ -0,0 +1,389 @@
+package inc.vareli.crusman.databases;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps a copy of every ticket printed at this terminal, so a ticket is never
+ * lost or overwritten and can be printed again by its ID.
+ * Tickets are appended to segment files that are made full size when they
+ * are created, so writing a ticket never changes the size of a file. Once a
+ * segment is full the next one is started. Each record is
+ *
+ *     length (int) | ticket ID (long) | CRC32 (int) | ticket (UTF-8)
+ *
+ * and the unused rest of a segment is zeros, which reads as a length of 0,
+ * so empty tickets are not allowed. Every segment is locked while a journal
+ * has it open, so two terminals can not share a directory.
+ * New segments are made full size and given their header under a temporary
+ * name, and only renamed into place once that is on disk, so a crash never
+ * leaves a segment without a header. A last segment that is nothing but
+ * zeros, as older versions could leave, is started again.
+ * When a journal is opened the segments are read through to rebuild the
+ * index of where each ticket is, stopping at the first record that is
+ * incomplete or fails its CRC, like one cut off by a crash.
+ * Appends only reach the operating system. Call sync to make sure they
+ * survive a power cut as well; one sync covers every append before it.
+ */
+public class TicketJournal implements AutoCloseable {
+	/**
+	 * How big segments are when no size is given
+	 */
+	public static final long DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+	private static final int MAGIC = 0x434d544a; //CMTJ
+	private static final int FILE_HEADER_BYTES = 8;
+	private static final int RECORD_HEADER_BYTES = 16;
+	private static final String PREFIX = "tickets-";
+	private static final String SUFFIX = ".journal";
+	private static final String TEMPORARY_SUFFIX = ".new";
+
+	private final Path directory;
+	private final long segmentBytes;
+	private final List<FileChannel> segments;
+	private final Map<Long,Long> index;
+	private long writePosition;
+	private boolean unsynced;
+
+	/**
+	 * Opens the journal in a directory, creating it if needed.
+	 * @param directory - where the segment files are kept
+	 * @throws IOException if the journal could not be read
+	 */
+	public TicketJournal(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_BYTES);
+	}
+
+	/**
+	 * @param directory - where the segment files are kept
+	 * @param segmentBytes - how big each segment file is
+	 * @throws IOException if the journal could not be read, or is open in
+	 * another journal
+	 */
+	public TicketJournal(Path directory, long segmentBytes) throws IOException {
+		if (segmentBytes <= FILE_HEADER_BYTES + RECORD_HEADER_BYTES) {
+			throw new IllegalArgumentException("Segments are too small");
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.segments = new ArrayList<FileChannel>();
+		this.index = new HashMap<Long,Long>();
+		Files.createDirectories(directory);
+		try {
+			List<Path> files = segmentFiles();
+			for(Path file : files) {
+				FileChannel segment = FileChannel.open(file,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				lock(segment, file);
+				segments.add(segment);
+				writePosition = recover(segment, segments.size() - 1,
+										segments.size() == files.size());
+			}
+			if (segments.isEmpty()) {
+				startSegment();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the segment files in the directory, oldest first
+	 */
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try(DirectoryStream<Path> listing = Files.newDirectoryStream(directory,
+												PREFIX + "*" + SUFFIX)) {
+			for(Path file : listing) {
+				files.add(file);
+			}
+		}
+		//the numbers are zero padded, so names sort by number
+		files.sort(null);
+		return files;
+	}
+
+	/**
+	 * Indexes the records of a segment.
+	 * @param last - whether it is the newest segment
+	 * @return the position after the last good record
+	 */
+	private long recover(FileChannel segment, int number, boolean last)
+											throws IOException {
+		long size = segment.size();
+		ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES);
+		segment.read(fileHeader, 0);
+		fileHeader.flip();
+		if (fileHeader.remaining() < FILE_HEADER_BYTES
+				|| fileHeader.getInt() != MAGIC) {
+			if (last && isAllZeros(segment)) {
+				//created but cut off before its header was written
+				writeHeader(segment);
+				segment.force(false);
+				return FILE_HEADER_BYTES;
+			}
+			throw new IOException("Not a ticket journal segment: " + number);
+		}
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		long position = FILE_HEADER_BYTES;
+		while(position + RECORD_HEADER_BYTES <= size) {
+			header.clear();
+			segment.read(header, position);
+			header.flip();
+			int length = header.getInt();
+			long ticketID = header.getLong();
+			int crc = header.getInt();
+			if (length <= 0 || position + RECORD_HEADER_BYTES + length > size) {
+				break;
+			}
+			ByteBuffer ticket = ByteBuffer.allocate(length);
+			segment.read(ticket, position + RECORD_HEADER_BYTES);
+			if (checksum(ticketID, ticket.array()) != crc) {
+				break;
+			}
+			index.put(ticketID, location(number, position));
+			position += RECORD_HEADER_BYTES + length;
+		}
+		return position;
+	}
+
+	/**
+	 * Makes sure a segment renamed into place is still there after a power
+	 * cut, where the platform can sync a directory.
+	 */
+	private void syncDirectory() {
+		try(FileChannel listing = FileChannel.open(directory,
+											StandardOpenOption.READ)) {
+			listing.force(true);
+		} catch (IOException e) {
+			//directories can not be opened or synced on every platform
+		}
+	}
+
+	private static boolean isAllZeros(FileChannel segment) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+		long position = 0;
+		while(true) {
+			chunk.clear();
+			int read = segment.read(chunk, position);
+			if (read < 0) {
+				return true;
+			}
+			for(int i = 0; i < read; i++) {
+				if (chunk.get(i) != 0) {
+					return false;
+				}
+			}
+			position += read;
+		}
+	}
+
+	private static void writeHeader(FileChannel segment) throws IOException {
+		ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES);
+		fileHeader.putInt(MAGIC).putInt(1).flip();
+		while(fileHeader.hasRemaining()) {
+			segment.write(fileHeader, fileHeader.position());
+		}
+	}
+
+	/**
+	 * Locks a whole segment until it is closed, or closes it if another
+	 * journal, in this program or another one, already has it locked.
+	 */
+	private static void lock(FileChannel segment, Path file)
+											throws IOException {
+		FileLock lock;
+		try {
+			lock = segment.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			segment.close();
+			throw new IOException(file + " is in use by another journal");
+		}
+	}
+
+	private void startSegment() throws IOException {
+		if (unsynced) {
+			//sync only looks at the newest segment
+			segments.get(segments.size() - 1).force(false);
+		}
+		Path file = directory.resolve(String.format("%s%06d%s", PREFIX,
+											segments.size(), SUFFIX));
+		//the temporary name does not match segmentFiles, so a file left by a
+		//crash is never read, and is written over by the next attempt
+		Path temporary = directory.resolve(file.getFileName() +
+											TEMPORARY_SUFFIX);
+		try(RandomAccessFile preallocate = new RandomAccessFile(
+												temporary.toFile(), "rw")) {
+			preallocate.setLength(segmentBytes);
+			writeHeader(preallocate.getChannel());
+			preallocate.getChannel().force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory();
+		FileChannel segment = FileChannel.open(file,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+		lock(segment, file);
+		segments.add(segment);
+		writePosition = FILE_HEADER_BYTES;
+	}
+
+	/**
+	 * Adds a ticket to the end of the journal. A ticket that was already
+	 * added is kept, but read returns the newest copy.
+	 * @param ticket - the ticket to keep
+	 * @throws UncheckedIOException if the journal could not be written
+	 */
+	public void append(Ticket ticket) {
+		append(ticket.getTicketID(), ticket.toString());
+	}
+
+	/**
+	 * @param ticketID - the ID to find the ticket by
+	 * @param ticket - the text of the ticket, which can not be empty
+	 * @throws UncheckedIOException if the journal could not be written
+	 */
+	public synchronized void append(long ticketID, String ticket) {
+		byte[] bytes = ticket.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length == 0) {
+			//a length of 0 marks the end of the records
+			throw new IllegalArgumentException("Ticket " + ticketID +
+													" is empty");
+		}
+		int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+		if (FILE_HEADER_BYTES + recordBytes > segmentBytes) {
+			throw new IllegalArgumentException("Ticket " + ticketID +
+										" does not fit in a segment");
+		}
+		try {
+			if (writePosition + recordBytes > segmentBytes) {
+				startSegment();
+			}
+			ByteBuffer record = ByteBuffer.allocate(recordBytes);
+			record.putInt(bytes.length).putLong(ticketID)
+					.putInt(checksum(ticketID, bytes)).put(bytes).flip();
+			FileChannel segment = segments.get(segments.size() - 1);
+			long position = writePosition;
+			while(record.hasRemaining()) {
+				position += segment.write(record, position);
+			}
+			index.put(ticketID, location(segments.size() - 1, writePosition));
+			writePosition = position;
+			unsynced = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Finds a ticket by its ID without reading the rest of the journal.
+	 * @param ticketID - the ID of the ticket
+	 * @return the text of the ticket, or null if it is not in the journal
+	 * @throws UncheckedIOException if the journal could not be read
+	 */
+	public synchronized String read(long ticketID) {
+		Long location = index.get(ticketID);
+		if (location == null) {
+			return null;
+		}
+		FileChannel segment = segments.get((int) (location >>> 40));
+		long position = location & ((1L << 40) - 1);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+			segment.read(header, position);
+			header.flip();
+			ByteBuffer ticket = ByteBuffer.allocate(header.getInt());
+			while(ticket.hasRemaining()) {
+				segment.read(ticket, position + RECORD_HEADER_BYTES +
+											ticket.position());
+			}
+			return new String(ticket.array(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return how many different tickets are in the journal
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return how many segment files the journal has
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Makes sure every ticket appended so far is on disk. Does nothing if
+	 * nothing was appended since the last sync.
+	 * @throws UncheckedIOException if the journal could not be synced
+	 */
+	public synchronized void sync() {
+		if (!unsynced) {
+			return;
+		}
+		try {
+			//the size never changes, so the data is all there is to sync
+			segments.get(segments.size() - 1).force(false);
+			unsynced = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Syncs and closes every segment.
+	 */
+	@Override
+	public synchronized void close() {
+		for(FileChannel segment : segments) {
+			try {
+				if (unsynced) {
+					segment.force(false);
+				}
+				segment.close();
+			} catch (IOException e) {
+				//the rest still need closing
+			}
+		}
+		segments.clear();
+	}
+
+	/**
+	 * Packs a segment number and position into one long, for the index.
+	 */
+	private static long location(int segment, long position) {
+		return ((long) segment << 40) | position;
+	}
+
+	private static int checksum(long ticketID, byte[] ticket) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(ticketID).array());
+		crc.update(ticket);
+		return (int) crc.getValue();
+	}
+}
@@ -2,13 +2,8 @@ package inc.vareli.crusman.databases;
 
 import inc.vareli.crusman.databases.Ship.RoomType;
 
-import java.util.Map;
-import java.util.HashMap;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.time.Duration;
-import java.util.TimeZone;
 import java.text.NumberFormat;
 
 /**
@@ -17,6 +12,13 @@ import java.text.NumberFormat;
  * @author Sebastien Peterson-Boudreau sebastien.peterson.boudreau@unb.ca
  */
 public class Trip {
+	/**
+	 * Trips this many days long or shorter allow SHORT_TRIP_OCCUPANCY people
+	 * per room, and longer ones allow LONG_TRIP_OCCUPANCY
+	 */
+	static final int SHORT_TRIP_DAYS = 2;
+	static final int SHORT_TRIP_OCCUPANCY = 5;
+	static final int LONG_TRIP_OCCUPANCY = 4;
 	
 	/**
 	 * A unique identifier for the Trip.
@@ -31,25 +33,33 @@ public class Trip {
 	protected final Ship SHIP;
 
 	/**
-	 * A list of ports that the trip will go on.
+	 * The ports that the trip will go on, in order.
 	 * Protected so CMConnection can write to the DB
 	 */
-	protected final List<Port> PORTS;
+	protected final Itinerary PORTS;
 
 	/**
-	 * A mapping of different costs to how much they cost for this particular
-	 * trip.
+	 * How much each of the different costs is for this particular trip.
 	 * Protected so CMConnection can write them to the DB.
 	 */
-	protected final Map<CostType,Double> COSTS;
+	protected final CostTable COSTS;
 
-	private Trip(long ID, Ship ship, List<Port> ports, Map<CostType,Double> costs) {
+	private Trip(long ID, Ship ship, Itinerary ports, CostTable costs) {
 		this.ID = ID;
 		this.SHIP = ship;
 		this.PORTS = ports;
 		this.COSTS = costs;
 	}
 
+	/**
+	 * @return a Trip like this one with a Ship of its own, so booking on it
+	 * does not change this one. Ports and costs never change once a trip is
+	 * built, so they are shared.
+	 */
+	Trip copy() {
+		return new Trip(ID, SHIP.copy(), PORTS, COSTS);
+	}
+
 	/**
 	 * Adds a person to a room of this type.
 	 * The maximum capacity of the room depends on the duration of the trip.
@@ -57,8 +67,34 @@ public class Trip {
 	 * @returns if there was space for them or not
 	 */
 	public int addPerson(RoomType type) {
-		long days = this.getDuration();
-		return SHIP.addPerson(type, (days <= 2) ? 5 : 4);
+		return SHIP.addPerson(type, getMaxOccupancy());
+	}
+
+	/**
+	 * gets how many people can share a room on this trip. Short trips allow
+	 * one extra person per room.
+	 * @return the maximum number of people in one room
+	 */
+	public int getMaxOccupancy() {
+		return maxOccupancyFor(this.getDuration());
+	}
+
+	/**
+	 * @param days - how many days long a trip is
+	 * @return the maximum number of people in one room on a trip that long
+	 */
+	static int maxOccupancyFor(long days) {
+		return (days <= SHORT_TRIP_DAYS) ? SHORT_TRIP_OCCUPANCY 
+										: LONG_TRIP_OCCUPANCY;
+	}
+
+	/**
+	 * gets how many people can book rooms of this type on this trip
+	 * @param type - the type of the room
+	 * @return the number of rooms of that type times the people per room
+	 */
+	public int getCapacity(RoomType type) {
+		return SHIP.getRoomCount(type) * getMaxOccupancy();
 	}
 
 	/**
@@ -66,19 +102,19 @@ public class Trip {
 	 * @return a long value representing the number of days long this trip is
 	 */
 	public long getDuration() {
-		int z = PORTS.size()-1;
-		return Duration.between(
-						PORTS.get(0).departure.toInstant(),
-						PORTS.get(z).arrival.toInstant()
-					).toDays();
+		return PORTS.getDurationDays();
+	}
+
+	/**
+	 * @param date - a date and time
+	 * @return whether the ship is sailing between two ports of this trip then
+	 */
+	public boolean isAtSea(Date date) {
+		return PORTS.isAtSea(date.getTime());
 	}
 
 	public double getTotalFees() {
-		double total = 0;
-		for (CostType cost : COSTS.keySet()) {
-			total += COSTS.get(cost);
-		}
-		return total;
+		return COSTS.getTotal();
 	}
 
 	@Override
@@ -87,37 +123,17 @@ public class Trip {
 		StringBuilder builder = new StringBuilder();
 
 		builder.append(this.SHIP.toString());
-		for (CostType cost : COSTS.keySet()) {
+		for (CostType cost : COSTS.getTypes()) {
 			builder.append(cost.toString() + ": " + nf.format(COSTS.get(cost)) + "\n");
 		}
 		builder.append("TOTAL FEES: " + nf.format(this.getTotalFees()) + "\n");
 
 		int z = this.PORTS.size()-1;
-		builder.append(this.PORTS.get(0).location + ", " + this.PORTS.get(0).departure + "\n");
-		builder.append(this.PORTS.get(z).location + ", " + this.PORTS.get(z).arrival + "\n");
+		builder.append(this.PORTS.getLocation(0) + ", " + new Date(this.PORTS.getFirstDeparture()) + "\n");
+		builder.append(this.PORTS.getLocation(z) + ", " + new Date(this.PORTS.getLastArrival()) + "\n");
 		return builder.toString();
 	}
 
-	/*
-	 * Solution to the timezone issue: the timezone is stored with the port
-	 * and will be interpreted at the display level (GUI stuff) to show the
-	 * correct timezone for the situation.
-	 * Calculations and stuff use UTC-0 (unix time)
-	 */
-	protected static class Port { 
-		public String location;
-		public TimeZone zone;
-		public Date arrival;
-		public Date departure;
-
-		public Port(Date arrival, Date departure, String location, String zoneId) {
-			this.arrival = arrival;
-			this.departure = departure;
-			this.location = location;
-			this.zone = TimeZone.getTimeZone(zoneId);
-		}
-	}
-
 	/**
 	 * An enum of the different services you must pay for on a trip
 	 */
@@ -143,16 +159,23 @@ public class Trip {
 	 */
 	public static class TripBuilder {
 		private Ship ship;
-		private List<Port> ports;
-		private Map<CostType,Double> costs;
+		private String[] locations;
+		private String[] zoneIds;
+		private long[] arrivals;
+		private long[] departures;
+		private int portCount;
+		private CostTable costs;
 
 		/**
 		 * Constructor. Initialized ID and ship as these are non-null values
 		 */
 		public TripBuilder(Ship ship) {
 			this.ship = ship;
-			this.ports = new ArrayList<Port>();
-			this.costs = new HashMap<CostType,Double>();
+			this.locations = new String[4];
+			this.zoneIds = new String[4];
+			this.arrivals = new long[4];
+			this.departures = new long[4];
+			this.costs = new CostTable();
 		}
 
 		/**
@@ -167,7 +190,26 @@ public class Trip {
 		 * @see <a href="https://docs.oracle.com/en/java/javase/21/docs/api/java.base/java/util/ZoneId.html">java.util.ZoneId</a>
 		 */
 		public TripBuilder addPort(Date arrival, Date departure, String location, String zoneId) {
-			ports.add(new Port(arrival, departure, location,zoneId));
+			return addPort(arrival.getTime(), departure.getTime(), location, zoneId);
+		}
+
+		/**
+		 * adds a port like addPort with Dates, with the times in milliseconds
+		 * since the epoch
+		 * @return this TripBuilder object, allowing chaining
+		 */
+		TripBuilder addPort(long arrival, long departure, String location, String zoneId) {
+			if (portCount == locations.length) {
+				locations = Arrays.copyOf(locations, portCount * 2);
+				zoneIds = Arrays.copyOf(zoneIds, portCount * 2);
+				arrivals = Arrays.copyOf(arrivals, portCount * 2);
+				departures = Arrays.copyOf(departures, portCount * 2);
+			}
+			locations[portCount] = location;
+			zoneIds[portCount] = Itinerary.internZone(zoneId);
+			arrivals[portCount] = arrival;
+			departures[portCount] = departure;
+			portCount++;
 			return this;
 		}
 
@@ -179,18 +221,56 @@ public class Trip {
 		 * @return this TripBuilder object, allowing chaining
 		 */
 		public TripBuilder addCost(CostType type, double amount) {
-			costs.put(type, amount);//should we check for overwriting?
+			costs.set(type, amount);//should we check for overwriting?
 			return this;
 		}
 
+		/**
+		 * createTrip needs a cost for every type of room and every service
+		 * @return a type of cost that has not been added yet, or null if they
+		 * all have
+		 */
+		public CostType missingCost() {
+			return costs.missing();
+		}
+
+		/**
+		 * checks everything createTrip needs, so nothing is written and no ID
+		 * is used up for a trip that would be turned down
+		 * @throws IllegalArgumentException if a cost is missing or the ports
+		 * are out of order
+		 */
+		void validate() {
+			CostType missing = costs.missing();
+			if (missing != null) {
+				throw new IllegalArgumentException("No cost was given for " +
+													missing);
+			}
+			new Itinerary(locations, zoneIds, arrivals, departures,
+							portCount).checkOrder();
+		}
+
 		/**
 		 * builds the Trip that this TripBuilder specifies
 		 * Protected so that only CMConnection can create Trips, ensuring that
 		 * everything is written to the DB
 		 * @return the Trip built
+		 * @throws IllegalArgumentException if the ports are out of order
 		 */
 		protected Trip build(long ID) {
-			return new Trip(ID, ship, ports, costs);
+			return new Trip(ID, ship, new Itinerary(locations, zoneIds, arrivals,
+								departures, portCount).checkOrder(), costs.copy());
+		}
+
+		/**
+		 * builds a Trip like build, without checking the order of its ports.
+		 * Used for trips read back from the DB, which were checked when they
+		 * were created, so that one bad row never stops the others loading
+		 * @return the Trip built
+		 */
+		Trip load(long ID) {
+			return new Trip(ID, ship, new Itinerary(locations, zoneIds, arrivals,
+								departures, portCount), costs.copy());
 		}
 	}
 }
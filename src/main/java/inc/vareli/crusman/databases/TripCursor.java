@@ -0,0 +1,148 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Puts Trips together from four result sets that are all ordered by tripID:
+ * the trips joined with their ships, their room fees, their ports, and how
+ * many tickets are booked into each of their rooms. Each set is only read
+ * forwards and one trip at a time, so trips can be handed out while the rest
+ * of the rows are still in the database.
+ */
+class TripCursor implements Iterator<Trip>, AutoCloseable {
+	//the Port table has no timezones, so loaded ports are shown in GMT
+	private static final String PORT_ZONE = "GMT";
+
+	private final ResultSet tripSet;
+	private final ResultSet roomSet;
+	private final ResultSet portSet;
+	private final ResultSet ticketSet;
+	private boolean roomsLeft;
+	private boolean portsLeft;
+	private boolean ticketsLeft;
+	private Trip next;
+
+	/**
+	 * @param tripSet - the Trip and CruiseShip columns, ordered by tripID
+	 * @param roomSet - tripID, roomType and fees from RoomInfo, ordered by
+	 * tripID
+	 * @param portSet - the Port columns, ordered by tripID then departureDate
+	 * @param ticketSet - tripID, roomNumber and the number of people booked
+	 * into the room from Ticket, ordered by tripID
+	 */
+	TripCursor(ResultSet tripSet, ResultSet roomSet, ResultSet portSet,
+							ResultSet ticketSet) throws SQLException {
+		this.tripSet = tripSet;
+		this.roomSet = roomSet;
+		this.portSet = portSet;
+		this.ticketSet = ticketSet;
+		this.roomsLeft = roomSet.next();
+		this.portsLeft = portSet.next();
+		this.ticketsLeft = ticketSet.next();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = readTrip();
+			} catch(SQLException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public Trip next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Trip trip = next;
+		next = null;
+		return trip;
+	}
+
+	private Trip readTrip() throws SQLException {
+		if (!tripSet.next()) {
+			return null;
+		}
+		int rows = 1;
+		long tripID = tripSet.getLong("tripID");
+		EnumMap<RoomType,Integer> roomCounts = 
+								new EnumMap<RoomType,Integer>(RoomType.class);
+		roomCounts.put(RoomType.INTERIOR, tripSet.getInt("interiorRooms"));
+		roomCounts.put(RoomType.OUTSIDE, tripSet.getInt("outsideRooms"));
+		roomCounts.put(RoomType.BALCONY, tripSet.getInt("balconyRooms"));
+		roomCounts.put(RoomType.SUITE, tripSet.getInt("suites"));
+
+		Ship ship = new Ship(tripSet.getLong("shipID"), roomCounts);
+		TripBuilder builder = new TripBuilder(ship);
+		builder.addCost(Service.MEALS, tripSet.getDouble("mealFees"));
+		builder.addCost(Service.DRINKS, tripSet.getDouble("drinkFees"));
+
+		//rows for trips that were not in tripSet are skipped
+		while(roomsLeft && roomSet.getLong("tripID") < tripID) {
+			roomsLeft = roomSet.next();
+			rows++;
+		}
+		while(roomsLeft && roomSet.getLong("tripID") == tripID) {
+			builder.addCost(RoomType.valueOf(roomSet.getString("roomType")),
+							roomSet.getInt("fees"));
+			roomsLeft = roomSet.next();
+			rows++;
+		}
+
+		while(portsLeft && portSet.getLong("tripID") < tripID) {
+			portsLeft = portSet.next();
+			rows++;
+		}
+		while(portsLeft && portSet.getLong("tripID") == tripID) {
+			builder.addPort(portSet.getDate("arrivalDate").getTime(),
+						portSet.getDate("departureDate").getTime(), 
+						portSet.getString("portName"), PORT_ZONE);
+			portsLeft = portSet.next();
+			rows++;
+		}
+
+		//rooms are filled back up, so addPerson does not hand out a room
+		//that is already booked
+		while(ticketsLeft && ticketSet.getLong("tripID") < tripID) {
+			ticketsLeft = ticketSet.next();
+			rows++;
+		}
+		while(ticketsLeft && ticketSet.getLong("tripID") == tripID) {
+			ship.fillRoomTo(ticketSet.getInt("roomNumber"),
+								ticketSet.getInt("people"));
+			ticketsLeft = ticketSet.next();
+			rows++;
+		}
+		OperationMetrics.rowsRead(rows);
+		return builder.load(tripID);
+	}
+
+	/**
+	 * Closes the result sets. The statements belong to the connection's
+	 * StatementCache and stay open.
+	 */
+	@Override
+	public void close() {
+		for(ResultSet set : new ResultSet[] {tripSet, roomSet, portSet, 
+											ticketSet}) {
+			try {
+				set.close();
+			} catch(SQLException e) {
+				//nothing more is read from it anyways
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * How one trip is selling: how many places it has and how many are booked,
+ * and the money taken for rooms and packages, in total and for each type of
+ * room. One line of the per trip table of a RevenueReport.
+ */
+public class TripFigures {
+	private final long tripID;
+	private final long shipID;
+	private final YearMonth month;
+	private final int[] capacity;
+	private final int[] passengers;
+	private final double[] roomRevenue;
+	private final double packageRevenue;
+	private final int totalCapacity;
+	private final int totalPassengers;
+	private final double totalRevenue;
+
+	/**
+	 * @param month - the month the trip leaves in, or null if it has no ports
+	 * @param capacity - how many people can book each RoomType
+	 * @param passengers - how many people have booked each RoomType
+	 * @param roomRevenue - what the bookings of each RoomType paid for rooms
+	 * @param packageRevenue - what the bookings paid for meals and drinks
+	 */
+	TripFigures(long tripID, long shipID, YearMonth month, int[] capacity,
+				int[] passengers, double[] roomRevenue, double packageRevenue) {
+		this.tripID = tripID;
+		this.shipID = shipID;
+		this.month = month;
+		this.capacity = capacity;
+		this.passengers = passengers;
+		this.roomRevenue = roomRevenue;
+		this.packageRevenue = packageRevenue;
+		int places = 0;
+		int people = 0;
+		double revenue = packageRevenue;
+		for(int i = 0; i < capacity.length; i++) {
+			places += capacity[i];
+			people += passengers[i];
+			revenue += roomRevenue[i];
+		}
+		this.totalCapacity = places;
+		this.totalPassengers = people;
+		this.totalRevenue = revenue;
+	}
+
+	/**
+	 * Reads the figures of every trip matching a query, with three forward
+	 * only queries ordered by tripID that are read together like TripCursor:
+	 * the trips with their ships and dates, their RoomInfo rows, and how many
+	 * of their tickets have each package.
+	 * @return the figures, in order of trip ID
+	 */
+	static List<TripFigures> load(PooledConnection pooled, TripQuery query,
+									int fetchSize) throws SQLException {
+		String matching = " join Trip on Trip.tripID = %1$s.tripID " +
+						"join CruiseShip on Trip.shipID = CruiseShip.shipID " +
+						"where Trip.tripID > ?" + query.conditions();
+		String retrieveTrips = "select Trip.tripID, Trip.shipID, " +
+						"Trip.mealFees, Trip.drinkFees, " +
+						"CruiseShip.interiorRooms, CruiseShip.outsideRooms, " +
+						"CruiseShip.balconyRooms, CruiseShip.suites, " +
+						"(select MIN(departureDate) from Port " +
+						"where Port.tripID = Trip.tripID) as departs, " +
+						"(select MAX(arrivalDate) from Port " +
+						"where Port.tripID = Trip.tripID) as returns " +
+						"from Trip join CruiseShip " +
+						"on Trip.shipID = CruiseShip.shipID " +
+						"where Trip.tripID > ?" + query.conditions() +
+						" order by Trip.tripID";
+		String retrieveRooms = "select RoomInfo.tripID, RoomInfo.roomType, " +
+						"RoomInfo.fees, RoomInfo.occupancy from RoomInfo" +
+						String.format(matching, "RoomInfo") +
+						" order by RoomInfo.tripID";
+		String retrievePackages = "select Ticket.tripID, " +
+						"SUM(Ticket.mealPackageFlag) as meals, " +
+						"SUM(Ticket.drinkPackageFlag) as drinks from Ticket" +
+						String.format(matching, "Ticket") +
+						" group by Ticket.tripID order by Ticket.tripID";
+		String[] queries = {retrieveTrips, retrieveRooms, retrievePackages};
+		ResultSet[] sets = new ResultSet[queries.length];
+		try {
+			for(int i = 0; i < queries.length; i++) {
+				PreparedStatement statement = pooled.prepare(queries[i]);
+				statement.setFetchSize(fetchSize);
+				statement.setLong(1, 0);
+				query.bind(statement, 2);
+				sets[i] = statement.executeQuery();
+			}
+			return read(sets[0], sets[1], sets[2]);
+		} finally {
+			for(ResultSet set : sets) {
+				if (set != null) {
+					set.close();
+				}
+			}
+		}
+	}
+
+	private static List<TripFigures> read(ResultSet tripSet, ResultSet roomSet,
+							ResultSet packageSet) throws SQLException {
+		List<TripFigures> trips = new ArrayList<TripFigures>();
+		RoomType[] types = RoomType.values();
+		String[] roomColumns = {"interiorRooms", "outsideRooms",
+								"balconyRooms", "suites"};
+		boolean roomsLeft = roomSet.next();
+		boolean packagesLeft = packageSet.next();
+		int rows = 0;
+		while(tripSet.next()) {
+			rows++;
+			long tripID = tripSet.getLong("tripID");
+			java.sql.Date departs = tripSet.getDate("departs");
+			java.sql.Date returns = tripSet.getDate("returns");
+			//the same people per room as Trip.getMaxOccupancy
+			long days = (departs == null) ? 0 : ChronoUnit.DAYS.between(
+						departs.toLocalDate(), returns.toLocalDate());
+			int perRoom = Trip.maxOccupancyFor(days);
+			int[] capacity = new int[types.length];
+			for(int i = 0; i < types.length; i++) {
+				capacity[i] = tripSet.getInt(roomColumns[i]) * perRoom;
+			}
+
+			int[] passengers = new int[types.length];
+			double[] roomRevenue = new double[types.length];
+			while(roomsLeft && roomSet.getLong("tripID") < tripID) {
+				roomsLeft = roomSet.next();
+				rows++;
+			}
+			while(roomsLeft && roomSet.getLong("tripID") == tripID) {
+				int type = RoomType.valueOf(roomSet.getString("roomType"))
+										.ordinal();
+				passengers[type] = roomSet.getInt("occupancy");
+				roomRevenue[type] = passengers[type] * roomSet.getDouble("fees");
+				roomsLeft = roomSet.next();
+				rows++;
+			}
+
+			double packageRevenue = 0;
+			while(packagesLeft && packageSet.getLong("tripID") < tripID) {
+				packagesLeft = packageSet.next();
+				rows++;
+			}
+			if (packagesLeft && packageSet.getLong("tripID") == tripID) {
+				packageRevenue =
+					packageSet.getInt("meals") * tripSet.getDouble("mealFees") +
+					packageSet.getInt("drinks") * tripSet.getDouble("drinkFees");
+				packagesLeft = packageSet.next();
+				rows++;
+			}
+			trips.add(new TripFigures(tripID, tripSet.getLong("shipID"),
+						(departs == null) ? null
+								: YearMonth.from(departs.toLocalDate()),
+						capacity, passengers, roomRevenue, packageRevenue));
+		}
+		OperationMetrics.rowsRead(rows);
+		return trips;
+	}
+
+	/**
+	 * @return the ID of the trip
+	 */
+	public long getTripID() {
+		return tripID;
+	}
+
+	/**
+	 * @return the ID of the ship the trip sails on
+	 */
+	public long getShipID() {
+		return shipID;
+	}
+
+	/**
+	 * @return the month the trip leaves its first port in, or null if it has
+	 * no ports
+	 */
+	public YearMonth getMonth() {
+		return month;
+	}
+
+	/**
+	 * @return how many people can book the trip
+	 */
+	public int getCapacity() {
+		return totalCapacity;
+	}
+
+	/**
+	 * @param type - the type of room
+	 * @return how many people can book rooms of that type
+	 */
+	public int getCapacity(RoomType type) {
+		return capacity[type.ordinal()];
+	}
+
+	/**
+	 * @return how many people have booked the trip
+	 */
+	public int getPassengers() {
+		return totalPassengers;
+	}
+
+	/**
+	 * @param type - the type of room
+	 * @return how many people have booked rooms of that type
+	 */
+	public int getPassengers(RoomType type) {
+		return passengers[type.ordinal()];
+	}
+
+	/**
+	 * @return what the bookings paid for rooms and packages
+	 */
+	public double getRevenue() {
+		return totalRevenue;
+	}
+
+	/**
+	 * @param type - the type of room
+	 * @return what the bookings of that type paid for their rooms
+	 */
+	public double getRevenue(RoomType type) {
+		return roomRevenue[type.ordinal()];
+	}
+
+	/**
+	 * @return what the bookings paid for meal and drink packages
+	 */
+	public double getPackageRevenue() {
+		return packageRevenue;
+	}
+
+	/**
+	 * @return the share of the places that are booked, from 0 to 1
+	 */
+	public double getLoadFactor() {
+		return (totalCapacity == 0) ? 0 : (double) totalPassengers / totalCapacity;
+	}
+
+	/**
+	 * @param type - the type of room
+	 * @return the share of the places in rooms of that type that are booked
+	 */
+	public double getLoadFactor(RoomType type) {
+		int places = capacity[type.ordinal()];
+		return (places == 0) ? 0 : (double) passengers[type.ordinal()] / places;
+	}
+
+	/**
+	 * @return the revenue per place that could have been sold
+	 */
+	public double getYield() {
+		return (totalCapacity == 0) ? 0 : totalRevenue / totalCapacity;
+	}
+}
@@ -0,0 +1,136 @@
+package inc.vareli.crusman.databases;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Lets a screen step through every trip by index while only a few pages of
+ * them are in memory. The page after the one being looked at is loaded in
+ * the background, so stepping forwards rarely has to wait for the database.
+ * Calls are run one at a time, so a pager can be stepped from worker threads
+ * while the user interface thread only shows the results. The next page is
+ * loaded on the executor the pager is given, such as the workers of an
+ * AsyncCMConnection, so the database is never waited on from a shared pool.
+ */
+public class TripPager {
+	private final CMConnection connection;
+	private final TripQuery query;
+	private final int pageSize;
+	private final Executor loader;
+	/*
+	 * The trip ID each page starts after, for every page found so far. This
+	 * is the only thing kept for pages that have been dropped.
+	 */
+	private final List<Long> pageStarts;
+	private final Map<Integer,CompletableFuture<List<Trip>>> pages;
+
+	/**
+	 * @param connection - where to load the trips from
+	 * @param pageSize - how many trips to load at a time
+	 * @param loader - the threads the next page is loaded on
+	 */
+	public TripPager(CMConnection connection, int pageSize, Executor loader) {
+		this(connection, null, pageSize, loader);
+	}
+
+	/**
+	 * Steps through the results of a search instead of every trip.
+	 * @param connection - where to load the trips from
+	 * @param query - what the trips have to match, or null for every trip
+	 * @param pageSize - how many trips to load at a time
+	 * @param loader - the threads the next page is loaded on
+	 */
+	public TripPager(CMConnection connection, TripQuery query, int pageSize,
+						Executor loader) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be at least 1");
+		}
+		this.connection = connection;
+		this.query = query;
+		this.pageSize = pageSize;
+		this.loader = loader;
+		this.pageStarts = new ArrayList<Long>();
+		this.pageStarts.add(0L);
+		this.pages = new HashMap<Integer,CompletableFuture<List<Trip>>>();
+	}
+
+	/**
+	 * Gets a trip, loading its page if needed and starting to load the next
+	 * page. Pages more than one away from this one are dropped.
+	 * @param index - counting from 0, which trip to get in order of trip ID
+	 * @return the trip at that index
+	 * @throws IndexOutOfBoundsException if there are not that many trips
+	 */
+	public synchronized Trip get(int index) {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException("No trip " + index);
+		}
+		int page = index / pageSize;
+		List<Trip> trips = page(page);
+		if (index % pageSize >= trips.size()) {
+			throw new IndexOutOfBoundsException("No trip " + index);
+		}
+		pages.keySet().removeIf(p -> p < page - 1 || p > page + 1);
+		prefetch(page + 1);
+		return trips.get(index % pageSize);
+	}
+
+	/**
+	 * @return how many pages are loaded or being loaded
+	 */
+	synchronized int getLoadedPageCount() {
+		return pages.size();
+	}
+
+	private List<Trip> page(int page) {
+		while(pageStarts.size() <= page) {
+			//the page before has to be read to know where this one starts
+			if (page(pageStarts.size() - 1).size() < pageSize) {
+				throw new IndexOutOfBoundsException("No page " + page);
+			}
+		}
+		List<Trip> trips = null;
+		CompletableFuture<List<Trip>> loading = pages.get(page);
+		if (loading != null) {
+			try {
+				trips = loading.join();
+			} catch(CompletionException e) {
+				//try again below, so the error reaches the caller
+			}
+		}
+		if (trips == null) {
+			trips = load(pageStarts.get(page));
+			pages.put(page, CompletableFuture.completedFuture(trips));
+		}
+		if (trips.size() == pageSize && pageStarts.size() == page + 1) {
+			pageStarts.add(trips.get(pageSize - 1).ID);
+		}
+		return trips;
+	}
+
+	private void prefetch(int page) {
+		if (pages.containsKey(page) || pageStarts.size() <= page) {
+			return;
+		}
+		long afterTripID = pageStarts.get(page);
+		try {
+			pages.put(page, CompletableFuture.supplyAsync(
+								() -> load(afterTripID), loader));
+		} catch(RejectedExecutionException e) {
+			//the loader is shutting down, so the page is read when it is needed
+		}
+	}
+
+	private List<Trip> load(long afterTripID) {
+		if (query == null) {
+			return connection.queryTripPage(afterTripID, pageSize);
+		}
+		return connection.searchTrips(query, afterTripID, pageSize);
+	}
+}
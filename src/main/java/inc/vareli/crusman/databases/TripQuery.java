@@ -0,0 +1,239 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * What to look for when searching for trips with CMConnection.searchTrips.
+ * Every filter that is set has to match, and filters that are not set match
+ * every trip. The filters are run by the database, so only the matching
+ * trips are ever loaded.
+ */
+public class TripQuery {
+	/*
+	 * The columns of CruiseShip holding the room counts, in RoomType order
+	 */
+	private static final String[] ROOM_COUNT_COLUMNS = {"interiorRooms",
+								"outsideRooms", "balconyRooms", "suites"};
+	private static final String FIRST_DEPARTURE = "(select MIN(departureDate) " +
+								"from Port where Port.tripID = Trip.tripID)";
+	private static final String LAST_ARRIVAL = "(select MAX(arrivalDate) " +
+								"from Port where Port.tripID = Trip.tripID)";
+	/*
+	 * The same people per room as Trip.getMaxOccupancy, worked out from the
+	 * port dates
+	 */
+	private static final String PER_ROOM = "(case when TIMESTAMPDIFF(DAY, " +
+							FIRST_DEPARTURE + ", " + LAST_ARRIVAL + ") <= " +
+							Trip.SHORT_TRIP_DAYS + " then " +
+							Trip.SHORT_TRIP_OCCUPANCY + " else " +
+							Trip.LONG_TRIP_OCCUPANCY + " end)";
+
+	private Long tripID;
+	private String portName;
+	private Date earliestDeparture;
+	private Date latestDeparture;
+	private Date earliestArrival;
+	private Date latestArrival;
+	private final Map<RoomType,Double> maxRoomFees;
+	private final Map<Service,Double> maxServiceFees;
+	private final Map<RoomType,Integer> minFreeCabins;
+
+	/**
+	 * Constructor. A new query matches every trip.
+	 */
+	public TripQuery() {
+		this.maxRoomFees = new EnumMap<RoomType,Double>(RoomType.class);
+		this.maxServiceFees = new EnumMap<Service,Double>(Service.class);
+		this.minFreeCabins = new EnumMap<RoomType,Integer>(RoomType.class);
+	}
+
+	/**
+	 * only matches one trip
+	 * @param tripID - the ID of the trip
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery onTrip(long tripID) {
+		this.tripID = tripID;
+		return this;
+	}
+
+	/**
+	 * only matches trips that stop at a port
+	 * @param portName - the name of the port, as it was given to addPort
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery visiting(String portName) {
+		this.portName = portName;
+		return this;
+	}
+
+	/**
+	 * only matches trips that leave their first port between two dates
+	 * @param earliest - the earliest day to leave, or null for any
+	 * @param latest - the latest day to leave, or null for any
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery departingBetween(Date earliest, Date latest) {
+		this.earliestDeparture = earliest;
+		this.latestDeparture = latest;
+		return this;
+	}
+
+	/**
+	 * only matches trips that arrive at their last port between two dates
+	 * @param earliest - the earliest day to arrive, or null for any
+	 * @param latest - the latest day to arrive, or null for any
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery arrivingBetween(Date earliest, Date latest) {
+		this.earliestArrival = earliest;
+		this.latestArrival = latest;
+		return this;
+	}
+
+	/**
+	 * only matches trips where a cost is at most an amount
+	 * @param type - a type of room or a service
+	 * @param amount - the most it can cost
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery maxCost(CostType type, double amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("A cost can not be negative");
+		}
+		if (type instanceof RoomType) {
+			maxRoomFees.put((RoomType) type, amount);
+		} else if (type instanceof Service) {
+			maxServiceFees.put((Service) type, amount);
+		} else {
+			throw new IllegalArgumentException("Unknown cost " + type);
+		}
+		return this;
+	}
+
+	/**
+	 * only matches trips with at least this many rooms of a type that nobody
+	 * is booked into yet
+	 * @param type - the type of room
+	 * @param cabins - how many empty rooms there have to be
+	 * @return this TripQuery object, allowing chaining
+	 */
+	public TripQuery minFreeCabins(RoomType type, int cabins) {
+		if (cabins < 0) {
+			throw new IllegalArgumentException("Cabins can not be negative");
+		}
+		minFreeCabins.put(type, cabins);
+		return this;
+	}
+
+	/**
+	 * The conditions of this query, to go after a where clause on Trip joined
+	 * with CruiseShip. Each one starts with "and".
+	 */
+	String conditions() {
+		StringBuilder sql = new StringBuilder();
+		if (tripID != null) {
+			sql.append(" and Trip.tripID = ?");
+		}
+		if (maxServiceFees.containsKey(Service.MEALS)) {
+			sql.append(" and Trip.mealFees <= ?");
+		}
+		if (maxServiceFees.containsKey(Service.DRINKS)) {
+			sql.append(" and Trip.drinkFees <= ?");
+		}
+		for(int i = 0; i < maxRoomFees.size(); i++) {
+			sql.append(" and exists (select 1 from RoomInfo " +
+						"where RoomInfo.tripID = Trip.tripID " +
+						"and RoomInfo.roomType = ? and RoomInfo.fees <= ?)");
+		}
+		if (portName != null) {
+			sql.append(" and exists (select 1 from Port " +
+						"where Port.tripID = Trip.tripID and Port.portName = ?)");
+		}
+		appendBound(sql, FIRST_DEPARTURE, earliestDeparture, latestDeparture);
+		appendBound(sql, LAST_ARRIVAL, earliestArrival, latestArrival);
+		//rooms fill up in order, so used rooms = ceil(occupancy / per room)
+		for(RoomType type : minFreeCabins.keySet()) {
+			sql.append(" and exists (select 1 from RoomInfo " +
+						"where RoomInfo.tripID = Trip.tripID " +
+						"and RoomInfo.roomType = ? " +
+						"and RoomInfo.occupancy + ? * " + PER_ROOM + " <= " +
+						"CruiseShip." + ROOM_COUNT_COLUMNS[type.ordinal()] +
+						" * " + PER_ROOM + ")");
+		}
+		return sql.toString();
+	}
+
+	private static void appendBound(StringBuilder sql, String column,
+									Date earliest, Date latest) {
+		if (earliest != null) {
+			sql.append(" and ").append(column).append(" >= ?");
+		}
+		if (latest != null) {
+			sql.append(" and ").append(column).append(" <= ?");
+		}
+	}
+
+	/**
+	 * Sets the parameters of conditions(), in the same order.
+	 * @param statement - the statement the conditions are in
+	 * @param index - the index of the first parameter of conditions()
+	 * @return the index of the parameter after them
+	 */
+	int bind(PreparedStatement statement, int index) throws SQLException {
+		if (tripID != null) {
+			statement.setLong(index++, tripID);
+		}
+		if (maxServiceFees.containsKey(Service.MEALS)) {
+			statement.setDouble(index++, maxServiceFees.get(Service.MEALS));
+		}
+		if (maxServiceFees.containsKey(Service.DRINKS)) {
+			statement.setDouble(index++, maxServiceFees.get(Service.DRINKS));
+		}
+		for(Map.Entry<RoomType,Double> fee : maxRoomFees.entrySet()) {
+			statement.setString(index++, fee.getKey().name());
+			statement.setDouble(index++, fee.getValue());
+		}
+		if (portName != null) {
+			statement.setString(index++, portName);
+		}
+		for(Date bound : new Date[] {earliestDeparture, latestDeparture,
+									earliestArrival, latestArrival}) {
+			if (bound != null) {
+				statement.setDate(index++, new java.sql.Date(bound.getTime()));
+			}
+		}
+		for(Map.Entry<RoomType,Integer> cabins : minFreeCabins.entrySet()) {
+			statement.setString(index++, cabins.getKey().name());
+			statement.setInt(index++, cabins.getValue());
+		}
+		return index;
+	}
+
+	/**
+	 * @return every filter that is set, which is also what search results
+	 * are cached under
+	 */
+	@Override
+	public String toString() {
+		return "trip=" + tripID + " port=" + portName +
+				" departing=" + time(earliestDeparture) + ".." +
+				time(latestDeparture) +
+				" arriving=" + time(earliestArrival) + ".." +
+				time(latestArrival) +
+				" rooms=" + maxRoomFees + " services=" + maxServiceFees +
+				" free=" + minFreeCabins;
+	}
+
+	private static String time(Date date) {
+		return (date == null) ? "" : Long.toString(date.getTime());
+	}
+}
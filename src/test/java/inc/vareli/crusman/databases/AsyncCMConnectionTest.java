@@ -0,0 +1,110 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncCMConnectionTest {
+	private ExecutorService callbacks;
+	private AsyncCMConnection connection;
+
+	@Before
+	public void setUp() {
+		callbacks = Executors.newSingleThreadExecutor(
+						task -> new Thread(task, "callbacks"));
+		connection = new AsyncCMConnection(new CMConnection(
+					TestDatabase.pool("async" + System.nanoTime(), 2)), callbacks);
+	}
+
+	@After
+	public void tearDown() {
+		connection.close();
+		callbacks.shutdown();
+	}
+
+	@Test
+	public void resultsArriveOnTheCallbackThread() throws Exception {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1))
+								.get(5, TimeUnit.SECONDS);
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 3))
+								.get(5, TimeUnit.SECONDS);
+		//the result waits behind this until thenApply is attached, or a fast
+		//query would run thenApply on this thread instead
+		CountDownLatch attached = new CountDownLatch(1);
+		callbacks.execute(() -> {
+			try {
+				attached.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		CompletableFuture<String> thread = connection.queryTrip()
+									.thenApply(trips -> {
+			assertEquals(1, trips.size());
+			return Thread.currentThread().getName();
+		});
+		attached.countDown();
+		assertEquals("callbacks", thread.get(5, TimeUnit.SECONDS));
+
+		String ticket = connection.bookTrip(trip, "Jane Doe", true, false, 
+									RoomType.SUITE).get(5, TimeUnit.SECONDS);
+		assertTrue(ticket.contains("Jane Doe"));
+	}
+
+	@Test
+	public void failuresKeepTheirException() throws Exception {
+		try {
+			connection.queryTripPage(0, 0).get(5, TimeUnit.SECONDS);
+			fail("A page needs at least one trip");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	@Test
+	public void errorsCompleteTheFutureToo() throws Exception {
+		try {
+			connection.supply(() -> {
+				throw new NoClassDefFoundError("Missing");
+			}).get(5, TimeUnit.SECONDS);
+			fail("The call threw an Error");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof NoClassDefFoundError);
+		}
+	}
+
+	@Test
+	public void cancelledCallsThatHaveNotStartedNeverRun() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		for(int i = 0; i < CMConnection.DEFAULT_POOL_SIZE; i++) {
+			connection.supply(() -> {
+				try {
+					release.await();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			});
+		}
+		AtomicBoolean ran = new AtomicBoolean();
+		assertTrue(connection.supply(() -> ran.getAndSet(true)).cancel(true));
+		release.countDown();
+
+		connection.queryShip().get(5, TimeUnit.SECONDS);
+		assertFalse(ran.get());
+	}
+}
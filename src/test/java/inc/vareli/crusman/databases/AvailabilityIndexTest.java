@@ -0,0 +1,130 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityIndexTest {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		String name = "availability" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	private static Date day(int day) {
+		return new Date(day * DAY);
+	}
+
+	@Test
+	public void rangeAndThresholdAreBothApplied() {
+		AvailabilityIndex index = new AvailabilityIndex();
+		int[] rooms = {10, 10, 4, 2};
+		index.add(1, AvailabilityIndex.day(day(0)), 4, rooms, new int[4]);
+		index.add(2, AvailabilityIndex.day(day(10)), 4, rooms,
+					new int[] {0, 0, 5, 0});
+		index.add(3, AvailabilityIndex.day(day(20)), 5, rooms,
+					new int[] {0, 0, 5, 0});
+
+		assertEquals(Arrays.asList(1L, 2L, 3L),
+				index.find(RoomType.BALCONY, 2, null, null));
+		//5 people take two rooms when 4 fit in a room, and one when 5 do
+		assertEquals(Arrays.asList(1L, 3L),
+				index.find(RoomType.BALCONY, 3, null, null));
+		assertEquals(Arrays.asList(2L),
+				index.find(RoomType.BALCONY, 2, day(5), day(10)));
+		assertEquals(Collections.emptyList(),
+				index.find(RoomType.SUITE, 3, null, null));
+		assertEquals(Collections.emptyList(),
+				index.find(RoomType.SUITE, 1, day(10), day(5)));
+
+		index.booked(3, RoomType.BALCONY);
+		assertEquals(2, index.getFreeCabins(3, RoomType.BALCONY));
+		assertEquals(-1, index.getFreeCabins(4, RoomType.BALCONY));
+	}
+
+	@Test
+	public void indexFollowsCreatedAndBookedTrips() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip first = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 7));
+		for(int i = 0; i < 5; i++) {
+			connection.bookTrip(first, "Guest " + i, false, false, RoomType.SUITE);
+		}
+		executions.set(0);
+		assertTrue(connection.findAvailableTrips(
+						RoomType.SUITE, 1, null, null).isEmpty());
+		assertEquals(2, executions.get());
+
+		Ship other = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip second = connection.createTrip(
+						TestDatabase.tripBuilder(other, 30, 7));
+		connection.bookTrip(second, "Guest", false, false, RoomType.SUITE);
+		executions.set(0);
+		assertEquals(Arrays.asList(second.ID), connection.findAvailableTrips(
+						RoomType.SUITE, 1, null, null));
+		assertEquals(Arrays.asList(first.ID, second.ID),
+				connection.findAvailableTrips(RoomType.BALCONY, 2, null, null));
+		assertEquals(Arrays.asList(first.ID), connection.findAvailableTrips(
+						RoomType.BALCONY, 2, day(0), day(29)));
+		assertEquals(0, executions.get());
+	}
+
+	@Test
+	public void tripsWithoutPortsAreLeftOut() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip sailing = connection.createTrip(
+						TestDatabase.tripBuilder(ship, 0, 7));
+		assertEquals(Arrays.asList(sailing.ID), connection.findAvailableTrips(
+						RoomType.SUITE, 1, null, null));
+
+		TripBuilder portless = new TripBuilder(
+				connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2)));
+		for(CostType type : new CostType[] {Service.MEALS, Service.DRINKS,
+					RoomType.INTERIOR, RoomType.OUTSIDE, RoomType.BALCONY,
+					RoomType.SUITE}) {
+			portless.addCost(type, 100);
+		}
+		connection.createTrip(portless);
+		assertEquals(Arrays.asList(sailing.ID), connection.findAvailableTrips(
+						RoomType.SUITE, 1, null, null));
+	}
+
+	@Test
+	public void indexAgreesWithTheDatabaseSearch() {
+		for(int i = 0; i < 6; i++) {
+			Ship ship = connection.createShip(TestDatabase.roomCounts(3, 3, 3, 3));
+			Trip trip = connection.createTrip(
+							TestDatabase.tripBuilder(ship, i * 5, 1 + i % 4));
+			for(int j = 0; j < i * 2; j++) {
+				connection.bookTrip(trip, "Guest " + j, false, false,
+									RoomType.OUTSIDE);
+			}
+		}
+		for(int cabins = 0; cabins <= 3; cabins++) {
+			TripQuery query = new TripQuery()
+					.minFreeCabins(RoomType.OUTSIDE, cabins)
+					.departingBetween(day(5), day(20));
+			Object[] searched = connection.searchTrips(query, 0, 100).stream()
+					.map(trip -> trip.ID).toArray();
+			assertEquals(Arrays.asList(searched), connection.findAvailableTrips(
+					RoomType.OUTSIDE, cabins, day(5), day(20)));
+		}
+	}
+}
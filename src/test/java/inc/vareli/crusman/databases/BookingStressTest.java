@@ -0,0 +1,109 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Books trips from many threads at once to check that bookTrip never sells
+ * more places than a trip has.
+ */
+public class BookingStressTest {
+	private static final int THREADS = 8;
+
+	private String name;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() {
+		name = "booking" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+				() -> java.sql.DriverManager.getConnection(
+						TestDatabase.url(name) + ";LOCK_TIMEOUT=10000", "sa", ""),
+				THREADS, 10000, 60000));
+	}
+
+	private int count(String query) throws Exception {
+		try(Connection raw = TestDatabase.open(name)) {
+			ResultSet rows = raw.createStatement().executeQuery(query);
+			rows.next();
+			return rows.getInt(1);
+		}
+	}
+
+	/**
+	 * Runs the same number of bookings on each trip, one thread per trip slot.
+	 * @return how many bookings succeeded
+	 */
+	private int bookConcurrently(List<Trip> trips, int bookingsPerThread)
+												throws Exception {
+		AtomicInteger booked = new AtomicInteger();
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for(int i = 0; i < THREADS; i++) {
+			Trip trip = trips.get(i % trips.size());
+			Callable<Void> agent = () -> {
+				for(int j = 0; j < bookingsPerThread; j++) {
+					try {
+						connection.bookTrip(trip, "Passenger", true, false,
+											RoomType.BALCONY);
+						booked.incrementAndGet();
+					} catch(IllegalArgumentException full) {
+						//sold out
+					}
+				}
+				return null;
+			};
+			results.add(threads.submit(agent));
+		}
+		for(Future<?> result : results) {
+			result.get();
+		}
+		threads.shutdown();
+		return booked.get();
+	}
+
+	@Test
+	public void neverOverbooksSharedTrip() throws Exception {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 5, 1));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 7));
+		int capacity = trip.getCapacity(RoomType.BALCONY);
+		assertEquals(20, capacity);
+
+		List<Trip> trips = new ArrayList<Trip>();
+		trips.add(trip);
+		assertEquals(capacity, bookConcurrently(trips, 10));
+		assertEquals(capacity, count("select count(*) from Ticket"));
+		assertEquals(capacity, count("select occupancy from RoomInfo " + 
+				"where tripID = " + trip.ID + " and roomType = 'BALCONY'"));
+		assertEquals(0, count("select count(*) from (select roomNumber " + 
+				"from Ticket group by roomNumber having count(*) > 4) overfull"));
+		assertEquals(5, count("select count(distinct roomNumber) from Ticket"));
+		assertEquals(capacity, trip.SHIP.getTotalOccupancy(RoomType.BALCONY));
+	}
+
+	@Test
+	public void roomNumbersMatchInMemoryFillOrder() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 1, 2, 1));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 7));
+		for(int i = 0; i < 8; i++) {
+			String ticket = connection.bookTrip(trip, "Jane Doe", false, false,
+												RoomType.BALCONY);
+			int expected = RoomType.BALCONY.ordinal() * 100 + 2 + i / 4;
+			assertTrue(ticket, ticket.contains("Room Number: " + expected + "\n"));
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkImportTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		String name = "bulkImport" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	private Path write(String name, String... lines) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	@Test
+	public void csvReaderHandlesQuotes() throws Exception {
+		try(CsvReader csv = new CsvReader(new StringReader(
+				"trip,port\r\n1,\"Rome, \"\"Old\"\" Town\"\n\n2,\"Pi\nsa\"\n"),
+				"trip", "port")) {
+			List<String> row = csv.next();
+			assertEquals("Rome, \"Old\" Town", csv.get(row, "port"));
+			assertEquals(2, csv.getLine());
+			row = csv.next();
+			assertEquals("2", csv.get(row, "trip"));
+			assertEquals("Pi\nsa", csv.get(row, "port"));
+			assertEquals(4, csv.getLine());
+			assertNull(csv.next());
+		}
+	}
+
+	@Test
+	public void filesAreImportedAndBadRowsReported() throws Exception {
+		Path ships = write("ships.csv", "ship,interior,outside,balcony,suites",
+				"big,10,10,10,2", "small,2,2,2,x");
+		Path trips = write("trips.csv", "trip,ship,meals,drinks",
+				"spring,big,120,80", "lost,small,120,80");
+		Path ports = write("ports.csv", "trip,port,arrival,departure,zone",
+				"spring,Rome,2030-03-01,2030-03-01T18:00,Europe/Rome",
+				"spring,Pisa,2030-03-05,2030-03-05,Europe/Rome",
+				"spring,Rome,2030-03-06,2030-03-06,Europe/Rome",
+				"lost,Genoa,2030-03-01,2030-03-01,");
+		Path fees = write("fees.csv", "trip,roomType,fee",
+				"spring,INTERIOR,500", "spring,Outside,800",
+				"spring,balcony,1200", "spring,SUITE,3000", "spring,attic,10");
+
+		ImportReport report = connection.importCsv(ships, trips, ports, fees);
+		assertEquals(1, report.getImported("ships.csv"));
+		assertEquals(1, report.getRejected("ships.csv"));
+		assertEquals(1, report.getImported("trips.csv"));
+		assertEquals(1, report.getRejected("trips.csv"));
+		//the second Rome breaks the primary key, and is found row by row
+		assertEquals(2, report.getImported("ports.csv"));
+		assertEquals(2, report.getRejected("ports.csv"));
+		assertEquals(4, report.getImported("fees.csv"));
+		assertEquals(1, report.getRejected("fees.csv"));
+		assertEquals(5, report.getErrors().size());
+		assertTrue(report.getErrors().get(0).startsWith("ships.csv line 3"));
+
+		List<Trip> loaded = connection.queryTrip();
+		assertEquals(1, loaded.size());
+		Trip spring = loaded.get(0);
+		assertEquals(2, spring.PORTS.size());
+		assertEquals(120, spring.COSTS.get(Service.MEALS), 0);
+		assertEquals(3000, spring.COSTS.get(RoomType.SUITE), 0);
+		assertEquals(2, spring.SHIP.getRoomCount(RoomType.SUITE));
+		connection.bookTrip(spring, "Jane Doe", false, false, RoomType.SUITE);
+	}
+
+	@Test
+	public void incompleteTripsAreRejected() throws Exception {
+		Path ships = write("ships.csv", "ship,interior,outside,balcony,suites",
+				"big,10,10,10,2");
+		Path trips = write("trips.csv", "trip,ship,meals,drinks",
+				"good,big,120,80", "overlap,big,120,80", "unpriced,big,120,80",
+				"nowhere,big,120,80", "typo,big,120,80");
+		Path ports = write("ports.csv", "trip,port,arrival,departure",
+				"good,Rome,2030-03-01,2030-03-01", "good,Pisa,2030-03-05,2030-03-05",
+				"overlap,Rome,2030-03-01,2030-03-10",
+				"overlap,Pisa,2030-03-05,2030-03-12",
+				"unpriced,Rome,2030-03-01,2030-03-01",
+				"typo,Rome,2030-03-01,2030-03-01", "typo,Pisa,2030-13-05,2030-03-05");
+		String[] feeLines = new String[1 + 4 * 4];
+		feeLines[0] = "trip,roomType,fee";
+		String[] priced = {"good", "overlap", "nowhere", "typo"};
+		for(int i = 0; i < priced.length; i++) {
+			for(RoomType type : RoomType.values()) {
+				feeLines[1 + i * 4 + type.ordinal()] = priced[i] + "," + 
+													type.name() + ",500";
+			}
+		}
+
+		ImportReport report = connection.importCsv(ships, trips, ports,
+													write("fees.csv", feeLines));
+		assertEquals(1, report.getImported("trips.csv"));
+		assertEquals(4, report.getRejected("trips.csv"));
+		assertEquals(2, report.getImported("ports.csv"));
+		assertEquals(4, report.getImported("fees.csv"));
+		List<String> errors = report.getErrors();
+		assertTrue(errors.get(0), errors.get(0).endsWith(
+				"Trip overlap arrives at a port before it leaves the one before"));
+		assertTrue(errors.get(1), errors.get(1).endsWith(
+				"Trip unpriced has no fee for INTERIOR rooms"));
+		assertTrue(errors.get(2), errors.get(2).endsWith(
+				"Trip nowhere has no ports"));
+		assertTrue(errors.get(3), errors.get(3).endsWith(
+				"Trip typo has a bad row on ports.csv line 8"));
+
+		List<Trip> loaded = connection.queryTrip();
+		assertEquals(1, loaded.size());
+		assertEquals(2, loaded.get(0).PORTS.size());
+	}
+
+	@Test
+	public void importNeedsOnlyOneConnection() throws Exception {
+		String name = "bulkImportSingle" + System.nanoTime();
+		CMConnection single = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.open(name), 1, 1000, 60000));
+		Path ships = write("ships.csv", "ship,interior,outside,balcony,suites",
+				"big,10,10,10,2");
+		ImportReport report = single.importCsv(ships, null, null, null);
+		assertEquals(1, report.getImported("ships.csv"));
+		single.close();
+	}
+
+	@Test
+	public void rowsAreWrittenManyAtATime() throws Exception {
+		int trips = 2500;
+		String[] tripLines = new String[trips + 1];
+		String[] portLines = new String[trips * 2 + 1];
+		String[] feeLines = new String[trips * 4 + 1];
+		tripLines[0] = "trip,ship,meals,drinks";
+		portLines[0] = "trip,port,arrival,departure";
+		feeLines[0] = "trip,roomType,fee";
+		for(int i = 1; i <= trips; i++) {
+			tripLines[i] = "t" + i + ",fleet,100,100";
+			portLines[i * 2 - 1] = "t" + i + ",Rome,2030-01-01,2030-01-01";
+			portLines[i * 2] = "t" + i + ",Pisa,2030-01-04,2030-01-04";
+			for(RoomType type : RoomType.values()) {
+				feeLines[i * 4 - 3 + type.ordinal()] = "t" + i + "," + 
+													type.name() + ",500";
+			}
+		}
+		Path ships = write("ships.csv", "ship,interior,outside,balcony,suites",
+							"fleet,100,100,100,10");
+		executions.set(0);
+		ImportReport report = connection.importCsv(ships,
+					write("trips.csv", tripLines), write("ports.csv", portLines),
+					write("fees.csv", feeLines));
+
+		assertEquals(trips * 7 + 1, report.getRowsImported());
+		assertEquals(0, report.getRowsRejected());
+		assertTrue(report.getRowsPerSecond() > 0);
+		//17500 rows, 100 to an insert, plus the ID reservations
+		assertTrue("took " + executions.get(), executions.get() < 200);
+		assertEquals(trips, connection.queryTrip().size());
+	}
+}
@@ -0,0 +1,140 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Test;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class CatalogCacheTest {
+
+	@Test
+	public void entriesExpireAfterTtl() {
+		AtomicLong now = new AtomicLong();
+		AtomicInteger loads = new AtomicInteger();
+		CatalogCache<String,Integer> cache = 
+						new CatalogCache<String,Integer>(4, 100, now::get);
+
+		assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+		now.set(99);
+		assertEquals(1, (int) cache.get("a", loads::incrementAndGet));
+		now.set(100);
+		assertEquals(2, (int) cache.get("a", loads::incrementAndGet));
+
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(2, stats.getMisses());
+		assertEquals(1.0 / 3, stats.getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+		CatalogCache<String,String> cache = 
+						new CatalogCache<String,String>(2, 1000, () -> 0);
+		cache.get("a", () -> "a");
+		cache.get("b", () -> "b");
+		cache.get("a", () -> "stale");
+		cache.get("c", () -> "c");
+
+		assertEquals(2, cache.size());
+		assertEquals("a", cache.get("a", () -> "reloaded"));
+		assertEquals("reloaded b", cache.get("b", () -> "reloaded b"));
+		assertEquals(2, cache.getStats().getEvictions());
+	}
+
+	@Test
+	public void loadRacingAnInvalidateIsNotKept() {
+		CatalogCache<String,String> cache = 
+						new CatalogCache<String,String>(2, 1000, () -> 0);
+		String loaded = cache.get("a", () -> {
+			cache.invalidateAll();
+			return "old";
+		});
+
+		assertEquals("old", loaded);
+		assertEquals(0, cache.size());
+		assertEquals("new", cache.get("a", () -> "new"));
+	}
+
+	@Test
+	public void updatesChangeOrDropEntries() {
+		CatalogCache<String,String> cache = 
+						new CatalogCache<String,String>(4, 1000, () -> 0);
+		cache.get("a", () -> "a");
+		cache.get("b", () -> "b");
+		String loaded = cache.get("c", () -> {
+			cache.update((key, value) -> key.equals("a") ? "changed" : null);
+			return "old";
+		});
+
+		assertEquals("old", loaded);
+		assertEquals(1, cache.size());
+		assertEquals("changed", cache.get("a", () -> "reloaded"));
+	}
+
+	@Test
+	public void callersGetTripsOfTheirOwn() {
+		CMConnection connection = new CMConnection(
+						TestDatabase.pool("copies" + System.nanoTime(), 2));
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		connection.createTrip(TestDatabase.tripBuilder(ship, 0, 4));
+		TripQuery bothSuites = new TripQuery().minFreeCabins(RoomType.SUITE, 2);
+		assertEquals(1, connection.searchTrips(bothSuites, 0, 10).size());
+
+		Trip mine = connection.queryTrip().get(0);
+		mine.SHIP.addPersonTo(RoomType.SUITE, mine.addPerson(RoomType.SUITE));
+		assertEquals(0, connection.queryTrip().get(0).SHIP
+								.getTotalOccupancy(RoomType.SUITE));
+
+		//a suite is booked, so the cached search is no good any more
+		connection.bookTrip(mine, "Jane Doe", false, false, RoomType.SUITE);
+		Trip page = connection.queryTripPage(0, 10).get(0);
+		assertNotSame(page, connection.queryTripPage(0, 10).get(0));
+		assertEquals(1, page.SHIP.getTotalOccupancy(RoomType.SUITE));
+		assertEquals(0, connection.searchTrips(bothSuites, 0, 10).size());
+		connection.close();
+	}
+
+	@Test
+	public void writesInvalidateTheCatalog() throws Exception {
+		AtomicInteger executions = new AtomicInteger();
+		String name = "catalog" + System.nanoTime();
+		CMConnection connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 4));
+		assertEquals(1, connection.queryTrip().size());
+		assertEquals(1, connection.queryShip().size());
+
+		executions.set(0);
+		for(int i = 0; i < 10; i++) {
+			connection.queryTrip();
+			connection.queryShip();
+		}
+		assertEquals(0, executions.get());
+		assertEquals(10, connection.getTripCacheStats().getHits());
+		assertNotSame(connection.queryShip().get(0), 
+						connection.queryShip().get(0));
+
+		//bookings and new trips are applied to the cached catalog
+		connection.bookTrip(trip, "Jane Doe", false, false, RoomType.SUITE);
+		Trip second = connection.createTrip(TestDatabase.tripBuilder(ship, 5, 4));
+		executions.set(0);
+		List<Trip> trips = connection.queryTrip();
+		assertEquals(0, executions.get());
+		assertEquals(2, trips.size());
+		assertEquals(second.ID, trips.get(1).ID);
+		assertEquals(1, trips.get(0).SHIP.getTotalOccupancy(RoomType.SUITE));
+		connection.queryShip();
+		assertEquals(0, executions.get());
+
+		connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		assertEquals(2, connection.queryShip().size());
+		connection.close();
+	}
+}
@@ -0,0 +1,126 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.ConnectionPool.PooledConnection;
+
+import org.junit.Test;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+	private final String name = "pool" + System.nanoTime();
+	private final AtomicInteger opened = new AtomicInteger();
+
+	private ConnectionPool pool(int size, long borrowTimeout, long maxIdle) {
+		return new ConnectionPool(() -> {
+			opened.incrementAndGet();
+			return TestDatabase.open(name);
+		}, size, borrowTimeout, maxIdle);
+	}
+
+	@Test
+	public void reusesReturnedConnections() throws SQLException {
+		ConnectionPool pool = pool(2, 1000, 60000);
+		PooledConnection first = pool.borrow();
+		first.close();
+		PooledConnection second = pool.borrow();
+		assertSame(first.connection, second.connection);
+		second.close();
+		second.close();
+		assertEquals(1, opened.get());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void borrowTimesOutWhenExhausted() throws SQLException {
+		ConnectionPool pool = pool(1, 100, 60000);
+		try(PooledConnection held = pool.borrow()) {
+			assertFalse(held.connection.isClosed());
+			pool.borrow();
+			fail("pool of one should not hand out a second connection");
+		} catch(SQLTimeoutException e) {
+			assertEquals(1, opened.get());
+		}
+		pool.borrow().close();
+	}
+
+	@Test
+	public void replacesClosedConnections() throws SQLException {
+		ConnectionPool pool = pool(1, 1000, 60000);
+		PooledConnection broken = pool.borrow();
+		broken.connection.close();
+		broken.close();
+		try(PooledConnection fresh = pool.borrow()) {
+			assertFalse(fresh.connection.isClosed());
+		}
+		assertEquals(2, opened.get());
+	}
+
+	@Test
+	public void evictsIdleConnections() throws Exception {
+		ConnectionPool pool = pool(2, 1000, 10);
+		PooledConnection pooled = pool.borrow();
+		pooled.close();
+		Thread.sleep(50);
+		pool.evictIdle();
+		assertEquals(0, pool.getIdleCount());
+		assertTrue(pooled.connection.isClosed());
+	}
+
+	@Test
+	public void rollsBackLeftoverTransactions() throws SQLException {
+		ConnectionPool pool = pool(1, 1000, 60000);
+		try(PooledConnection pooled = pool.borrow()) {
+			pooled.connection.createStatement()
+					.executeUpdate("create table Leftover (id int)");
+			pooled.connection.setAutoCommit(false);
+			pooled.connection.createStatement()
+					.executeUpdate("insert into Leftover values (1)");
+		}
+		try(PooledConnection pooled = pool.borrow()) {
+			assertTrue(pooled.connection.getAutoCommit());
+			java.sql.ResultSet rows = pooled.connection.createStatement()
+					.executeQuery("select count(*) from Leftover");
+			rows.next();
+			assertEquals(0, rows.getInt(1));
+		}
+	}
+
+	@Test
+	public void neverOpensMoreThanMaxSize() throws Exception {
+		ConnectionPool pool = pool(3, 5000, 60000);
+		AtomicInteger inUse = new AtomicInteger();
+		AtomicInteger mostInUse = new AtomicInteger();
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for(int i = 0; i < 200; i++) {
+			results.add(threads.submit(() -> {
+				try(PooledConnection pooled = pool.borrow()) {
+					mostInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+					pooled.connection.createStatement().executeQuery("select 1");
+					inUse.decrementAndGet();
+				}
+				return null;
+			}));
+		}
+		for(Future<?> result : results) {
+			result.get();
+		}
+		threads.shutdown();
+		threads.awaitTermination(10, TimeUnit.SECONDS);
+		assertTrue(mostInUse.get() <= 3);
+		assertTrue(opened.get() <= 3);
+	}
+}
@@ -0,0 +1,68 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CostTableTest {
+
+	@Test
+	public void roomsAndServicesHaveTheirOwnSlots() {
+		CostTable costs = new CostTable();
+		costs.set(RoomType.INTERIOR, 100);
+		costs.set(Service.MEALS, 20);
+		costs.set(Service.DRINKS, 3);
+		costs.set(RoomType.INTERIOR, 200);
+
+		assertEquals(200, costs.get(RoomType.INTERIOR), 0);
+		assertEquals(20, costs.get(Service.MEALS), 0);
+		assertEquals(0, costs.get(RoomType.OUTSIDE), 0);
+		assertTrue(costs.has(Service.DRINKS));
+		assertFalse(costs.has(RoomType.OUTSIDE));
+		assertEquals(223, costs.getTotal(), 0);
+		assertArrayEquals(new CostType[] {RoomType.INTERIOR, Service.MEALS,
+							Service.DRINKS}, costs.getTypes());
+		assertEquals(RoomType.OUTSIDE, costs.missing());
+	}
+
+	@Test
+	public void builtTripsKeepTheirOwnCosts() {
+		TripBuilder builder = TestDatabase.tripBuilder(
+					new Ship(1, TestDatabase.roomCounts(1, 1, 1, 1)), 0, 3);
+		Trip trip = builder.build(1);
+		assertNull(trip.COSTS.missing());
+		assertEquals(120 + 130 + 140 + 150 + 160 + 170, trip.getTotalFees(), 0);
+
+		builder.addCost(RoomType.SUITE, 1000);
+		assertEquals(170, trip.COSTS.get(RoomType.SUITE), 0);
+		assertEquals(1000, builder.build(2).COSTS.get(RoomType.SUITE), 0);
+	}
+
+	@Test
+	public void tripsWithoutEveryCostAreNotCreated() {
+		CMConnection connection = new CMConnection(
+						TestDatabase.pool("costTable" + System.nanoTime(), 1));
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		TripBuilder builder = new TripBuilder(ship);
+		builder.addCost(Service.MEALS, 10);
+		assertEquals(RoomType.INTERIOR, builder.missingCost());
+		builder.addPort(new java.util.Date(0), new java.util.Date(0), "Rome",
+						"GMT");
+		try {
+			connection.createTrip(builder);
+			fail("a trip without room costs was created");
+		} catch (IllegalArgumentException e) {
+			assertEquals("No cost was given for Interior", e.getMessage());
+		}
+		assertEquals(0, connection.queryTrip().size());
+	}
+}
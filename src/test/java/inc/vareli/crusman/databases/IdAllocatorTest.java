@@ -0,0 +1,131 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.IdAllocator.Sequence;
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdAllocatorTest {
+	private String name;
+	private AtomicInteger executions;
+	private ConnectionPool pool;
+
+	@Before
+	public void setUp() {
+		name = "ids" + System.nanoTime();
+		executions = new AtomicInteger();
+		pool = new ConnectionPool(
+				() -> TestDatabase.counting(TestDatabase.open(name), executions),
+				4, 10000, 60000);
+		new CMConnection(pool);
+	}
+
+	@Test
+	public void handsOutBlocksFromMemory() throws Exception {
+		IdAllocator ids = new IdAllocator(pool, 10);
+		executions.set(0);
+		assertEquals(1, ids.next(Sequence.TRIP));
+		int firstBlock = executions.get();
+		for(int i = 2; i <= 10; i++) {
+			assertEquals(i, ids.next(Sequence.TRIP));
+		}
+		assertEquals(firstBlock, executions.get());
+		assertEquals(11, ids.next(Sequence.TRIP));
+		assertTrue(executions.get() > firstBlock);
+	}
+
+	@Test
+	public void startsAfterExistingRows() throws Exception {
+		try(Connection raw = TestDatabase.open(name)) {
+			raw.createStatement().executeUpdate(
+					"insert into CruiseShip values (41,1,1,1,1)");
+		}
+		IdAllocator ids = new IdAllocator(pool, 5);
+		assertEquals(42, ids.next(Sequence.SHIP));
+		assertEquals(1, ids.next(Sequence.TICKET));
+	}
+
+	@Test
+	public void separateAllocatorsNeverCollide() throws Exception {
+		List<IdAllocator> processes = new ArrayList<IdAllocator>();
+		for(int i = 0; i < 4; i++) {
+			processes.add(new IdAllocator(pool, 7));
+		}
+		Set<Long> seen = ConcurrentHashMap.newKeySet();
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for(int i = 0; i < 8; i++) {
+			IdAllocator ids = processes.get(i % processes.size());
+			results.add(threads.submit(() -> {
+				for(int j = 0; j < 250; j++) {
+					assertTrue(seen.add(ids.next(Sequence.TICKET)));
+				}
+				return null;
+			}));
+		}
+		for(Future<?> result : results) {
+			result.get();
+		}
+		threads.shutdown();
+		assertEquals(2000, seen.size());
+	}
+
+	@Test
+	public void rejectedRowsDoNotUseUpIds() {
+		CMConnection connection = new CMConnection(pool);
+		Ship first = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		try {
+			connection.createShip(TestDatabase.roomCounts(1, -1, 1, 1));
+			fail("a ship with a negative room count was created");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		Ship second = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		assertEquals(first.ID + 1, second.ID);
+
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(first, 0, 3));
+		try {
+			connection.createTrip(new TripBuilder(first));
+			fail("a trip without costs was created");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		TripBuilder overlaps = TestDatabase.tripBuilder(first, 0, 3);
+		overlaps.addPort(new Date(0), new Date(0), "Genoa", "GMT");
+		try {
+			connection.createTrip(overlaps);
+			fail("a trip that arrives at Genoa before it leaves Pisa was created");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		Trip next = connection.createTrip(TestDatabase.tripBuilder(first, 5, 3));
+		assertEquals(trip.ID + 1, next.ID);
+
+		Ticket ticket = connection.bookTicket(trip, "Jane Doe", false, false,
+											RoomType.SUITE);
+		try {
+			connection.bookTicket(trip, null, false, false, RoomType.SUITE);
+			fail("a ticket without a customer was booked");
+		} catch (NullPointerException e) {
+			//expected
+		}
+		assertEquals(ticket.getTicketID() + 1, connection.bookTicket(trip,
+				"John Doe", false, false, RoomType.INTERIOR).getTicketID());
+	}
+}
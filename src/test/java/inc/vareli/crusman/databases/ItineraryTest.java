@@ -0,0 +1,119 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Test;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ItineraryTest {
+	private static final long HOUR = 60L * 60 * 1000;
+	private static final long DAY = 24 * HOUR;
+
+	private static TripBuilder builder() {
+		return new TripBuilder(new Ship(1, TestDatabase.roomCounts(1, 1, 1, 1)));
+	}
+
+	/**
+	 * Five ports, a day apart, each from 8:00 to 18:00
+	 */
+	private static Itinerary fivePorts() {
+		TripBuilder builder = builder();
+		String[] names = {"Rome", "Naples", "Palermo", "Valletta", "Athens"};
+		for(int i = 0; i < names.length; i++) {
+			builder.addPort(new Date(i * DAY + 8 * HOUR),
+							new Date(i * DAY + 18 * HOUR), names[i], "Europe/Rome");
+		}
+		return builder.build(1).PORTS;
+	}
+
+	@Test
+	public void timesAreLookedUpByPort() {
+		Itinerary ports = fivePorts();
+		assertEquals(5, ports.size());
+		assertEquals("Palermo", ports.getLocation(2));
+		assertEquals(18 * HOUR, ports.getFirstDeparture());
+		assertEquals(4 * DAY + 8 * HOUR, ports.getLastArrival());
+		//3 days and 14 hours
+		assertEquals(3, ports.getDurationDays());
+		assertEquals("Europe/Rome", ports.getZone(4).getID());
+	}
+
+	@Test
+	public void theShipIsEitherInPortOrAtSea() {
+		Itinerary ports = fivePorts();
+		assertEquals(-1, ports.portAt(0));
+		assertEquals(0, ports.portAt(8 * HOUR));
+		assertEquals(0, ports.portAt(18 * HOUR));
+		assertEquals(-1, ports.portAt(20 * HOUR));
+		assertEquals(3, ports.portAt(3 * DAY + 12 * HOUR));
+		assertEquals(4, ports.portAt(4 * DAY + 18 * HOUR));
+		assertEquals(-1, ports.portAt(5 * DAY));
+
+		assertFalse(ports.isAtSea(12 * HOUR));
+		assertTrue(ports.isAtSea(DAY + 2 * HOUR));
+		assertFalse(ports.isAtSea(2 * DAY + 9 * HOUR));
+		//before it leaves and after it is back, it is not sailing at all
+		assertFalse(ports.isAtSea(0));
+		assertFalse(ports.isAtSea(6 * DAY));
+	}
+
+	@Test
+	public void portsThatTouchAreBothFound() {
+		TripBuilder builder = builder();
+		builder.addPort(new Date(0), new Date(DAY), "Rome", "GMT");
+		builder.addPort(new Date(DAY), new Date(DAY), "Pisa", "GMT");
+		builder.addPort(new Date(DAY), new Date(2 * DAY), "Genoa", "GMT");
+		Itinerary ports = builder.build(1).PORTS;
+		assertEquals(2, ports.portAt(DAY));
+		assertEquals(0, ports.portAt(DAY - 1));
+		//it leaves Rome and reaches Genoa at the same time
+		assertEquals(0, ports.getDurationDays());
+	}
+
+	@Test
+	public void portsOutOfOrderAreRejected() {
+		TripBuilder leavesEarly = builder();
+		leavesEarly.addPort(new Date(DAY), new Date(0), "Rome", "GMT");
+		try {
+			leavesEarly.build(1);
+			fail("a port was left before it was arrived at");
+		} catch (IllegalArgumentException e) {
+			assertEquals("The trip leaves Rome before it arrives there",
+							e.getMessage());
+		}
+
+		TripBuilder overlaps = builder();
+		overlaps.addPort(new Date(0), new Date(2 * DAY), "Rome", "GMT");
+		overlaps.addPort(new Date(DAY), new Date(3 * DAY), "Pisa", "GMT");
+		try {
+			overlaps.build(1);
+			fail("a port was arrived at before the last one was left");
+		} catch (IllegalArgumentException e) {
+			assertEquals("The trip arrives at Pisa before it leaves Rome",
+							e.getMessage());
+		}
+	}
+
+	@Test
+	public void loadedPortsAreNotChecked() {
+		TripBuilder overlaps = builder();
+		overlaps.addPort(new Date(0), new Date(2 * DAY), "Rome", "GMT");
+		overlaps.addPort(new Date(DAY), new Date(3 * DAY), "Pisa", "GMT");
+		Itinerary ports = overlaps.load(1).PORTS;
+		assertEquals(2, ports.size());
+		assertEquals(1, ports.portAt(2 * DAY + HOUR));
+	}
+
+	@Test
+	public void zoneIdsAreShared() {
+		assertSame(Itinerary.internZone(new String("Europe/Rome")),
+					Itinerary.internZone(new String("Europe/Rome")));
+		assertEquals("GMT", Itinerary.internZone("Not a zone"));
+	}
+}
@@ -0,0 +1,156 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestExportTest {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private String name;
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		name = "manifest" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	private Trip createTrip(int firstDay, int days) {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		return connection.createTrip(TestDatabase.tripBuilder(ship, firstDay, days));
+	}
+
+	private String export(TripQuery query, ManifestFormat format)
+											throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		connection.exportManifest(query, format, Channels.newChannel(bytes));
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String day(int day) {
+		return new java.sql.Date(day * DAY).toString();
+	}
+
+	@Test
+	public void ticketsAreWrittenWithTheirTrips() throws Exception {
+		Trip trip = createTrip(100, 3);
+		Trip empty = createTrip(110, 3);
+		connection.bookTrip(trip, "Jane Doe", true, false, RoomType.SUITE);
+		connection.bookTrip(trip, "Smith, \"Jo\"", false, true, RoomType.INTERIOR);
+
+		String csv = export(new TripQuery().onTrip(trip.ID), ManifestFormat.CSV);
+		String[] lines = csv.split("\n");
+		assertEquals(3, lines.length);
+		assertEquals(String.join(",", ManifestWriter.COLUMNS), lines[0]);
+		assertTrue(lines[1], lines[1].endsWith(",Jane Doe,SUITE,306,true,false," +
+						"290.0,Rome," + day(100) + ",Pisa," + day(103)));
+		assertTrue(lines[2], lines[2].contains(",\"Smith, \"\"Jo\"\"\",INTERIOR,0," +
+						"false,true,270.0,"));
+		assertEquals("", export(new TripQuery().onTrip(empty.ID),
+								ManifestFormat.CSV).split("\n", 2)[1]);
+
+		String json = export(new TripQuery().onTrip(trip.ID),
+								ManifestFormat.JSON_LINES);
+		lines = json.split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1], lines[1].startsWith("{\"tripID\":" + trip.ID + ","));
+		assertTrue(lines[1], lines[1].contains(
+						"\"customerName\":\"Smith, \\\"Jo\\\"\",\"roomType\":\"INTERIOR\""));
+		assertTrue(lines[1], lines[1].endsWith("\"disembarkDate\":\"" +
+						day(103) + "\"}"));
+	}
+
+	@Test
+	public void dateRangesCoverSeveralTrips() throws Exception {
+		Trip first = createTrip(100, 3);
+		Trip second = createTrip(105, 3);
+		Trip later = createTrip(200, 3);
+		for(Trip trip : new Trip[] {later, second, first}) {
+			connection.bookTrip(trip, "Guest " + trip.ID, false, false,
+								RoomType.BALCONY);
+		}
+		String json = export(new TripQuery().departingBetween(
+						new Date(90 * DAY), new Date(150 * DAY)),
+						ManifestFormat.JSON_LINES);
+		String[] lines = json.split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].contains("\"Guest " + first.ID + "\""));
+		assertTrue(lines[1].contains("\"Guest " + second.ID + "\""));
+	}
+
+	@Test
+	public void ticketsForMissingRoomsDoNotStopTheExport() throws Exception {
+		Trip trip = createTrip(100, 3);
+		connection.bookTrip(trip, "Jane Doe", false, false, RoomType.SUITE);
+		try(Connection direct = TestDatabase.open(name);
+			PreparedStatement insert = direct.prepareStatement(
+						"insert into Ticket values(?, ?, ?, ?, ?, ?)")) {
+			insert.setLong(1, 900000);
+			insert.setLong(2, trip.ID);
+			insert.setString(3, "Stowaway");
+			insert.setInt(4, 1);
+			insert.setInt(5, 0);
+			insert.setInt(6, 9999);
+			insert.executeUpdate();
+		}
+
+		String[] lines = export(new TripQuery().onTrip(trip.ID),
+								ManifestFormat.CSV).split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[2], lines[2].contains(",Stowaway,,9999,true,false," +
+						"120.0,Rome,"));
+		String json = export(new TripQuery().onTrip(trip.ID),
+								ManifestFormat.JSON_LINES);
+		assertTrue(json, json.contains(
+						"\"customerName\":\"Stowaway\",\"roomType\":null,"));
+	}
+
+	@Test
+	public void largeManifestsTakeThreeQueries() throws Exception {
+		int passengers = 5000;
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1000, 10, 10, 10));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 100, 2));
+		try(Connection direct = TestDatabase.open(name);
+			PreparedStatement insert = direct.prepareStatement(
+						"insert into Ticket values(?, ?, ?, ?, ?, ?)")) {
+			for(int i = 0; i < passengers; i++) {
+				insert.setLong(1, 100000 + i);
+				insert.setLong(2, trip.ID);
+				insert.setString(3, "Passenger " + i);
+				insert.setInt(4, i % 2);
+				insert.setInt(5, 0);
+				insert.setInt(6, i / trip.getMaxOccupancy());
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		executions.set(0);
+		long written = connection.exportManifest(trip.ID, ManifestFormat.CSV,
+											Channels.newChannel(bytes));
+		assertEquals(passengers, written);
+		assertEquals(3, executions.get());
+		String[] lines = new String(bytes.toByteArray(),
+									StandardCharsets.UTF_8).split("\n");
+		assertEquals(passengers + 1, lines.length);
+		assertTrue(lines[passengers], lines[passengers].contains(
+					",Passenger 4999,INTERIOR,999,true,false,260.0,"));
+	}
+}
@@ -0,0 +1,62 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class OccupancyReportTest {
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		String name = "occupancy" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	@Test
+	public void reportBreaksDownEveryTrip() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip first = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 4));
+		Trip second = connection.createTrip(TestDatabase.tripBuilder(ship, 5, 4));
+		connection.bookTrip(first, "A", false, false, RoomType.SUITE);
+		connection.bookTrip(first, "B", false, false, RoomType.SUITE);
+		connection.bookTrip(first, "C", true, false, RoomType.INTERIOR);
+
+		List<OccupancyRow> rows = connection.occupancyReport();
+		assertEquals(2, rows.size());
+		assertEquals(first.ID, rows.get(0).getTripID());
+		assertEquals(3, rows.get(0).getTotalOccupancy());
+		assertEquals(2, rows.get(0).getOccupancy(RoomType.SUITE));
+		assertEquals(1, rows.get(0).getOccupancy(RoomType.INTERIOR));
+		assertEquals(0, rows.get(0).getOccupancy(RoomType.BALCONY));
+		assertEquals(second.ID, rows.get(1).getTripID());
+		assertEquals(0, rows.get(1).getTotalOccupancy());
+	}
+
+	@Test
+	public void reportUsesOneQuery() throws Exception {
+		for(int i = 0; i < 20; i++) {
+			Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+			Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, i, 3));
+			connection.bookTrip(trip, "Jane Doe", false, true, RoomType.OUTSIDE);
+		}
+		executions.set(0);
+		StringWriter out = new StringWriter();
+		connection.writeOccupancyReport(out);
+		assertEquals(1, executions.get());
+
+		String report = connection.tripOccupancy();
+		assertEquals(out.toString(), report);
+		assertEquals(20, report.split("Total occupancy: 1\n", -1).length - 1);
+	}
+}
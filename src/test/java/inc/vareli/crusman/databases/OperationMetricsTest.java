@@ -0,0 +1,123 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OperationMetricsTest {
+	private CMConnection connection;
+
+	@Before
+	public void setUp() {
+		connection = new CMConnection(TestDatabase.pool(
+						"metrics" + System.nanoTime(), 2));
+	}
+
+	@After
+	public void tearDown() {
+		connection.close();
+	}
+
+	@Test
+	public void histogramPercentilesAreClose() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentile(0.5));
+		for(int micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros);
+		}
+		assertEquals(500, histogram.percentile(0.5), 500 * 0.125);
+		assertEquals(990, histogram.percentile(0.99), 990 * 0.125);
+		assertEquals(1000, histogram.percentile(1.0));
+		assertEquals(1000, histogram.getMax());
+	}
+
+	@Test
+	public void queryTripCountsStatementsAndRows() {
+		for(int i = 0; i < 3; i++) {
+			Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+			connection.createTrip(TestDatabase.tripBuilder(ship, i, 3));
+		}
+		connection.queryTrip();
+		connection.queryTrip();
+
+		OperationMetrics metrics = connection.getMetrics();
+		OperationStats queryTrip = metrics.getOperation("queryTrip");
+		assertEquals(2, queryTrip.getCount());
+		assertEquals(0, queryTrip.getErrors());
+		//one query per table, and the second call was cached
+		assertEquals(4, queryTrip.getStatements());
+		//each trip has one Trip row, four RoomInfo rows and two Port rows
+		assertEquals(21, queryTrip.getRowsRead());
+		assertTrue(queryTrip.getMaxMillis() >= queryTrip.getP50Millis());
+		assertEquals(3, metrics.getOperation("createShip").getCount());
+		assertEquals(3, metrics.getOperation("createTrip").getCount());
+		assertNull(metrics.getOperation("bookTrip"));
+	}
+
+	@Test
+	public void failedCallsCountAsErrors() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 3));
+		int booked = 0;
+		try {
+			while(true) {
+				connection.bookTrip(trip, "Guest " + booked, false, false,
+									RoomType.SUITE);
+				booked++;
+			}
+		} catch (IllegalArgumentException e) {
+			//the suite is full
+		}
+
+		OperationStats bookTrip = connection.getMetrics().getOperation("bookTrip");
+		assertEquals(booked + 1, bookTrip.getCount());
+		assertEquals(1, bookTrip.getErrors());
+		assertTrue(bookTrip.getStatements() >= 3 * booked);
+		assertTrue(bookTrip.getRowsRead() >= booked);
+
+		connection.getMetrics().reset();
+		assertEquals(0, connection.getMetrics().getOperations().length);
+	}
+
+	@Test
+	public void metricsAreShownInJmx() throws Exception {
+		connection.queryShip();
+		OperationMetrics metrics = connection.getMetrics();
+		metrics.register("jdbc:mysql://admin:secret@db:3306/crusman" + 
+						"?user=admin&password=secret");
+		ObjectName name = metrics.getObjectName();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(name));
+		assertEquals("jdbc:mysql://db:3306/crusman",
+						ObjectName.unquote(name.getKeyProperty("url")));
+		assertEquals("jdbc:h2:mem:metrics", OperationMetrics.withoutCredentials(
+						"jdbc:h2:mem:metrics;USER=sa;PASSWORD=secret"));
+
+		CompositeData[] operations =
+				(CompositeData[]) server.getAttribute(name, "Operations");
+		assertEquals(1, operations.length);
+		assertEquals("queryShip", operations[0].get("name"));
+		assertEquals(1L, operations[0].get("count"));
+
+		connection.close();
+		assertFalse(server.isRegistered(name));
+		try {
+			server.getAttribute(name, "Operations");
+			fail("metrics should be unregistered");
+		} catch (javax.management.InstanceNotFoundException e) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RevenueReportTest {
+	private static final double DELTA = 1e-9;
+
+	private CMConnection connection;
+
+	@Before
+	public void setUp() {
+		connection = new CMConnection(
+						TestDatabase.pool("revenue" + System.nanoTime(), 2));
+	}
+
+	private static void assertFigures(int trips, long passengers, long capacity,
+							double revenue, RevenueFigures figures) {
+		assertEquals(trips, figures.getTrips());
+		assertEquals(passengers, figures.getPassengers());
+		assertEquals(capacity, figures.getCapacity());
+		assertEquals(revenue, figures.getRevenue(), DELTA);
+	}
+
+	@Test
+	public void bookingsAreAddedUpPerShipMonthAndRoomType() {
+		Ship big = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Ship small = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		//4 people per room on trips over 2 days, 5 on shorter ones
+		Trip april = connection.createTrip(TestDatabase.tripBuilder(big, 100, 3));
+		Trip may = connection.createTrip(TestDatabase.tripBuilder(big, 130, 3));
+		Trip weekend = connection.createTrip(
+						TestDatabase.tripBuilder(small, 101, 2));
+		connection.bookTrip(april, "Jane Doe", true, false, RoomType.SUITE);
+		connection.bookTrip(april, "John Doe", false, true, RoomType.INTERIOR);
+		connection.bookTrip(weekend, "Jo Smith", false, false, RoomType.BALCONY);
+
+		RevenueReport report = connection.revenueReport();
+		assertFigures(3, 3, 84, 720, report.getTotal());
+		assertEquals(720.0 / 84, report.getTotal().getYield(), DELTA);
+
+		List<TripFigures> trips = report.getTrips();
+		assertEquals(3, trips.size());
+		TripFigures first = trips.get(0);
+		assertEquals(april.ID, first.getTripID());
+		assertEquals(big.ID, first.getShipID());
+		assertEquals(YearMonth.of(1970, 4), first.getMonth());
+		assertEquals(32, first.getCapacity());
+		assertEquals(2, first.getPassengers());
+		assertEquals(560, first.getRevenue(), DELTA);
+		assertEquals(250, first.getPackageRevenue(), DELTA);
+		assertEquals(170, first.getRevenue(RoomType.SUITE), DELTA);
+		assertEquals(2.0 / 32, first.getLoadFactor(), DELTA);
+		assertEquals(1.0 / 8, first.getLoadFactor(RoomType.INTERIOR), DELTA);
+		assertEquals(17.5, first.getYield(), DELTA);
+		assertEquals(0, trips.get(1).getRevenue(), DELTA);
+
+		Map<Long,RevenueFigures> byShip = report.getByShip();
+		assertEquals(2, byShip.size());
+		assertFigures(2, 2, 64, 560, byShip.get(big.ID));
+		assertFigures(1, 1, 20, 160, byShip.get(small.ID));
+
+		Map<YearMonth,RevenueFigures> byMonth = report.getByMonth();
+		assertEquals(2, byMonth.size());
+		assertFigures(2, 3, 52, 720, byMonth.get(YearMonth.of(1970, 4)));
+		assertFigures(1, 0, 32, 0, byMonth.get(YearMonth.of(1970, 5)));
+
+		Map<RoomType,RevenueFigures> byRoomType = report.getByRoomType();
+		assertFigures(3, 1, 21, 170, byRoomType.get(RoomType.SUITE));
+		assertFigures(3, 1, 21, 140, byRoomType.get(RoomType.INTERIOR));
+		assertFigures(3, 1, 21, 160, byRoomType.get(RoomType.BALCONY));
+		assertFigures(3, 0, 21, 0, byRoomType.get(RoomType.OUTSIDE));
+		assertEquals(1.0 / 21,
+					byRoomType.get(RoomType.SUITE).getLoadFactor(), DELTA);
+
+		RevenueReport one = connection.revenueReport(
+						new TripQuery().onTrip(weekend.ID));
+		assertFigures(1, 1, 20, 160, one.getTotal());
+		assertEquals(weekend.ID, one.getTrips().get(0).getTripID());
+	}
+
+	@Test
+	public void tripsWithoutPortsHaveNoMonth() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 0, 0, 0));
+		TripBuilder builder = new TripBuilder(ship);
+		for(CostType type : new CostType[] {Service.MEALS,
+					Service.DRINKS, RoomType.INTERIOR, RoomType.OUTSIDE,
+					RoomType.BALCONY, RoomType.SUITE}) {
+			builder.addCost(type, 100);
+		}
+		connection.createTrip(builder);
+
+		RevenueReport report = connection.revenueReport();
+		assertNull(report.getTrips().get(0).getMonth());
+		assertEquals(0, report.getByMonth().size());
+		assertFigures(1, 0, 5, 0, report.getTotal());
+	}
+
+	@Test
+	public void parallelTotalsMatchOneThread() throws Exception {
+		List<TripFigures> trips = new ArrayList<TripFigures>();
+		for(int i = 0; i < 5000; i++) {
+			int[] capacity = {40, 30, 20, 10};
+			int[] passengers = {i % 41, i % 31, i % 21, i % 11};
+			double[] roomRevenue = new double[4];
+			for(int type = 0; type < 4; type++) {
+				roomRevenue[type] = passengers[type] * (100 + type * 10);
+			}
+			trips.add(new TripFigures(i, i % 7, YearMonth.of(2020, 1 + i % 12),
+						capacity, passengers, roomRevenue, i % 3 * 120));
+		}
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool four = new ForkJoinPool(4);
+		try {
+			RevenueReport expected = RevenueReport.aggregate(trips, one);
+			RevenueReport actual = RevenueReport.aggregate(trips, four);
+			assertEquals(expected.getTotal().toString(),
+						actual.getTotal().toString());
+			assertEquals(expected.getByShip().toString(),
+						actual.getByShip().toString());
+			assertEquals(expected.getByMonth().toString(),
+						actual.getByMonth().toString());
+			assertEquals(expected.getByRoomType().toString(),
+						actual.getByRoomType().toString());
+			assertEquals(5000, actual.getTotal().getTrips());
+			assertEquals(7, actual.getByShip().size());
+			assertEquals(12, actual.getByMonth().size());
+		} finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package inc.vareli.crusman.databases;
+
+import org.junit.Test;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaMigratorTest {
+
+	@Test
+	public void migratesOnceToTheLatestVersion() throws Exception {
+		try(Connection connector = TestDatabase.open("migrate" + System.nanoTime());
+				Statement stmt = connector.createStatement()) {
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							SchemaMigrator.migrate(connector));
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							SchemaMigrator.migrate(connector));
+			ResultSet applied = stmt.executeQuery(
+								"select COUNT(*) from SchemaVersion");
+			applied.next();
+			assertEquals(SchemaMigrator.MIGRATIONS.size(), applied.getInt(1));
+		}
+	}
+
+	@Test
+	public void keepsTablesFromBeforeMigrations() throws Exception {
+		try(Connection connector = TestDatabase.open("legacy" + System.nanoTime());
+				Statement stmt = connector.createStatement()) {
+			stmt.executeUpdate("Create table CruiseShip (" +
+							"shipID int unsigned not null primary key, " +
+							"interiorRooms int unsigned not null, " +
+							"outsideRooms int unsigned not null, " +
+							"balconyRooms int unsigned not null, " +
+							"suites int unsigned not null)");
+			stmt.executeUpdate("insert into CruiseShip values (7, 1, 2, 3, 4)");
+
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							SchemaMigrator.migrate(connector));
+			ResultSet ships = stmt.executeQuery("select shipID from CruiseShip");
+			assertTrue(ships.next());
+			assertEquals(7, ships.getInt("shipID"));
+		}
+	}
+
+	@Test
+	public void migrationsThatStoppedPartWayRunAgain() throws Exception {
+		try(Connection connector = TestDatabase.open("partial" + System.nanoTime());
+				Statement stmt = connector.createStatement()) {
+			SchemaMigrator.migrate(connector);
+			//as if MySQL committed the first indexes and then the last failed
+			stmt.executeUpdate("drop index TicketByCustomer");
+			stmt.executeUpdate("delete from SchemaVersion where version = 2");
+			assertEquals(1, SchemaMigrator.currentVersion(connector));
+
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							SchemaMigrator.migrate(connector));
+			assertUses(stmt, "TicketByCustomer", "select ticketID from Ticket " +
+					"where customerName = 'Jane Doe'");
+		}
+	}
+
+	@Test
+	public void onlyOneTerminalMigratesAtATime() throws Exception {
+		String name = "lock" + System.nanoTime();
+		try(Connection holder = TestDatabase.open(name);
+				Connection waiter = TestDatabase.open(name);
+				Statement stmt = holder.createStatement()) {
+			stmt.executeUpdate(SchemaMigrator.TABLE_CREATOR);
+			stmt.executeUpdate("insert into SchemaVersion values " +
+							"(-1, 'Migrating', CURRENT_TIMESTAMP)");
+			CompletableFuture<Integer> migrated =
+							CompletableFuture.supplyAsync(() -> {
+				try {
+					return SchemaMigrator.migrate(waiter);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			Thread.sleep(500);
+			assertFalse(migrated.isDone());
+			assertEquals(0, SchemaMigrator.currentVersion(holder));
+
+			stmt.executeUpdate("delete from SchemaVersion where version = -1");
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							(int) migrated.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void locksLeftBehindAreTakenOver() throws Exception {
+		try(Connection connector = TestDatabase.open("stale" + System.nanoTime());
+				Statement stmt = connector.createStatement()) {
+			stmt.executeUpdate(SchemaMigrator.TABLE_CREATOR);
+			stmt.executeUpdate("insert into SchemaVersion values " +
+							"(-1, 'Migrating', '2000-01-01 00:00:00')");
+			assertEquals(SchemaMigrator.LATEST_VERSION,
+							SchemaMigrator.migrate(connector));
+			ResultSet applied = stmt.executeQuery(
+								"select COUNT(*) from SchemaVersion");
+			applied.next();
+			assertEquals(SchemaMigrator.MIGRATIONS.size(), applied.getInt(1));
+		}
+	}
+
+	@Test
+	public void hotQueriesUseTheIndexes() throws Exception {
+		try(Connection connector = TestDatabase.open("explain" + System.nanoTime());
+				Statement stmt = connector.createStatement()) {
+			SchemaMigrator.migrate(connector);
+			assertUses(stmt, "PortByTrip", "select tripID, portName, " +
+					"arrivalDate, departureDate from Port " +
+					"where tripID > 1 and tripID <= 9 " +
+					"order by tripID, departureDate");
+			assertUses(stmt, "RoomInfoByTrip", "select tripID, roomType, fees " +
+					"from RoomInfo where tripID > 1 and tripID <= 9 " +
+					"order by tripID");
+			assertUses(stmt, "TicketByTrip", "select roomNumber from Ticket " +
+					"where tripID = 3");
+			assertUses(stmt, "TicketByCustomer", "select ticketID from Ticket " +
+					"where customerName = 'Jane Doe'");
+		}
+	}
+
+	private static void assertUses(Statement stmt, String index, String query)
+											throws Exception {
+		ResultSet plan = stmt.executeQuery("explain " + query);
+		plan.next();
+		String text = plan.getString(1);
+		assertTrue(index + " is not used by:\n" + text,
+					text.toLowerCase().contains(index.toLowerCase()));
+	}
+}
@@ -0,0 +1,138 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Test;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ShipTest {
+
+	/**
+	 * The original addPerson: a scan from the first room for one of the right
+	 * type with space in it.
+	 */
+	private static int scanAddPerson(RoomType[] types, int[] counts,
+									RoomType roomType, int maxOccupancy) {
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == roomType && counts[i] < maxOccupancy) {
+				counts[i]++;
+				return (roomType.ordinal()*100)+i;
+			}
+		}
+		return -1;
+	}
+
+	@Test
+	public void matchesLinearScanRoomNumbers() {
+		EnumMap<RoomType,Integer> roomCounts = TestDatabase.roomCounts(3, 2, 4, 1);
+		Ship ship = new Ship(1, roomCounts);
+		RoomType[] types = new RoomType[10];
+		int next = 0;
+		for (RoomType type : roomCounts.keySet()) {
+			for (int i = 0; i < roomCounts.get(type); i++) {
+				types[next++] = type;
+			}
+		}
+		int[] counts = new int[types.length];
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			RoomType type = RoomType.values()[random.nextInt(4)];
+			int maxOccupancy = 4 + random.nextInt(2);
+			assertEquals(scanAddPerson(types, counts, type, maxOccupancy),
+						ship.addPerson(type, maxOccupancy));
+		}
+	}
+
+	@Test
+	public void keepsCountsPerType() {
+		Ship ship = new Ship(1, TestDatabase.roomCounts(2, 1, 1, 2));
+		assertEquals(0, ship.addPerson(RoomType.INTERIOR, 2));
+		assertEquals(0, ship.addPerson(RoomType.INTERIOR, 2));
+		assertEquals(1, ship.addPerson(RoomType.INTERIOR, 2));
+		assertEquals(2, ship.getEmptyRoomCount(RoomType.SUITE));
+		assertEquals(3, ship.getTotalOccupancy(RoomType.INTERIOR));
+		assertEquals(0, ship.getEmptyRoomCount(RoomType.INTERIOR));
+		assertEquals(2, ship.getRoomCount(RoomType.INTERIOR));
+
+		assertEquals(102, ship.addPerson(RoomType.OUTSIDE, 1));
+		assertFalse(ship.hasSpace(RoomType.OUTSIDE, 1));
+		assertEquals(-1, ship.addPerson(RoomType.OUTSIDE, 1));
+		assertTrue(ship.hasSpace(RoomType.OUTSIDE, 2));
+		assertEquals(102, ship.addPerson(RoomType.OUTSIDE, 2));
+		assertEquals(2, ship.getTotalOccupancy(RoomType.OUTSIDE));
+	}
+
+	@Test
+	public void placesLineUpWithAddPerson() {
+		Ship ship = new Ship(1, TestDatabase.roomCounts(2, 3, 4, 5));
+		for (int place = 0; place < 16; place++) {
+			int expected = ship.roomNumberFor(RoomType.BALCONY, place, 4);
+			assertEquals(expected, ship.addPerson(RoomType.BALCONY, 4));
+		}
+		assertEquals(-1, ship.addPerson(RoomType.BALCONY, 4));
+	}
+
+	@Test
+	public void addPersonSkipsRoomsFilledElsewhere() {
+		Ship ship = new Ship(1, TestDatabase.roomCounts(0, 0, 0, 3));
+		ship.addPersonTo(RoomType.SUITE, 300);
+		ship.addPersonTo(RoomType.SUITE, 300);
+		assertEquals(301, ship.addPerson(RoomType.SUITE, 2));
+		assertEquals(3, ship.getTotalOccupancy(RoomType.SUITE));
+		assertEquals(1, ship.getEmptyRoomCount(RoomType.SUITE));
+	}
+
+	@Test
+	public void fillsLargeShipQuickly() {
+		Ship ship = new Ship(1, TestDatabase.roomCounts(1000, 1000, 500, 500));
+		long start = System.nanoTime();
+		for (int i = 0; i < 4000; i++) {
+			assertTrue(ship.addPerson(RoomType.INTERIOR, 4) >= 0);
+		}
+		assertEquals(-1, ship.addPerson(RoomType.INTERIOR, 4));
+		assertEquals(4000, ship.getTotalOccupancy(RoomType.INTERIOR));
+		assertTrue((System.nanoTime() - start) < 1000L * 1000 * 1000);
+	}
+
+	/**
+	 * @return how many bytes this thread has allocated so far. Unlike the
+	 * used heap, this does not depend on when the collector runs.
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	public void fleetFootprintIsAboutOneBytePerCabin() {
+		//a season of 2,000 sailings on 3,000 cabin ships
+		int sailings = 2000;
+		long cabins = 3000L * sailings;
+		EnumMap<RoomType,Integer> roomCounts = 
+						TestDatabase.roomCounts(1200, 900, 700, 200);
+		Ship[] fleet = new Ship[sailings];
+		ThreadMXBean threads = 
+				(ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long before = allocatedBytes(threads);
+		for (int i = 0; i < sailings; i++) {
+			fleet[i] = new Ship(i, roomCounts);
+			fleet[i].addPerson(RoomType.SUITE, 4);
+		}
+		double bytesPerCabin = 
+				(double) (allocatedBytes(threads) - before) / cabins;
+		//a byte of occupancy per cabin, and a little for the Ship itself.
+		//An object per room took at least 24 bytes per cabin.
+		assertTrue("" + bytesPerCabin, bytesPerCabin >= 1);
+		assertTrue("" + bytesPerCabin, bytesPerCabin < 4);
+		assertEquals(sailings, fleet.length);
+	}
+}
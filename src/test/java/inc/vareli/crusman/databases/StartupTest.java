@@ -0,0 +1,42 @@
+package inc.vareli.crusman.databases;
+
+import org.junit.Test;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTest {
+
+	private static ConnectionPool counting(String name, AtomicInteger executions) {
+		return new ConnectionPool(
+				() -> TestDatabase.counting(TestDatabase.open(name), executions),
+				2, 10000, 60000);
+	}
+
+	@Test
+	public void upToDateSchemaIsCheckedWithOneQuery() {
+		String name = "startup" + System.nanoTime();
+		AtomicInteger executions = new AtomicInteger();
+		CMConnection first = new CMConnection(counting(name, executions));
+		int migrating = executions.get();
+		first.close();
+
+		executions.set(0);
+		CMConnection second = new CMConnection(counting(name, executions));
+		assertEquals(1, executions.get());
+		second.close();
+		assertTrue(migrating > 1);
+	}
+
+	@Test
+	public void knownDatabaseSkipsTheCheck() {
+		String name = "startupKey" + System.nanoTime();
+		AtomicInteger executions = new AtomicInteger();
+		new CMConnection(counting(name, executions), name).close();
+
+		executions.set(0);
+		new CMConnection(counting(name, executions), name).close();
+		assertEquals(0, executions.get());
+	}
+}
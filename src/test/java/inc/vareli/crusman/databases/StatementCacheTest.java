@@ -0,0 +1,56 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Test;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+
+	@Test
+	public void reusesAndEvictsLeastRecentlyUsed() throws Exception {
+		AtomicLong hits = new AtomicLong();
+		AtomicLong misses = new AtomicLong();
+		try(Connection raw = TestDatabase.open("statements" + System.nanoTime());
+				StatementCache cache = new StatementCache(raw, 2, hits, misses)) {
+			PreparedStatement one = cache.prepare("select 1");
+			PreparedStatement two = cache.prepare("select 2");
+			assertSame(one, cache.prepare("select 1"));
+			cache.prepare("select 3");
+
+			assertEquals(2, cache.size());
+			assertTrue(two.isClosed());
+			assertFalse(one.isClosed());
+			assertEquals(1, hits.get());
+			assertEquals(3, misses.get());
+		}
+	}
+
+	@Test
+	public void hotPathsSkipPreparing() {
+		CMConnection connection = new CMConnection(
+					TestDatabase.pool("hotPaths" + System.nanoTime(), 1));
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip trip = connection.createTrip(TestDatabase.tripBuilder(ship, 0, 4));
+		connection.bookTrip(trip, "Warm Up", false, false, RoomType.SUITE);
+		connection.queryTrip();
+		long misses = connection.getStatementCacheMisses();
+		long hits = connection.getStatementCacheHits();
+
+		for(int i = 0; i < 5; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(ship, i + 1, 4));
+			connection.bookTrip(trip, "Jane Doe", true, true, RoomType.INTERIOR);
+			connection.queryTrip();
+		}
+		assertEquals(misses, connection.getStatementCacheMisses());
+		assertTrue(connection.getStatementCacheHits() > hits);
+		connection.close();
+	}
+}
@@ -0,0 +1,138 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for tests that run against an in-memory H2 database instead of the
+ * shared MySQL server, so they can run anywhere.
+ */
+class TestDatabase {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	/**
+	 * @param name - a name that is unique to the test using the database
+	 * @return a JDBC url for a fresh in-memory database that behaves like MySQL
+	 */
+	static String url(String name) {
+		return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;" + 
+				"CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+	}
+
+	static Connection open(String name) throws SQLException {
+		return DriverManager.getConnection(url(name), "sa", "");
+	}
+
+	/**
+	 * @param name - a name that is unique to the test using the database
+	 * @param size - the most connections the pool will open
+	 * @return a pool of connections to a fresh in-memory database
+	 */
+	static ConnectionPool pool(String name, int size) {
+		return new ConnectionPool(() -> open(name), size, 10000, 60000);
+	}
+
+	/**
+	 * Wraps a connection so that every statement executed through it, and
+	 * every metadata lookup like getTables, is counted.
+	 * @param connection - the connection to wrap
+	 * @param executions - incremented once per executed statement or lookup
+	 * @return the counting connection
+	 */
+	static Connection counting(Connection connection, AtomicInteger executions) {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class},
+				(proxy, method, args) -> {
+					Object result = invoke(connection, method, args);
+					if (result instanceof Statement) {
+						return countingStatement((Statement) result,
+										method.getReturnType(), executions);
+					}
+					if (result instanceof DatabaseMetaData) {
+						return countingMetaData((DatabaseMetaData) result,
+															executions);
+					}
+					return result;
+				});
+	}
+
+	private static Object countingMetaData(DatabaseMetaData metaData,
+											AtomicInteger executions) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getReturnType() == ResultSet.class) {
+				executions.incrementAndGet();
+			}
+			return invoke(metaData, method, args);
+		};
+		return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {DatabaseMetaData.class}, handler);
+	}
+
+	private static Object countingStatement(Statement statement, 
+								Class<?> statementType, AtomicInteger executions) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().startsWith("execute")) {
+				executions.incrementAndGet();
+			}
+			return invoke(statement, method, args);
+		};
+		return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {statementType}, handler);
+	}
+
+	private static Object invoke(Object target, java.lang.reflect.Method method,
+								Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	static EnumMap<RoomType,Integer> roomCounts(int interior, int outside,
+												int balcony, int suites) {
+		EnumMap<RoomType,Integer> roomCounts = 
+								new EnumMap<RoomType,Integer>(RoomType.class);
+		roomCounts.put(RoomType.INTERIOR, interior);
+		roomCounts.put(RoomType.OUTSIDE, outside);
+		roomCounts.put(RoomType.BALCONY, balcony);
+		roomCounts.put(RoomType.SUITE, suites);
+		return roomCounts;
+	}
+
+	/**
+	 * @param ship - the ship the trip sails on
+	 * @param firstDay - days after the epoch that the trip leaves on
+	 * @param days - how many days long the trip is
+	 * @return a builder for a trip with two ports and every cost filled in
+	 */
+	static TripBuilder tripBuilder(Ship ship, int firstDay, int days) {
+		TripBuilder builder = new TripBuilder(ship);
+		builder.addCost(Service.MEALS, 120);
+		builder.addCost(Service.DRINKS, 130);
+		builder.addCost(RoomType.INTERIOR, 140);
+		builder.addCost(RoomType.OUTSIDE, 150);
+		builder.addCost(RoomType.BALCONY, 160);
+		builder.addCost(RoomType.SUITE, 170);
+		builder.addPort(new Date(firstDay * DAY), new Date(firstDay * DAY),
+						"Rome", "GMT");
+		builder.addPort(new Date((firstDay + days) * DAY), 
+						new Date((firstDay + days) * DAY), "Pisa", "GMT");
+		return builder;
+	}
+}
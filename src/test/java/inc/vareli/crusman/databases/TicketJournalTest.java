@@ -0,0 +1,167 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TicketJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Ticket ticket(long ticketID) {
+		return new Ticket(ticketID, 7, RoomType.SUITE, 300 + (int) ticketID,
+							"Guest " + ticketID, ticketID % 2 == 0, false);
+	}
+
+	@Test
+	public void ticketsAreKeptAcrossRestarts() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			for(long id = 1; id <= 100; id++) {
+				journal.append(ticket(id));
+			}
+			journal.sync();
+			assertEquals(ticket(42).toString(), journal.read(42));
+		}
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			assertEquals(100, journal.size());
+			assertEquals(ticket(1).toString(), journal.read(1));
+			assertEquals(ticket(100).toString(), journal.read(100));
+			assertNull(journal.read(101));
+
+			journal.append(101, "Ticket ID: 101");
+			assertEquals("Ticket ID: 101", journal.read(101));
+		}
+	}
+
+	@Test
+	public void fullSegmentsRollOver() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory, 1024)) {
+			for(long id = 1; id <= 200; id++) {
+				journal.append(ticket(id));
+			}
+			assertTrue(journal.getSegmentCount() > 10);
+			for(long id = 1; id <= 200; id++) {
+				assertEquals(ticket(id).toString(), journal.read(id));
+			}
+		}
+		try(TicketJournal journal = new TicketJournal(directory, 1024)) {
+			assertEquals(200, journal.size());
+			assertEquals(ticket(150).toString(), journal.read(150));
+			for(File file : directory.toFile().listFiles()) {
+				assertEquals(1024, file.length());
+			}
+		}
+	}
+
+	@Test
+	public void emptyTicketsAreRejected() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			journal.append(ticket(1));
+			try {
+				journal.append(2, "");
+				fail("An empty record would end the journal");
+			} catch(IllegalArgumentException e) {
+				//expected
+			}
+			journal.append(ticket(3));
+		}
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			assertEquals(2, journal.size());
+			assertEquals(ticket(3).toString(), journal.read(3));
+		}
+	}
+
+	@Test
+	public void onlyOneJournalCanOpenADirectory() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			journal.append(ticket(1));
+			try {
+				new TicketJournal(directory).close();
+				fail("The segments are locked by the first journal");
+			} catch(IOException e) {
+				//expected
+			}
+			journal.append(ticket(2));
+		}
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			assertEquals(2, journal.size());
+		}
+	}
+
+	@Test
+	public void recordCutOffByACrashIsDropped() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			journal.append(ticket(1));
+			journal.append(ticket(2));
+		}
+		//damage the last byte of the second ticket, as if the write was torn
+		Path segment = directory.resolve("tickets-000000.journal");
+		int end = 8 + 16 + ticket(1).toString().length() + 
+					16 + ticket(2).toString().length();
+		try(RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			file.seek(end - 1);
+			file.write('#');
+		}
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			assertEquals(1, journal.size());
+			assertEquals(ticket(1).toString(), journal.read(1));
+			assertNull(journal.read(2));
+			//the next ticket goes where the broken one was
+			journal.append(ticket(3));
+		}
+		try(TicketJournal journal = new TicketJournal(directory)) {
+			assertEquals(2, journal.size());
+			assertEquals(ticket(3).toString(), journal.read(3));
+		}
+	}
+
+	@Test
+	public void segmentCutOffBeforeItsHeaderIsStartedAgain() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(TicketJournal journal = new TicketJournal(directory, 1024)) {
+			journal.append(ticket(1));
+		}
+		//made full size, then a crash before the header was written
+		try(RandomAccessFile file = new RandomAccessFile(
+				directory.resolve("tickets-000001.journal").toFile(), "rw")) {
+			file.setLength(1024);
+		}
+		//and a segment that was being set up when it crashed
+		try(RandomAccessFile file = new RandomAccessFile(
+				directory.resolve("tickets-000002.journal.new").toFile(), "rw")) {
+			file.setLength(1024);
+		}
+		try(TicketJournal journal = new TicketJournal(directory, 1024)) {
+			assertEquals(2, journal.getSegmentCount());
+			assertEquals(ticket(1).toString(), journal.read(1));
+			for(long id = 2; id <= 20; id++) {
+				journal.append(ticket(id));
+			}
+			assertTrue(journal.getSegmentCount() > 2);
+		}
+		try(TicketJournal journal = new TicketJournal(directory, 1024)) {
+			assertEquals(20, journal.size());
+			assertEquals(ticket(2).toString(), journal.read(2));
+			assertEquals(ticket(20).toString(), journal.read(20));
+		}
+		assertFalse(directory.resolve("tickets-000002.journal.new")
+								.toFile().exists());
+	}
+}
@@ -0,0 +1,165 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TripLoadingTest {
+	private String name;
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		name = "tripLoading" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	@Test
+	public void queryTripUsesFixedNumberOfQueries() {
+		Ship small = connection.createShip(TestDatabase.roomCounts(1, 2, 3, 4));
+		Ship large = connection.createShip(TestDatabase.roomCounts(5, 6, 7, 8));
+		for(int i = 0; i < 5; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(small, i, 3));
+		}
+		//new trips are added to the cached catalog, so read it afresh
+		connection.invalidateCaches();
+		executions.set(0);
+		assertEquals(5, connection.queryTrip().size());
+		int fewTrips = executions.get();
+
+		for(int i = 0; i < 50; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(large, i, 2));
+		}
+		connection.invalidateCaches();
+		executions.set(0);
+		assertEquals(55, connection.queryTrip().size());
+		assertEquals(fewTrips, executions.get());
+		assertEquals(4, executions.get());
+	}
+
+	@Test
+	public void queryTripKeepsTripDetails() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 2, 3, 4));
+		Trip created = connection.createTrip(
+						TestDatabase.tripBuilder(ship, 10, 4));
+		List<Trip> trips = connection.queryTrip();
+
+		assertEquals(1, trips.size());
+		Trip loaded = trips.get(0);
+		assertEquals(created.ID, loaded.ID);
+		assertEquals(ship.ID, loaded.SHIP.ID);
+		assertEquals(2, loaded.PORTS.size());
+		assertEquals("Rome", loaded.PORTS.getLocation(0));
+		assertEquals("Pisa", loaded.PORTS.getLocation(1));
+		assertEquals(4, loaded.getDuration());
+		assertEquals(120, loaded.COSTS.get(Service.MEALS), 0.001);
+		assertEquals(170, loaded.COSTS.get(RoomType.SUITE), 0.001);
+		assertEquals(created.getTotalFees(), loaded.getTotalFees(), 0.001);
+		assertEquals(ship.toString(), loaded.SHIP.toString());
+	}
+
+	@Test
+	public void loadedTripsKeepTheirBookings() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		Trip created = connection.createTrip(
+						TestDatabase.tripBuilder(ship, 10, 4));
+		for(int i = 0; i < 5; i++) {
+			connection.bookTrip(created, "Jane Doe", false, false,
+								RoomType.INTERIOR);
+		}
+		connection.bookTrip(created, "John Doe", false, false, RoomType.SUITE);
+
+		//as if the terminal was restarted
+		try(CMConnection restarted = new CMConnection(
+								TestDatabase.pool(name, 2))) {
+			Trip loaded = restarted.queryTrip().get(0);
+			assertEquals(5, loaded.SHIP.getTotalOccupancy(RoomType.INTERIOR));
+			assertEquals(0, loaded.SHIP.getEmptyRoomCount(RoomType.INTERIOR));
+			assertEquals(1, loaded.SHIP.getEmptyRoomCount(RoomType.SUITE));
+			assertEquals(created.SHIP.toString(), loaded.SHIP.toString());
+			//the first room is full, so the next person goes in with the fifth
+			assertEquals(1, loaded.addPerson(RoomType.INTERIOR));
+		}
+	}
+
+	@Test
+	public void storedTripsLoadWithoutTheirOrderChecked() throws Exception {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 1, 1, 1));
+		Trip overlapping = connection.createTrip(
+						TestDatabase.tripBuilder(ship, 10, 4));
+		connection.createTrip(TestDatabase.tripBuilder(ship, 20, 4));
+		//written before the check, arriving at Pisa before leaving Rome
+		try(Connection raw = TestDatabase.open(name);
+				Statement statement = raw.createStatement()) {
+			statement.executeUpdate("update Port set arrivalDate = " +
+							"'1970-01-01' where portName = 'Pisa' and tripID = " +
+							overlapping.ID);
+		}
+
+		List<Trip> trips = connection.queryTrip();
+		assertEquals(2, trips.size());
+		assertEquals(overlapping.ID, trips.get(0).ID);
+		assertEquals("Rome", trips.get(0).PORTS.getLocation(0));
+		assertEquals("GMT", trips.get(0).PORTS.getZoneId(0));
+		assertEquals("GMT", trips.get(1).PORTS.getZoneId(1));
+	}
+
+	@Test
+	public void refreshOnlyRereadsTripsWithNewBookings() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		for(int i = 0; i < 3; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(ship, i * 10, 4));
+		}
+		List<Trip> trips = connection.queryTrip();
+
+		executions.set(0);
+		assertEquals(0, connection.refreshOccupancy(trips));
+		assertEquals(1, executions.get());
+
+		try(CMConnection other = new CMConnection(TestDatabase.pool(name, 2))) {
+			Trip booked = other.queryTrip().get(1);
+			for(int i = 0; i < 6; i++) {
+				other.bookTrip(booked, "Jane Doe", false, false, RoomType.BALCONY);
+			}
+		}
+		executions.set(0);
+		assertEquals(1, connection.refreshOccupancy(trips));
+		assertEquals(2, executions.get());
+		assertEquals(6, trips.get(1).SHIP.getTotalOccupancy(RoomType.BALCONY));
+		assertEquals(0, trips.get(1).SHIP.getEmptyRoomCount(RoomType.BALCONY));
+		assertEquals(0, trips.get(0).SHIP.getTotalOccupancy(RoomType.BALCONY));
+		assertEquals(0, connection.refreshOccupancy(trips));
+	}
+
+	@Test
+	public void refreshMatchesTripsInChunks() {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		for(int i = 0; i < 501; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(ship, i, 4));
+		}
+		List<Trip> trips = connection.queryTrip();
+		Trip last = trips.get(500);
+		try(CMConnection other = new CMConnection(TestDatabase.pool(name, 2))) {
+			other.bookTrip(other.queryTrip().get(500), "Jane Doe", false, false,
+							RoomType.SUITE);
+		}
+
+		executions.set(0);
+		assertEquals(1, connection.refreshOccupancy(trips));
+		//two chunks of occupancy, one of tickets
+		assertEquals(3, executions.get());
+		assertEquals(1, last.SHIP.getTotalOccupancy(RoomType.SUITE));
+	}
+}
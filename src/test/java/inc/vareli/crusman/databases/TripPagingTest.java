@@ -0,0 +1,99 @@
+package inc.vareli.crusman.databases;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TripPagingTest {
+	private AtomicInteger executions;
+	private ConnectionPool pool;
+	private CMConnection connection;
+	private List<Long> created;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		String name = "tripPaging" + System.nanoTime();
+		pool = new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000);
+		connection = new CMConnection(pool);
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 2, 3, 4));
+		for(int i = 0; i < 25; i++) {
+			connection.createTrip(TestDatabase.tripBuilder(ship, i, 3));
+		}
+		created = connection.queryTrip().stream()
+						.map(trip -> trip.ID).collect(Collectors.toList());
+	}
+
+	@Test
+	public void pagesFollowOnFromTheLastTrip() {
+		List<Trip> first = connection.queryTripPage(0, 10);
+		List<Trip> second = connection.queryTripPage(first.get(9).ID, 10);
+		executions.set(0);
+		List<Trip> third = connection.queryTripPage(second.get(9).ID, 10);
+		assertEquals(5, executions.get());
+
+		assertEquals(10, first.size());
+		assertEquals(10, second.size());
+		assertEquals(5, third.size());
+		assertEquals(created.get(10), (Long) second.get(0).ID);
+		assertEquals(created.get(24), (Long) third.get(4).ID);
+		assertEquals(2, third.get(4).PORTS.size());
+		assertTrue(connection.queryTripPage(third.get(4).ID, 10).isEmpty());
+	}
+
+	@Test
+	public void streamReadsEveryTripAndReturnsTheConnection() {
+		try(Stream<Trip> trips = connection.streamTrips()) {
+			assertEquals(created, trips.map(trip -> trip.ID)
+											.collect(Collectors.toList()));
+		}
+		assertEquals(1, pool.getIdleCount());
+
+		try(Stream<Trip> trips = connection.streamTrips()) {
+			assertEquals(created.get(0), (Long) trips.findFirst().get().ID);
+		}
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void pagerStepsThroughEveryTrip() {
+		ExecutorService workers = Executors.newSingleThreadExecutor();
+		AtomicInteger prefetches = new AtomicInteger();
+		Executor loader = task -> {
+			prefetches.incrementAndGet();
+			workers.execute(task);
+		};
+		try {
+			TripPager pager = new TripPager(connection, 4, loader);
+			for(int i = 0; i < created.size(); i++) {
+				assertEquals(created.get(i), (Long) pager.get(i).ID);
+				assertTrue(pager.getLoadedPageCount() <= 3);
+			}
+			for(int i = created.size() - 1; i >= 0; i--) {
+				assertEquals(created.get(i), (Long) pager.get(i).ID);
+			}
+			try {
+				pager.get(created.size());
+				fail("There is no trip past the last one");
+			} catch(IndexOutOfBoundsException e) {
+				//expected
+			}
+			//the next pages were loaded on the given executor
+			assertTrue(prefetches.get() > 0);
+		} finally {
+			workers.shutdown();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Ship.RoomType;
+import inc.vareli.crusman.databases.Trip.Service;
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TripSearchTest {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private AtomicInteger executions;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		executions = new AtomicInteger();
+		String name = "tripSearch" + System.nanoTime();
+		connection = new CMConnection(new ConnectionPool(
+						() -> TestDatabase.counting(TestDatabase.open(name), executions),
+						2, 10000, 60000));
+	}
+
+	private Trip createTrip(String from, String to, int firstDay, int days,
+							double suiteFee, double mealFee) {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(2, 2, 2, 2));
+		TripBuilder builder = new TripBuilder(ship);
+		builder.addCost(Service.MEALS, mealFee);
+		builder.addCost(Service.DRINKS, 50);
+		for(RoomType type : RoomType.values()) {
+			builder.addCost(type, 100);
+		}
+		builder.addCost(RoomType.SUITE, suiteFee);
+		builder.addPort(new Date(firstDay * DAY), new Date(firstDay * DAY),
+						from, "GMT");
+		builder.addPort(new Date((firstDay + days) * DAY),
+						new Date((firstDay + days) * DAY), to, "GMT");
+		return connection.createTrip(builder);
+	}
+
+	private List<Long> search(TripQuery query) {
+		return connection.searchTrips(query, 0, 100).stream()
+						.map(trip -> trip.ID).collect(Collectors.toList());
+	}
+
+	@Test
+	public void filtersAreAllApplied() {
+		Trip rome = createTrip("Rome", "Pisa", 0, 3, 170, 120);
+		Trip naples = createTrip("Naples", "Pisa", 10, 4, 300, 120);
+		Trip genoa = createTrip("Rome", "Genoa", 20, 2, 100, 90);
+
+		assertEquals(Arrays.asList(rome.ID, naples.ID, genoa.ID),
+						search(new TripQuery()));
+		assertEquals(Arrays.asList(rome.ID, genoa.ID),
+						search(new TripQuery().visiting("Rome")));
+		assertEquals(Arrays.asList(naples.ID, genoa.ID),
+						search(new TripQuery().departingBetween(
+										new Date(5 * DAY), null)));
+		assertEquals(Arrays.asList(naples.ID),
+						search(new TripQuery().arrivingBetween(
+										new Date(14 * DAY), new Date(14 * DAY))));
+		assertEquals(Arrays.asList(rome.ID, genoa.ID),
+						search(new TripQuery().maxCost(RoomType.SUITE, 200)));
+		assertEquals(Arrays.asList(genoa.ID),
+						search(new TripQuery().maxCost(Service.MEALS, 100)));
+		assertEquals(Arrays.asList(rome.ID),
+						search(new TripQuery().visiting("Rome")
+							.maxCost(RoomType.SUITE, 200)
+							.departingBetween(null, new Date(5 * DAY))));
+		assertTrue(search(new TripQuery().visiting("Lisbon")).isEmpty());
+	}
+
+	@Test
+	public void freeCabinsDependOnTripLength() {
+		Trip longTrip = createTrip("Rome", "Pisa", 0, 7, 100, 100);
+		Trip shortTrip = createTrip("Rome", "Pisa", 10, 2, 100, 100);
+		//four fill a suite on a long trip, but leave space on a short one
+		for(int i = 0; i < 4; i++) {
+			connection.bookTrip(longTrip, "Long " + i, false, false,
+								RoomType.SUITE);
+			connection.bookTrip(shortTrip, "Short " + i, false, false,
+								RoomType.SUITE);
+		}
+		assertEquals(Arrays.asList(longTrip.ID, shortTrip.ID),
+				search(new TripQuery().minFreeCabins(RoomType.SUITE, 1)));
+		assertTrue(search(new TripQuery()
+				.minFreeCabins(RoomType.SUITE, 2)).isEmpty());
+		assertEquals(Arrays.asList(longTrip.ID, shortTrip.ID),
+				search(new TripQuery().minFreeCabins(RoomType.BALCONY, 2)));
+
+		connection.bookTrip(longTrip, "Long 4", false, false, RoomType.SUITE);
+		connection.bookTrip(shortTrip, "Short 4", false, false, RoomType.SUITE);
+		assertEquals(Arrays.asList(shortTrip.ID),
+				search(new TripQuery().minFreeCabins(RoomType.SUITE, 1)));
+	}
+
+	@Test
+	public void resultsArePagedWithAFixedNumberOfQueries() {
+		List<Long> matching = new ArrayList<Long>();
+		for(int i = 0; i < 10; i++) {
+			Trip trip = createTrip((i % 2 == 0) ? "Rome" : "Naples", "Pisa",
+									i, 3, 100, 100);
+			if (i % 2 == 0) {
+				matching.add(trip.ID);
+			}
+		}
+		TripQuery query = new TripQuery().visiting("Rome");
+		executions.set(0);
+		List<Trip> first = connection.searchTrips(query, 0, 2);
+		assertEquals(5, executions.get());
+		assertEquals(matching.subList(0, 2), first.stream()
+						.map(trip -> trip.ID).collect(Collectors.toList()));
+
+		TripPager pager = new TripPager(connection, query, 2, Runnable::run);
+		for(int i = 0; i < matching.size(); i++) {
+			assertEquals(matching.get(i), (Long) pager.get(i).ID);
+			assertEquals(2, pager.get(i).PORTS.size());
+		}
+		try {
+			pager.get(matching.size());
+			fail("There is no match past the last one");
+		} catch(IndexOutOfBoundsException e) {
+			//expected
+		}
+	}
+}
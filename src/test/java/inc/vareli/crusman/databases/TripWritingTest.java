@@ -0,0 +1,61 @@
+package inc.vareli.crusman.databases;
+
+import inc.vareli.crusman.databases.Trip.TripBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TripWritingTest {
+	private Connection raw;
+	private CMConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		raw = TestDatabase.open("tripWriting" + System.nanoTime());
+		connection = new CMConnection(new ConnectionPool(() -> raw, 1, 10000, 60000));
+	}
+
+	private int count(String table) throws SQLException {
+		ResultSet rows = raw.createStatement()
+							.executeQuery("select count(*) from " + table);
+		rows.next();
+		return rows.getInt(1);
+	}
+
+	@Test
+	public void createTripWritesEveryRow() throws SQLException {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 2, 3, 4));
+		connection.createTrip(TestDatabase.tripBuilder(ship, 0, 3));
+		assertEquals(1, count("Trip"));
+		assertEquals(2, count("Port"));
+		assertEquals(4, count("RoomInfo"));
+		assertTrue(raw.getAutoCommit());
+	}
+
+	@Test
+	public void failedCreateTripLeavesNothingBehind() throws SQLException {
+		Ship ship = connection.createShip(TestDatabase.roomCounts(1, 2, 3, 4));
+		TripBuilder builder = TestDatabase.tripBuilder(ship, 0, 3);
+		//same port twice breaks the Port primary key after Trip is written
+		builder.addPort(new Date(), new Date(), "Rome", "GMT");
+		try {
+			connection.createTrip(builder);
+			fail("duplicate port should not be accepted");
+		} catch(IllegalStateException e) {
+			assertEquals(0, count("Trip"));
+			assertEquals(0, count("Port"));
+			assertEquals(0, count("RoomInfo"));
+			assertTrue(raw.getAutoCommit());
+		}
+		connection.createTrip(TestDatabase.tripBuilder(ship, 0, 3));
+		assertEquals(1, count("Trip"));
+	}
+}